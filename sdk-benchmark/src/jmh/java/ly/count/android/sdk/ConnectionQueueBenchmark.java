@@ -0,0 +1,25 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConnectionQueueBenchmark {
+    ConnectionQueue connectionQueue;
+
+    @Setup
+    public void setUp() {
+        connectionQueue = new ConnectionQueue();
+        connectionQueue.setAppKey("0123456789abcdef0123456789abcdef01234567");
+    }
+
+    @Benchmark
+    public String prepareCommonRequestData() {
+        return connectionQueue.prepareCommonRequestData();
+    }
+}
@@ -0,0 +1,56 @@
+package ly.count.android.sdk;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CountlyStoreBenchmark {
+    static final String REQUEST = "app_key=0123456789abcdef0123456789abcdef01234567&timestamp=1579463653876&hour=21&dow=6&tz=120"
+        + "&sdk_version=20.11.2&sdk_name=java-native-android&device_id=benchmark-device"
+        + "&events=%5B%7B%22key%22%3A%22benchmark_event%22%2C%22count%22%3A1%2C%22timestamp%22%3A1579463653876%7D%5D";
+
+    @Param({ "10", "100", "1000" })
+    public int queueDepth;
+
+    InMemoryContext context;
+    CountlyStore store;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new InMemoryContext();
+        store = new CountlyStore(context, new ModuleLog());
+        store.clear();
+
+        for (int a = 0; a < queueDepth; a++) {
+            store.addConnection(REQUEST + "&seq=" + a);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.clear();
+        context.deleteFiles();
+    }
+
+    /**
+     * Removes the oldest request and adds a new one, so the queue depth stays the same
+     */
+    @Benchmark
+    public void addConnection() {
+        store.deleteOldestRequest();
+        store.addConnection(REQUEST);
+    }
+
+    @Benchmark
+    public String[] connections() {
+        return store.connections();
+    }
+}
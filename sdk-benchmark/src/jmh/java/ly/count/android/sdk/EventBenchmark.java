@@ -0,0 +1,46 @@
+package ly.count.android.sdk;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventBenchmark {
+    Event event;
+    JSONObject json;
+
+    @Setup
+    public void setUp() {
+        event = new Event("benchmark_event");
+        event.count = 3;
+        event.sum = 12.5;
+        event.dur = 1.25;
+        event.segmentation = new HashMap<>();
+        event.segmentation.put("screen", "settings");
+        event.segmentation.put("source", "menu");
+        event.segmentationInt = new HashMap<>();
+        event.segmentationInt.put("position", 4);
+        event.segmentationDouble = new HashMap<>();
+        event.segmentationDouble.put("value", 0.75);
+        event.segmentationBoolean = new HashMap<>();
+        event.segmentationBoolean.put("premium", true);
+
+        json = event.toJSON();
+    }
+
+    @Benchmark
+    public JSONObject toJSON() {
+        return event.toJSON();
+    }
+
+    @Benchmark
+    public Event fromJSON() {
+        return Event.fromJSON(json);
+    }
+}
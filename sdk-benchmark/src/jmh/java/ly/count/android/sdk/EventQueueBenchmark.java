@@ -0,0 +1,60 @@
+package ly.count.android.sdk;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventQueueBenchmark {
+    @Param({ "10", "100" })
+    public int eventCount;
+
+    InMemoryContext context;
+    CountlyStore store;
+    EventQueue eventQueue;
+    Map<String, String> segmentation;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new InMemoryContext();
+        store = new CountlyStore(context, new ModuleLog());
+        store.clear();
+        eventQueue = new EventQueue(store);
+
+        segmentation = new HashMap<>();
+        segmentation.put("screen", "settings");
+        segmentation.put("source", "menu");
+    }
+
+    /**
+     * events() removes the events it returns, so the queue is filled again before every call
+     */
+    @Setup(Level.Invocation)
+    public void fillQueue() {
+        final UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        for (int a = 0; a < eventCount; a++) {
+            eventQueue.recordEvent("benchmark_event_" + a, segmentation, null, null, null, 1, 0, 0, instant);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.clear();
+        context.deleteFiles();
+    }
+
+    @Benchmark
+    public String events() {
+        return eventQueue.events();
+    }
+}
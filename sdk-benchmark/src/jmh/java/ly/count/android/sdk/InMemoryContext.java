@@ -0,0 +1,61 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context that provides in-memory SharedPreferences and a temporary files directory, used in benchmarks
+ */
+class InMemoryContext extends ContextWrapper {
+    private final Map<String, SharedPreferences> preferences = new HashMap<>();
+    private final File filesDir;
+
+    InMemoryContext() throws IOException {
+        super(null);
+        filesDir = Files.createTempDirectory("countly-benchmark").toFile();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new InMemorySharedPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    /**
+     * Deletes the temporary files directory
+     */
+    void deleteFiles() {
+        deleteRecursively(filesDir);
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
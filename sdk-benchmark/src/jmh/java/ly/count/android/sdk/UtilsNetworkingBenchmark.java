@@ -0,0 +1,24 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UtilsNetworkingBenchmark {
+    String request = CountlyStoreBenchmark.REQUEST;
+    String value = "{\"key\":\"benchmark_event\",\"segmentation\":{\"screen\":\"settings & more\",\"source\":\"men\u00fc\"}}";
+
+    @Benchmark
+    public String sha256Hash() {
+        return UtilsNetworking.sha256Hash(request);
+    }
+
+    @Benchmark
+    public String urlEncodeString() {
+        return UtilsNetworking.urlEncodeString(value);
+    }
+}
@@ -0,0 +1,153 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class BreadcrumbBufferTests {
+    File file;
+
+    @Before
+    public void setUp() {
+        file = new File(getContext().getCacheDir(), "breadcrumb_test");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    List<String> records(BreadcrumbBuffer buffer) {
+        List<String> res = new ArrayList<>();
+        for (BreadcrumbBuffer.Entry entry : buffer.entries()) {
+            res.add(entry.record);
+        }
+        return res;
+    }
+
+    BreadcrumbBuffer open(int capacity) {
+        BreadcrumbBuffer buffer = BreadcrumbBuffer.open(file, capacity, 1000, 1000, mock(ModuleLog.class));
+        assertNotNull(buffer);
+        return buffer;
+    }
+
+    @Test
+    public void entriesAreStructured() {
+        BreadcrumbBuffer buffer = new BreadcrumbBuffer(1024, 10, 100);
+        long before = System.currentTimeMillis();
+        buffer.add("a");
+        buffer.add("b");
+
+        List<BreadcrumbBuffer.Entry> entries = buffer.entries();
+        assertEquals(2, entries.size());
+        assertEquals("a", entries.get(0).record);
+        assertEquals(0, entries.get(0).sequence);
+        assertEquals(1, entries.get(1).sequence);
+        assertEquals(Thread.currentThread().getId(), entries.get(1).threadId);
+        assertTrue(entries.get(1).timestamp >= before);
+
+        assertEquals(2, buffer.drain().size());
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.entries().size());
+    }
+
+    @Test
+    public void oldestAreOverwritten() {
+        //each record takes 28 + 3 bytes, 4 of them fit
+        BreadcrumbBuffer buffer = new BreadcrumbBuffer(130, 100, 100);
+        for (int a = 0; a < 20; a++) {
+            buffer.add("r" + (a < 10 ? "0" : "") + a);
+            List<String> records = records(buffer);
+            assertEquals("r" + (a < 10 ? "0" : "") + a, records.get(records.size() - 1));
+            assertTrue(records.size() <= 4);
+        }
+        assertEquals(4, buffer.size());
+
+        //records of different lengths wrap too
+        for (int a = 0; a < 30; a++) {
+            String record = a % 3 == 0 ? "long record " + a : "s" + a;
+            buffer.add(record);
+            List<String> records = records(buffer);
+            assertEquals(record, records.get(records.size() - 1));
+        }
+
+        //a record that doesn't fit at all is ignored
+        buffer.add(new String(new char[200]).replace('\0', 'x'));
+        assertTrue(buffer.size() > 0);
+    }
+
+    @Test
+    public void entryLimitAndCharacterLimit() {
+        BreadcrumbBuffer buffer = new BreadcrumbBuffer(4096, 3, 5);
+        buffer.add("1");
+        buffer.add("2");
+        buffer.add("3");
+        buffer.add("4567890");
+
+        assertEquals("[2, 3, 45678]", records(buffer).toString());
+    }
+
+    @Test
+    public void utf8Records() {
+        BreadcrumbBuffer buffer = new BreadcrumbBuffer(4096, 10, 4);
+        buffer.add("ü€😀");
+        buffer.add("abc😀");
+        buffer.add("\ude00x");
+
+        //a surrogate pair that is cut by the character limit is not kept
+        assertEquals("[ü€😀, abc?, ?x]", records(buffer).toString());
+        assertEquals(9, BreadcrumbBuffer.utf8Length("ü€😀", 4));
+    }
+
+    @Test
+    public void recoveredFromFile() {
+        BreadcrumbBuffer buffer = open(130);
+        for (int a = 0; a < 7; a++) {
+            buffer.add("r0" + a);
+        }
+
+        //opening the file again, as on the next launch
+        BreadcrumbBuffer recovered = open(130);
+        assertEquals("[r03, r04, r05, r06]", records(recovered).toString());
+        assertEquals(6, recovered.entries().get(3).sequence);
+
+        recovered.add("r07");
+        assertEquals("[r04, r05, r06, r07]", records(open(130)).toString());
+
+        recovered.drain();
+        assertEquals(0, open(130).size());
+    }
+
+    @Test
+    public void damagedFileIsReset() throws Exception {
+        BreadcrumbBuffer buffer = open(1024);
+        buffer.add("a");
+        buffer.add("b");
+
+        //count that doesn't match the records
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(12);
+        raf.writeInt(5);
+        raf.close();
+
+        assertEquals(0, open(1024).size());
+
+        //a file of a different size is not used
+        open(1024).add("c");
+        assertEquals(0, open(2048).size());
+    }
+}
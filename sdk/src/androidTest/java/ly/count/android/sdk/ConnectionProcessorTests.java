@@ -21,17 +21,27 @@ THE SOFTWARE.
 */
 package ly.count.android.sdk;
 
+import android.util.Base64;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 
 import static ly.count.android.sdk.UtilsNetworking.sha256Hash;
 import static org.junit.Assert.assertEquals;
@@ -40,6 +50,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -167,7 +178,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore).removeConnection(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, times(0)).disconnect();
     }
 
     @Test
@@ -183,7 +194,7 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
         connectionProcessor.run();
 
-        verify(mockStore, times(2)).connections();
+        verify(mockStore, times(1)).connections();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
@@ -191,7 +202,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore, times(0)).removeConnection(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, times(0)).disconnect();
     }
 
     @Test
@@ -207,7 +218,7 @@ public class ConnectionProcessorTests {
         doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
         connectionProcessor.run();
 
-        verify(mockStore, times(2)).connections();
+        verify(mockStore, times(1)).connections();
         verify(connectionProcessor).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
         verify(mockURLConnection).connect();
         verify(mockURLConnection).getInputStream();
@@ -215,7 +226,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore, times(0)).removeConnection(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, times(0)).disconnect();
     }
 
     @Test
@@ -238,7 +249,7 @@ public class ConnectionProcessorTests {
         verify(mockURLConnection).getResponseCode();
         verify(mockStore, times(1)).removeConnection(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, times(0)).disconnect();
     }
 
     @Test
@@ -268,7 +279,217 @@ public class ConnectionProcessorTests {
         verify(mockStore).removeConnection(eventData2);
         assertTrue(testInputStream1.closed);
         assertTrue(testInputStream2.closed);
-        verify(mockURLConnection, times(2)).disconnect();
+        verify(mockURLConnection, times(0)).disconnect();
+    }
+
+    @Test
+    public void testRun_retryIsScheduled() throws IOException {
+        final String eventData = "blahblahblah";
+        final RetryScheduler mockScheduler = mock(RetryScheduler.class);
+        when(mockScheduler.canSend()).thenReturn(true);
+        connectionProcessor.setRetryScheduler(mockScheduler);
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.connections()).thenReturn(new String[] { eventData });
+        when(mockDeviceId.getId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        when(mockURLConnection.getInputStream()).thenReturn(new CountlyResponseStream("Success"), new CountlyResponseStream("Success"));
+        when(mockURLConnection.getResponseCode()).thenReturn(500, 200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
+
+        //failed request is not retried right away
+        connectionProcessor.run();
+        verify(connectionProcessor, times(1)).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
+        verify(mockScheduler).onFailure();
+        verify(mockStore, times(0)).removeConnection(eventData);
+
+        //nothing is sent while backing off
+        when(mockScheduler.canSend()).thenReturn(false);
+        connectionProcessor.run();
+        verify(connectionProcessor, times(1)).urlConnectionForServerRequest(eventData + "&device_id=" + testDeviceId, null);
+
+        when(mockScheduler.canSend()).thenReturn(true);
+        when(mockStore.connections()).thenReturn(new String[] { eventData }, new String[0]);
+        connectionProcessor.run();
+        verify(mockScheduler).onSuccess();
+        verify(mockStore).removeConnection(eventData);
+    }
+
+    @Test
+    public void writeCompressed() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int a = 0; a < 200; a++) {
+            sb.append("&events=%5B%7B%22key%22%3A%22buttonClick%22%7D%5D");
+        }
+        final String data = sb.toString();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final long written = ConnectionProcessor.writeCompressed(data, output);
+        assertEquals(output.size(), written);
+        assertTrue(written < data.length() / 10);
+
+        final GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(data, Utils.inputStreamToString(input));
+    }
+
+    @Test
+    public void compressionStats() {
+        final RequestCompressionStats stats = new RequestCompressionStats();
+        assertEquals(1, stats.getCompressionRatio(), 0.0001);
+
+        stats.record(1000, 200);
+        stats.record(3000, 800);
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(4000, stats.getUncompressedBytes());
+        assertEquals(1000, stats.getCompressedBytes());
+        assertEquals(0.25, stats.getCompressionRatio(), 0.0001);
+    }
+
+    @Test
+    public void collectBulkRequests_stopsAtBarriers() {
+        when(mockDeviceId.getId()).thenReturn(testDeviceId);
+        connectionProcessor.setBulkUpload(10, 1000);
+
+        String[] requests = new String[] { "a=1", "b=2", "c=3&device_id=new", "d=4" };
+        assertEquals(Arrays.asList("a=1", "b=2"), connectionProcessor.collectBulkRequests(requests));
+
+        requests = new String[] { "a=1", "b=2&override_id=old", "c=3" };
+        assertEquals(Arrays.asList("a=1"), connectionProcessor.collectBulkRequests(requests));
+
+        requests = new String[] { "a=1", "b=2&picturePath=%2Fpic.png" };
+        assertEquals(Arrays.asList("a=1"), connectionProcessor.collectBulkRequests(requests));
+
+        requests = new String[] { "a=1", "crash=x&" + CrashDetails.nativeDumpPathKey + "=%2Fdump", "c=3" };
+        assertEquals(Arrays.asList("a=1"), connectionProcessor.collectBulkRequests(requests));
+
+        requests = new String[] { "a=1", "b=2&device_id=" + DeviceId.temporaryCountlyDeviceId, "c=3" };
+        assertEquals(Arrays.asList("a=1"), connectionProcessor.collectBulkRequests(requests));
+    }
+
+    @Test
+    public void collectBulkRequests_limits() {
+        when(mockDeviceId.getId()).thenReturn(testDeviceId);
+        final String[] requests = new String[] { "a=1", "b=2", "c=3", "d=4" };
+
+        connectionProcessor.setBulkUpload(3, 1000);
+        assertEquals(Arrays.asList("a=1", "b=2", "c=3"), connectionProcessor.collectBulkRequests(requests));
+
+        //each request takes up 3 + "&device_id=123".length() bytes
+        connectionProcessor.setBulkUpload(10, 2 * 17);
+        assertEquals(Arrays.asList("a=1", "b=2"), connectionProcessor.collectBulkRequests(requests));
+    }
+
+    @Test
+    public void testRun_bulkUpload() throws IOException, JSONException {
+        final String eventData1 = "app_key=abc&begin_session=1";
+        final String eventData2 = "app_key=abc&events=%5B%5D";
+        connectionProcessor.setBulkUpload(10, 10000);
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.connections()).thenReturn(new String[] { eventData1, eventData2 }, new String[0]);
+        when(mockDeviceId.getId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        final CountlyResponseStream testInputStream = new CountlyResponseStream("Success");
+        when(mockURLConnection.getInputStream()).thenReturn(testInputStream);
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        final ArgumentCaptor<String> arg = ArgumentCaptor.forClass(String.class);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(arg.capture(), eq("/i/bulk"));
+        connectionProcessor.run();
+
+        verify(mockStore, times(2)).connections();
+        verify(connectionProcessor, times(1)).urlConnectionForServerRequest(anyString(), eq("/i/bulk"));
+        verify(mockStore).removeConnections(Arrays.asList(eventData1, eventData2));
+        verify(mockStore, times(0)).removeConnection(anyString());
+        assertTrue(testInputStream.closed);
+
+        final String bulkData = arg.getValue();
+        assertTrue(bulkData.startsWith("requests="));
+        final JSONArray requests = new JSONArray(UtilsNetworking.urlDecodeString(bulkData.substring("requests=".length())));
+        assertEquals(2, requests.length());
+        assertEquals("1", requests.getJSONObject(0).getString("begin_session"));
+        assertEquals(testDeviceId, requests.getJSONObject(0).getString("device_id"));
+        assertEquals("[]", requests.getJSONObject(1).getString("events"));
+        assertEquals("abc", requests.getJSONObject(1).getString("app_key"));
+    }
+
+    @Test
+    public void testRun_bulkUpload_retry() throws IOException {
+        final String eventData1 = "app_key=abc&begin_session=1";
+        final String eventData2 = "app_key=abc&events=%5B%5D";
+        connectionProcessor.setBulkUpload(10, 10000);
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.connections()).thenReturn(new String[] { eventData1, eventData2 });
+        when(mockDeviceId.getId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        when(mockURLConnection.getInputStream()).thenReturn(new CountlyResponseStream("Success"));
+        when(mockURLConnection.getResponseCode()).thenReturn(500);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(anyString(), eq("/i/bulk"));
+        connectionProcessor.run();
+
+        verify(mockStore, times(1)).connections();
+        verify(mockStore, times(0)).removeConnection(anyString());
+        verify(mockStore, times(0)).removeConnections(ArgumentMatchers.<String>anyList());
+    }
+
+    @Test
+    public void encodeBase64UrlEncoded() throws UnsupportedEncodingException {
+        //lengths that end in every padding case
+        for (int length = 0; length < 260; length += 7) {
+            byte[] input = new byte[length];
+            for (int a = 0; a < length; a++) {
+                input[a] = (byte) (a * 31 + 7);
+            }
+
+            byte[] output = new byte[(length / 3 + 1) * 4 * 3];
+            int written = ConnectionProcessor.encodeBase64UrlEncoded(input, length, output);
+
+            String expected = UtilsNetworking.urlEncodeString(Base64.encodeToString(input, Base64.NO_WRAP));
+            assertEquals(expected, new String(output, 0, written, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void writeNativeCrashRequest() throws IOException {
+        //larger than the read buffer, so that the dump is encoded in several parts
+        byte[] dump = new byte[ConnectionProcessor.NATIVE_DUMP_READ_SIZE * 2 + 100];
+        for (int a = 0; a < dump.length; a++) {
+            dump[a] = (byte) (a * 13);
+        }
+        File dumpFile = File.createTempFile("dump", ".dmp");
+        FileOutputStream fos = new FileOutputStream(dumpFile);
+        fos.write(dump);
+        fos.close();
+
+        String placeholder = UtilsNetworking.urlEncodeString(CrashDetails.nativeDumpPlaceholder);
+        String requestData = "app_key=abc&crash=%7B%22_error%22%3A%22" + placeholder + "%22%7D&device_id=dev";
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ConnectionProcessor.writeNativeCrashRequest(requestData, dumpFile, "salty", output);
+        dumpFile.delete();
+
+        String data = requestData.replace(placeholder, UtilsNetworking.urlEncodeString(Base64.encodeToString(dump, Base64.NO_WRAP)));
+        assertEquals(data + "&checksum256=" + sha256Hash(data + "salty"), output.toString("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void writeNativeCrashRequest_noPlaceholder() throws IOException {
+        File dumpFile = File.createTempFile("dump", ".dmp");
+        try {
+            ConnectionProcessor.writeNativeCrashRequest("app_key=abc&crash=%7B%7D", dumpFile, null, new ByteArrayOutputStream());
+        } finally {
+            dumpFile.delete();
+        }
+    }
+
+    @Test
+    public void nativeCrashRequestWithMissingDumpIsRemoved() throws IOException {
+        final String request = "app_key=abc&crash=%7B%7D&" + CrashDetails.nativeDumpPathKey + "=" + UtilsNetworking.urlEncodeString("/missing/dump.dmp");
+        when(mockStore.connections()).thenReturn(new String[] { request }, new String[0]);
+        when(mockDeviceId.getId()).thenReturn("dev");
+        connectionProcessor = spy(connectionProcessor);
+
+        connectionProcessor.run();
+
+        verify(mockStore, times(1)).removeConnection(request);
+        verify(connectionProcessor, times(0)).urlConnectionForServerRequest(anyString(), isNull(String.class));
     }
 
     private static class TestInputStream2 extends InputStream {
@@ -464,6 +464,15 @@ public class ConnectionQueueTests {
         verifyZeroInteractions(connQ.getExecutor());
     }
 
+    @Test
+    public void testTick_storeHasConnectionsButIsBackingOff() {
+        when(connQ.getCountlyStore().getRetryAttempts()).thenReturn(1);
+        when(connQ.getCountlyStore().getRetryNextAttemptTimestamp()).thenReturn(UtilsTime.currentTimestampMs() + 10000);
+        connQ.setCountlyStore(connQ.getCountlyStore());
+        connQ.tick();
+        verifyZeroInteractions(connQ.getExecutor());
+    }
+
     @Test
     public void testPrepareCommonRequest() {
         // 0 - test default common request
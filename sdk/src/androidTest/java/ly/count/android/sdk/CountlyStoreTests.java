@@ -386,18 +386,96 @@ public class CountlyStoreTests {
         assertEquals(event3, events.get(0));
     }
 
+    @Test
+    public void removeEventsUpToSequence() {
+        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        //identical events must not be confused with each other
+        store.addEvent("eventKey", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+        store.addEvent("eventKey", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+
+        final long lastSeq = store.lastEventSeq();
+        assertEquals(2, store.eventsUpTo(lastSeq).size());
+
+        store.addEvent("eventKey", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+        assertEquals(2, store.eventsUpTo(lastSeq).size());
+        assertEquals(lastSeq + 1, store.lastEventSeq());
+
+        store.removeEventsUpTo(lastSeq);
+        assertEquals(1, store.events().length);
+        assertEquals(lastSeq + 1, store.lastEventSeq());
+
+        store.removeEventsUpTo(store.lastEventSeq());
+        assertEquals(0, store.events().length);
+        assertEquals(lastSeq + 1, store.lastEventSeq());
+    }
+
+    @Test
+    public void eventSequenceSurvivesReopening() {
+        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        store.addEvent("eventKey1", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+        store.addEvent("eventKey2", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+        store.addEvent("eventKey3", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
+        final long lastSeq = store.lastEventSeq();
+        store.removeEventsUpTo(lastSeq - 1);
+
+        CountlyStore reopened = new CountlyStore(getContext(), mock(ModuleLog.class));
+        assertEquals(lastSeq, reopened.lastEventSeq());
+        final List<Event> events = reopened.eventsUpTo(lastSeq);
+        assertEquals(1, events.size());
+        assertEquals("eventKey3", events.get(0).key);
+    }
+
+    @Test
+    public void legacyJsonEventsAreConverted() {
+        final Event event1 = new Event("eventKey1");
+        final SharedPreferences prefs = getContext().getSharedPreferences(countlyStoreName, Context.MODE_PRIVATE);
+        prefs.edit().putString("EVENTS", event1.toJSON().toString()).commit();
+
+        final Event event2 = new Event("eventKey2");
+        store.addEvent(event2);
+
+        assertFalse(prefs.getString("EVENTS", "").contains("{"));
+        final List<Event> events = new CountlyStore(getContext(), mock(ModuleLog.class)).eventsList();
+        assertEquals(2, events.size());
+        assertTrue(events.contains(event1));
+        assertTrue(events.contains(event2));
+        assertEquals(event1.toJSON().toString(), store.events()[0]);
+    }
+
     @Test
     public void testClear() {
         final SharedPreferences prefs = getContext().getSharedPreferences(countlyStoreName, Context.MODE_PRIVATE);
         assertFalse(prefs.contains("EVENTS"));
-        assertFalse(prefs.contains("CONNECTIONS"));
+        assertTrue(store.isEmptyConnections());
         store.addConnection("blah");
         UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
         store.addEvent("eventKey", null, null, null, null, instant.timestampMs, instant.hour, instant.dow, 1, 0.0d, 10.0d);
         assertTrue(prefs.contains("EVENTS"));
-        assertTrue(prefs.contains("CONNECTIONS"));
+        assertFalse(store.isEmptyConnections());
         store.clear();
         assertFalse(prefs.contains("EVENTS"));
+        assertTrue(store.isEmptyConnections());
+        assertTrue(new CountlyStore(getContext(), mock(ModuleLog.class)).isEmptyConnections());
+    }
+
+    @Test
+    public void connectionsSurviveReopening() {
+        store.addConnection("blah1");
+        store.addConnection("blah2");
+        store.addConnection("blah3");
+        store.removeConnection("blah1");
+
+        CountlyStore reopened = new CountlyStore(getContext(), mock(ModuleLog.class));
+        assertTrue(Arrays.equals(new String[] { "blah2", "blah3" }, reopened.connections()));
+    }
+
+    @Test
+    public void legacyConnectionsAreMigrated() {
+        final SharedPreferences prefs = getContext().getSharedPreferences(countlyStoreName, Context.MODE_PRIVATE);
+        prefs.edit().putString("CONNECTIONS", "blah1:::blah2").commit();
+
+        CountlyStore migrated = new CountlyStore(getContext(), mock(ModuleLog.class));
+        assertTrue(Arrays.equals(new String[] { "blah1", "blah2" }, migrated.connections()));
         assertFalse(prefs.contains("CONNECTIONS"));
     }
 
@@ -525,4 +603,145 @@ public class CountlyStoreTests {
         store.addConnection("1qwe");
         assertTrue(Arrays.equals(new String[] { "123", "1qwe" }, store.connections()));
     }
+
+    @Test
+    public void addConnectionEvictsLowPriorityRequests() {
+        CountlyStore.MAX_REQUESTS = 3;
+        store.addConnection("app_key=a&crash=1");
+        store.addConnection("app_key=a&events=1");
+        store.addConnection("app_key=a&begin_session=1");
+        store.addConnection("app_key=a&crash=2");
+        assertTrue(Arrays.equals(new String[] { "app_key=a&crash=1", "app_key=a&begin_session=1", "app_key=a&crash=2" }, store.connections()));
+
+        //a new request of the lowest class is dropped itself
+        store.addConnection("app_key=a&events=2");
+        assertTrue(Arrays.equals(new String[] { "app_key=a&crash=1", "app_key=a&begin_session=1", "app_key=a&crash=2" }, store.connections()));
+
+        store.addConnection("app_key=a&crash=3");
+        assertTrue(Arrays.equals(new String[] { "app_key=a&crash=1", "app_key=a&crash=2", "app_key=a&crash=3" }, store.connections()));
+    }
+
+    @Test
+    public void maxRequestBytes() {
+        store.setMaxRequestBytes(100);
+        for (int a = 0; a < 4; a++) {
+            store.addConnection("app_key=a&events=" + a);//18 bytes each
+        }
+        store.addConnection("app_key=a&crash=0123456789");//26 bytes
+        assertEquals(5, store.connections().length);
+        assertEquals(98, store.requestsByteSize());
+
+        //trimmed to 90 bytes
+        store.addConnection("app_key=a&events=4");
+        assertTrue(Arrays.equals(new String[] { "app_key=a&events=2", "app_key=a&events=3", "app_key=a&crash=0123456789", "app_key=a&events=4" }, store.connections()));
+        assertEquals(80, store.requestsByteSize());
+
+        store.setMaxRequestBytes(0);
+    }
+
+    @Test
+    public void clearAndTruncateRequests() {
+        for (int a = 0; a < 5; a++) {
+            store.addConnection("app_key=a&events=" + a);
+        }
+
+        assertEquals(2, store.truncateRequests(2));
+        assertTrue(Arrays.equals(new String[] { "app_key=a&events=2", "app_key=a&events=3", "app_key=a&events=4" }, store.connections()));
+
+        assertEquals(3, store.clearRequests());
+        assertTrue(store.isEmptyConnections());
+        assertEquals(0, store.clearRequests());
+    }
+
+    @Test
+    public void replaceAndRemoveRequestsByAppKey() {
+        store.addConnection("app_key=a&events=1");
+        store.addConnection("app_key=b&events=2");
+        store.addConnection("timestamp=1&app_key=c%26d&events=3");
+
+        assertEquals(2, store.replaceRequestsAppKey("c&d"));
+        assertTrue(Arrays.equals(new String[] { "app_key=c%26d&events=1", "app_key=c%26d&events=2", "timestamp=1&app_key=c%26d&events=3" }, store.connections()));
+
+        store.addConnection("app_key=e&events=4");
+        store.addConnection("events=5");
+        assertEquals(2, store.removeRequestsWithoutAppKey("c&d"));
+        assertEquals(3, store.connections().length);
+    }
+
+    @Test
+    public void replaceTemporaryDeviceId() {
+        store.addConnection("app_key=a&events=1");
+        assertFalse(store.containsTemporaryIdRequests());
+        assertEquals(0, store.replaceTemporaryDeviceId("new id"));
+
+        store.addConnection("app_key=a&session_duration=5&device_id=CLYTemporaryDeviceID");
+        assertTrue(store.containsTemporaryIdRequests());
+
+        assertEquals(1, store.replaceTemporaryDeviceId("new id"));
+        assertFalse(store.containsTemporaryIdRequests());
+        assertTrue(Arrays.equals(new String[] { "app_key=a&events=1", "app_key=a&session_duration=5&device_id=new+id" }, store.connections()));
+    }
+
+    @Test
+    public void addCrashRepeats() throws Exception {
+        String crash = UtilsNetworking.urlEncodeString("{\"_error\":\"trace\"}");
+        store.addConnection("app_key=a&timestamp=11&crash=" + crash);
+        store.addConnection("app_key=a&timestamp=12&events=1");
+        store.addConnection("timestamp=13&crash=" + crash + "&app_key=a&sdk_name=s");
+
+        //the oldest request is not changed
+        assertFalse(store.addCrashRepeats(11, 2));
+        //only crash requests are changed
+        assertFalse(store.addCrashRepeats(12, 2));
+
+        //requests that could be sent in the same bulk are not changed
+        store.setMaxRequestsInFlight(3);
+        assertFalse(store.addCrashRepeats(13, 2));
+        store.setMaxRequestsInFlight(2);
+
+        assertTrue(store.addCrashRepeats(13, 2));
+        assertTrue(store.addCrashRepeats(13, 3));
+
+        String[] connections = store.connections();
+        assertEquals("app_key=a&timestamp=11&crash=" + crash, connections[0]);
+        assertEquals("app_key=a&timestamp=12&events=1", connections[1]);
+        assertTrue(connections[2].startsWith("timestamp=13&crash="));
+        assertTrue(connections[2].endsWith("&app_key=a&sdk_name=s"));
+
+        JSONObject crashData = new JSONObject(UtilsNetworking.urlDecodeString(StoredRequest.paramValue(connections[2], "crash")));
+        assertEquals("trace", crashData.getString("_error"));
+        assertEquals(5, crashData.getJSONObject("_custom").getInt(CrashDeduplicator.REPEATS_KEY));
+    }
+
+    @Test
+    public void deferredRequestLog() {
+        store.addConnection("app_key=a&events=1");
+        store.addConnection("app_key=a&events=2");
+
+        CountlyStore deferred = new CountlyStore(getContext(), mock(ModuleLog.class), true);
+        assertTrue(deferred.isRequestLogPending());
+
+        //requests added before loading are kept after the stored ones
+        deferred.addConnection("app_key=a&events=3");
+        deferred.loadRequestLog();
+        assertFalse(deferred.isRequestLogPending());
+        assertTrue(Arrays.equals(new String[] { "app_key=a&events=1", "app_key=a&events=2", "app_key=a&events=3" }, deferred.connections()));
+
+        //loading again does nothing
+        deferred.loadRequestLog();
+        assertEquals(3, deferred.connections().length);
+    }
+
+    @Test
+    public void deferredRequestLogLoadedOnRead() {
+        store.addConnection("app_key=a&events=1");
+
+        CountlyStore deferred = new CountlyStore(getContext(), mock(ModuleLog.class), true);
+        deferred.addConnection("app_key=a&events=2");
+
+        //anything that needs the stored requests loads them first
+        assertEquals(2, deferred.clearRequests());
+        assertFalse(deferred.isRequestLogPending());
+        assertTrue(deferred.isEmptyConnections());
+    }
 }
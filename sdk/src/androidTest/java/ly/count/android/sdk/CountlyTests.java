@@ -858,4 +858,26 @@ public class CountlyTests {
     public void confirmSDKVersionMatches() {
         Assert.assertEquals(Countly.sharedInstance().COUNTLY_SDK_VERSION_STRING, BuildConfig.VERSION_NAME);
     }
+
+    @Test
+    public void asyncInit() throws InterruptedException {
+        final CountlyStore store = new CountlyStore(getContext(), mock(ModuleLog.class));
+        store.clear();
+        store.addConnection("app_key=appkey&events=stored");
+
+        Countly countly = new Countly();
+        countly.init(new CountlyConfig(getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").enableAsyncInit());
+        assertTrue(countly.isInitialized());
+        assertTrue(countly.getInitTimings().containsKey("init"));
+
+        //the stored requests are loaded in the background
+        for (int a = 0; a < 100 && !countly.getInitTimings().containsKey("state_loaded"); a++) {
+            Thread.sleep(10);
+        }
+        assertTrue(countly.getInitTimings().containsKey("request_log"));
+        assertTrue(countly.getInitTimings().containsKey("state_loaded"));
+        assertFalse(countly.getConnectionQueue().getCountlyStore().isRequestLogPending());
+        assertEquals("app_key=appkey&events=stored", countly.getConnectionQueue().getCountlyStore().connections()[0]);
+        countly.halt();
+    }
 }
@@ -0,0 +1,190 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CrashDeduplicatorTests {
+    int maxFingerprints;
+
+    @Before
+    public void setUp() {
+        maxFingerprints = CrashDeduplicator.MAX_FINGERPRINTS;
+    }
+
+    @After
+    public void tearDown() {
+        CrashDeduplicator.MAX_FINGERPRINTS = maxFingerprints;
+    }
+
+    Exception createException(String message) {
+        return new Exception(message);
+    }
+
+    boolean report(CrashDeduplicator deduplicator, long fingerprint, long now) {
+        return deduplicator.onReport(fingerprint, now, null, null);
+    }
+
+    @Test
+    public void fingerprintIgnoresMessage() {
+        Exception[] exceptions = new Exception[2];
+        for (int i = 0; i < exceptions.length; i++) {
+            exceptions[i] = createException("message " + i);
+        }
+
+        assertEquals(CrashDeduplicator.fingerprint(exceptions[0]), CrashDeduplicator.fingerprint(exceptions[1]));
+        assertNotEquals(CrashDeduplicator.fingerprint(exceptions[0]), CrashDeduplicator.fingerprint(new Exception("message 0")));
+        assertNotEquals(CrashDeduplicator.fingerprint(exceptions[0]), CrashDeduplicator.fingerprint(new Exception("message 0", exceptions[1])));
+    }
+
+    @Test
+    public void fingerprintLimit() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(2, 1000, 0, 0, 0);
+
+        assertTrue(report(deduplicator, 1, 0));
+        assertTrue(report(deduplicator, 1, 0));
+        assertFalse(report(deduplicator, 1, 0));
+        assertFalse(report(deduplicator, 1, 100));
+
+        //other fingerprints are not affected
+        assertTrue(report(deduplicator, 2, 100));
+
+        //one token is back after half of the interval
+        assertTrue(report(deduplicator, 1, 600));
+        assertFalse(report(deduplicator, 1, 600));
+        assertTrue(report(deduplicator, 1, 1200));
+    }
+
+    @Test
+    public void globalLimit() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(0, 0, 2, 1000, 0);
+
+        assertTrue(report(deduplicator, 1, 0));
+        assertTrue(report(deduplicator, 2, 0));
+        assertFalse(report(deduplicator, 3, 0));
+        assertFalse(report(deduplicator, 1, 0));
+
+        assertTrue(report(deduplicator, 1, 500));
+        assertTrue(report(deduplicator, 3, 1000));
+    }
+
+    @Test
+    public void clockSetBack() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 5000);
+
+        assertTrue(report(deduplicator, 1, 5000));
+        assertFalse(report(deduplicator, 1, 100));
+        assertTrue(report(deduplicator, 1, 1100));
+    }
+
+    @Test
+    public void repeatsWithoutFurtherReports() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 0);
+        Exception last = new Exception("last");
+
+        assertTrue(report(deduplicator, 1, 0));
+        deduplicator.onReportQueued(1, 11);
+        assertFalse(report(deduplicator, 1, 0));
+        assertFalse(report(deduplicator, 1, 0));
+        assertFalse(deduplicator.onReport(1, 0, last, null));
+
+        List<CrashDeduplicator.Repeats> repeats = deduplicator.takeRepeats();
+        assertEquals(1, repeats.size());
+        assertEquals(11, repeats.get(0).reportTimestamp);
+        assertEquals(3, repeats.get(0).count);
+        assertSame(last, repeats.get(0).exception);
+
+        //counts are only returned once
+        assertEquals(0, deduplicator.takeRepeats().size());
+    }
+
+    @Test
+    public void repeatsBelongToTheirReport() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 0);
+
+        assertTrue(report(deduplicator, 1, 0));
+        deduplicator.onReportQueued(1, 11);
+        assertFalse(report(deduplicator, 1, 0));
+        assertFalse(report(deduplicator, 1, 500));
+
+        assertTrue(report(deduplicator, 1, 1000));
+        deduplicator.onReportQueued(1, 12);
+        assertFalse(report(deduplicator, 1, 1000));
+
+        List<CrashDeduplicator.Repeats> repeats = deduplicator.takeRepeats();
+        assertEquals(2, repeats.size());
+        assertEquals(11, repeats.get(0).reportTimestamp);
+        assertEquals(2, repeats.get(0).count);
+        assertEquals(12, repeats.get(1).reportTimestamp);
+        assertEquals(1, repeats.get(1).count);
+    }
+
+    @Test
+    public void leastRecentFingerprintsAreDropped() {
+        CrashDeduplicator.MAX_FINGERPRINTS = 2;
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 0);
+
+        assertTrue(report(deduplicator, 1, 0));
+        assertFalse(report(deduplicator, 1, 0));
+        assertTrue(report(deduplicator, 2, 0));
+        assertFalse(report(deduplicator, 1, 0));
+        //fingerprint 2 was used least recently, so it is dropped
+        assertTrue(report(deduplicator, 3, 0));
+        assertFalse(report(deduplicator, 1, 0));
+
+        //fingerprint 2 starts over, fingerprint 3 is dropped in its place
+        assertTrue(report(deduplicator, 2, 0));
+        assertFalse(report(deduplicator, 1, 0));
+        assertTrue(report(deduplicator, 3, 0));
+    }
+
+    @Test
+    public void droppedFingerprintKeepsRepeats() {
+        CrashDeduplicator.MAX_FINGERPRINTS = 1;
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 0);
+
+        assertTrue(report(deduplicator, 1, 0));
+        deduplicator.onReportQueued(1, 11);
+        assertFalse(report(deduplicator, 1, 0));
+        assertTrue(report(deduplicator, 2, 0));
+
+        List<CrashDeduplicator.Repeats> repeats = deduplicator.takeRepeats();
+        assertEquals(1, repeats.size());
+        assertEquals(11, repeats.get(0).reportTimestamp);
+        assertEquals(1, repeats.get(0).count);
+    }
+
+    @Test
+    public void scheduleCollection() {
+        CrashDeduplicator deduplicator = new CrashDeduplicator(1, 1000, 0, 0, 0);
+
+        assertTrue(deduplicator.scheduleCollection());
+        assertFalse(deduplicator.scheduleCollection());
+        deduplicator.takeRepeats();
+        assertTrue(deduplicator.scheduleCollection());
+    }
+
+    @Test
+    public void addRepeats() throws Exception {
+        String crashData = CrashDeduplicator.addRepeats("{\"_error\":\"trace\"}", 2);
+        assertEquals(2, new JSONObject(crashData).getJSONObject("_custom").getInt(CrashDeduplicator.REPEATS_KEY));
+
+        crashData = CrashDeduplicator.addRepeats(crashData, 3);
+        assertEquals(5, new JSONObject(crashData).getJSONObject("_custom").getInt(CrashDeduplicator.REPEATS_KEY));
+        assertEquals("trace", new JSONObject(crashData).getString("_error"));
+
+        assertNull(CrashDeduplicator.addRepeats("not json", 1));
+    }
+}
@@ -0,0 +1,108 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class CrashJournalTests {
+    File file;
+
+    @Before
+    public void setUp() {
+        file = new File(getContext().getCacheDir(), "crash_journal_test");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    CrashJournal inMemory() {
+        CrashJournal journal = new CrashJournal(ByteBuffer.allocate(CrashJournal.HEADER_SIZE + CrashJournal.TRACE_CAPACITY));
+        journal.clear();
+        return journal;
+    }
+
+    @Test
+    public void writeAndRead() {
+        CrashJournal journal = inMemory();
+        assertFalse(journal.hasRecord());
+        assertNull(journal.read());
+
+        String trace = "java.lang.IllegalStateException: \u00fc\u20ac\uD83D\uDE00\n\tat a.b.C.d(C.java:12)";
+        assertTrue(journal.write(trace, 1579463653876L, 42, true));
+        assertTrue(journal.hasRecord());
+
+        CrashJournal.Record record = journal.read();
+        assertEquals(trace, record.trace);
+        assertEquals(1579463653876L, record.timestamp);
+        assertEquals(42, record.runningTime);
+        assertTrue(record.inBackground);
+
+        //the first crash is kept until it's cleared
+        assertFalse(journal.write("second", 1, 1, false));
+        assertEquals(trace, journal.read().trace);
+
+        journal.clear();
+        assertFalse(journal.hasRecord());
+        assertTrue(journal.write("second", 1, 1, false));
+        assertEquals("second", journal.read().trace);
+    }
+
+    @Test
+    public void longTraceIsCut() {
+        CrashJournal journal = inMemory();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < CrashJournal.MAX_TRACE_CHARS + 100) {
+            sb.append("\u20ac");
+        }
+
+        assertTrue(journal.write(sb.toString(), 1, 1, false));
+        assertEquals(sb.substring(0, CrashJournal.MAX_TRACE_CHARS), journal.read().trace);
+    }
+
+    @Test
+    public void recoveredFromFile() {
+        CrashJournal journal = CrashJournal.open(file, mock(ModuleLog.class));
+        assertNotNull(journal);
+        assertFalse(journal.hasRecord());
+        assertTrue(journal.write("crash", 1000, 5, false));
+
+        //a new process maps the same file
+        CrashJournal reopened = CrashJournal.open(file, mock(ModuleLog.class));
+        assertTrue(reopened.hasRecord());
+        CrashJournal.Record record = reopened.read();
+        assertEquals("crash", record.trace);
+        assertEquals(1000, record.timestamp);
+        assertEquals(5, record.runningTime);
+        assertFalse(record.inBackground);
+    }
+
+    @Test
+    public void damagedFileIsReset() throws Exception {
+        CrashJournal journal = CrashJournal.open(file, mock(ModuleLog.class));
+        journal.write("crash", 1000, 5, false);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(16);
+        raf.writeInt(-5);
+        raf.close();
+
+        assertFalse(CrashJournal.open(file, mock(ModuleLog.class)).hasRecord());
+    }
+}
@@ -0,0 +1,93 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DeviceContextCacheTests {
+    DeviceContextCache cache;
+
+    @Before
+    public void setUp() {
+        Countly.sharedInstance().setLoggingEnabled(true);
+        DeviceInfo.deepLink = null;
+        cache = new DeviceContextCache(getContext());
+    }
+
+    @After
+    public void tearDown() {
+        DeviceInfo.deepLink = null;
+        DeviceContextCache.VOLATILE_TTL_MS = 30000;
+    }
+
+    @Test
+    public void sharedPerContext() {
+        DeviceContextCache shared = DeviceContextCache.forContext(getContext());
+        assertSame(shared, DeviceContextCache.forContext(getContext()));
+    }
+
+    @Test
+    public void metricsMatchDeviceInfo() {
+        assertEquals(DeviceInfo.getMetrics(getContext(), null), cache.getMetrics(null));
+
+        Map<String, String> metricOverride = new HashMap<>();
+        metricOverride.put("_device", "custom device");
+        metricOverride.put("extra", "value");
+        assertEquals(DeviceInfo.getMetrics(getContext(), metricOverride), cache.getMetrics(metricOverride));
+    }
+
+    @Test
+    public void metricsAreReused() {
+        String metrics = cache.getMetrics(null);
+        assertSame(metrics, cache.getMetrics(null));
+
+        //changes of the values they are built from build them again
+        DeviceInfo.deepLink = "app://link";
+        String withDeepLink = cache.getMetrics(null);
+        assertNotSame(metrics, withDeepLink);
+        assertEquals(DeviceInfo.getMetrics(getContext(), null), withDeepLink);
+        assertSame(withDeepLink, cache.getMetrics(null));
+
+        cache.invalidateConfiguration();
+        String afterConfigurationChange = cache.getMetrics(null);
+        assertNotSame(withDeepLink, afterConfigurationChange);
+        assertEquals(withDeepLink, afterConfigurationChange);
+
+        Map<String, String> metricOverride = new HashMap<>();
+        metricOverride.put("a", "b");
+        assertNotSame(afterConfigurationChange, cache.getMetrics(metricOverride));
+    }
+
+    @Test
+    public void crashData() throws JSONException {
+        JSONObject json = new JSONObject();
+        cache.fillCrashData(json, false);
+        assertEquals(DeviceInfo.getDevice(), json.getString("_device"));
+        assertEquals(CrashDetails.getCpu(), json.getString("_cpu"));
+        assertEquals(CrashDetails.getRamTotal(), json.getString("_ram_total"));
+        assertEquals(CrashDetails.isOnline(getContext()), json.optString("_online", null));
+        assertEquals(CrashDetails.isMuted(getContext()), json.getString("_muted"));
+
+        //values of the current state are not added for crashes of a previous run
+        JSONObject nativeJson = new JSONObject();
+        cache.fillCrashData(nativeJson, true);
+        assertEquals(DeviceInfo.getDevice(), nativeJson.getString("_device"));
+        assertFalse(nativeJson.has("_muted"));
+        assertFalse(nativeJson.has("_disk_current"));
+        assertTrue(json.has("_disk_current"));
+    }
+}
@@ -0,0 +1,103 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class EventAggregatorTests {
+    final UtilsTime.Instant instant = new UtilsTime.Instant(1579463653876L, 10, 3);
+
+    Map<String, String> segmentation(String value) {
+        Map<String, String> map = new HashMap<>();
+        map.put("key", value);
+        return map;
+    }
+
+    @Test
+    public void accepts() {
+        EventAggregator aggregator = new EventAggregator(1000);
+        assertTrue(aggregator.accepts("counter"));
+        assertFalse(aggregator.accepts(ModuleViews.VIEW_EVENT_KEY));
+        assertFalse(aggregator.accepts(ModuleRatings.STAR_RATING_EVENT_KEY));
+        assertFalse(new EventAggregator(0).accepts("counter"));
+    }
+
+    @Test
+    public void mergesSameKeyAndSegmentation() {
+        EventAggregator aggregator = new EventAggregator(1000);
+
+        assertNull(aggregator.add("counter", segmentation("a"), null, null, null, 1, 1.5, 2, instant, 100));
+        assertNull(aggregator.add("counter", segmentation("a"), null, null, null, 2, 0.5, 3, instant, 200));
+        assertNull(aggregator.add("counter", segmentation("b"), null, null, null, 1, 0, 0, instant, 300));
+        assertNull(aggregator.add("other", segmentation("a"), null, null, null, 1, 0, 0, instant, 300));
+        assertEquals(3, aggregator.size());
+
+        List<Event> events = aggregator.removeAll();
+        assertEquals(3, events.size());
+        assertEquals(0, aggregator.size());
+
+        Event merged = events.get(0);
+        assertEquals("counter", merged.key);
+        assertEquals(segmentation("a"), merged.segmentation);
+        assertEquals(3, merged.count);
+        assertEquals(2.0, merged.sum, 0.0000001);
+        assertEquals(5.0, merged.dur, 0.0000001);
+        assertEquals(instant.timestampMs, merged.timestamp);
+        assertEquals(instant.hour, merged.hour);
+        assertEquals(instant.dow, merged.dow);
+    }
+
+    @Test
+    public void emptyAndNullSegmentationAreMerged() {
+        EventAggregator aggregator = new EventAggregator(1000);
+
+        aggregator.add("counter", null, null, null, null, 1, 0, 0, instant, 100);
+        aggregator.add("counter", new HashMap<String, String>(), new HashMap<String, Integer>(), null, null, 1, 0, 0, instant, 100);
+
+        assertEquals(1, aggregator.size());
+        assertEquals(2, aggregator.removeAll().get(0).count);
+    }
+
+    @Test
+    public void expiredAggregatesAreRemoved() {
+        EventAggregator aggregator = new EventAggregator(1000);
+
+        aggregator.add("first", null, null, null, null, 1, 0, 0, instant, 100);
+        aggregator.add("second", null, null, null, null, 1, 0, 0, instant, 600);
+
+        assertEquals(0, aggregator.removeExpired(1000).size());
+
+        List<Event> expired = aggregator.removeExpired(1100);
+        assertEquals(1, expired.size());
+        assertEquals("first", expired.get(0).key);
+        assertEquals(1, aggregator.size());
+    }
+
+    @Test
+    public void eventOutsideOfWindowReplacesAggregate() {
+        EventAggregator aggregator = new EventAggregator(1000);
+
+        aggregator.add("counter", null, null, null, null, 1, 0, 0, instant, 100);
+        Event replaced = aggregator.add("counter", null, null, null, null, 5, 0, 0, instant, 1200);
+        assertEquals(1, replaced.count);
+
+        //past events far apart from the aggregate are not merged either
+        UtilsTime.Instant past = new UtilsTime.Instant(instant.timestampMs - 5000, 10, 3);
+        replaced = aggregator.add("counter", null, null, null, null, 2, 0, 0, past, 1300);
+        assertEquals(5, replaced.count);
+
+        List<Event> events = aggregator.removeAll();
+        assertEquals(1, events.size());
+        assertEquals(2, events.get(0).count);
+        assertEquals(past.timestampMs, events.get(0).timestamp);
+    }
+}
@@ -36,8 +36,11 @@ import org.mockito.ArgumentCaptor;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -102,42 +105,76 @@ public class EventQueueTests {
 
     @Test
     public void testSize_zeroLenArray() {
-        when(mMockCountlyStore.events()).thenReturn(new String[0]);
+        when(mMockCountlyStore.eventsCount()).thenReturn(0);
         assertEquals(0, mEventQueue.size());
     }
 
     @Test
     public void testSize() {
-        when(mMockCountlyStore.events()).thenReturn(new String[2]);
+        when(mMockCountlyStore.eventsCount()).thenReturn(2);
         assertEquals(2, mEventQueue.size());
     }
 
     @Test
     public void testEvents_emptyList() throws UnsupportedEncodingException {
-        final List<Event> eventsList = new ArrayList<>();
-        when(mMockCountlyStore.eventsList()).thenReturn(eventsList);
+        final List<byte[]> records = new ArrayList<>();
+        when(mMockCountlyStore.lastEventSeq()).thenReturn(-1L);
+        when(mMockCountlyStore.eventRecordsUpTo(-1L)).thenReturn(records);
 
         final String expected = URLEncoder.encode("[]", "UTF-8");
         assertEquals(expected, mEventQueue.events());
-        verify(mMockCountlyStore).eventsList();
-        verify(mMockCountlyStore).removeEvents(eventsList);
+        verify(mMockCountlyStore).eventRecordsUpTo(-1L);
+        verify(mMockCountlyStore).removeEventsUpTo(-1L);
     }
 
     @Test
     public void testEvents_nonEmptyList() throws UnsupportedEncodingException {
-        final List<Event> eventsList = new ArrayList<>();
+        final List<byte[]> records = new ArrayList<>();
         final Event event1 = new Event();
         event1.key = "event1Key";
-        eventsList.add(event1);
+        records.add(EventRecord.encode(event1));
         final Event event2 = new Event();
         event2.key = "event2Key";
-        eventsList.add(event2);
-        when(mMockCountlyStore.eventsList()).thenReturn(eventsList);
+        records.add(EventRecord.encode(event2));
+        when(mMockCountlyStore.lastEventSeq()).thenReturn(7L);
+        when(mMockCountlyStore.eventRecordsUpTo(7L)).thenReturn(records);
 
         final String jsonToEncode = "[" + event1.toJSON().toString() + "," + event2.toJSON().toString() + "]";
         final String expected = URLEncoder.encode(jsonToEncode, "UTF-8");
         assertEquals(expected, mEventQueue.events());
-        verify(mMockCountlyStore).eventsList();
-        verify(mMockCountlyStore).removeEvents(eventsList);
+        verify(mMockCountlyStore).eventRecordsUpTo(7L);
+        verify(mMockCountlyStore).removeEventsUpTo(7L);
+    }
+
+    @Test
+    public void testRecordEvent_aggregation() {
+        mEventQueue.setAggregationWindow(60000);
+        final UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        final Map<String, String> segmentation = new HashMap<>();
+        segmentation.put("a", "b");
+
+        mEventQueue.recordEvent("counter", segmentation, null, null, null, 1, 2.0, 0, instant);
+        mEventQueue.recordEvent("counter", new HashMap<>(segmentation), null, null, null, 3, 4.0, 0, instant);
+        mEventQueue.recordEvent(ModuleViews.VIEW_EVENT_KEY, null, null, null, null, 1, 0, 0, instant);
+
+        //internal events are stored right away
+        verify(mMockCountlyStore).addEvent(eq(ModuleViews.VIEW_EVENT_KEY), (Map<String, String>) isNull(), (Map<String, Integer>) isNull(), (Map<String, Double>) isNull(), (Map<String, Boolean>) isNull(),
+            eq(instant.timestampMs), eq(instant.hour), eq(instant.dow), eq(1), eq(0.0), eq(0.0));
+        verify(mMockCountlyStore, never()).addEvent(any(Event.class));
+
+        when(mMockCountlyStore.eventsCount()).thenReturn(1);
+        assertEquals(2, mEventQueue.size());
+
+        when(mMockCountlyStore.lastEventSeq()).thenReturn(-1L);
+        when(mMockCountlyStore.eventRecordsUpTo(-1L)).thenReturn(new ArrayList<byte[]>());
+        mEventQueue.events();
+
+        final ArgumentCaptor<Event> captor = ArgumentCaptor.forClass(Event.class);
+        verify(mMockCountlyStore).addEvent(captor.capture());
+        assertEquals("counter", captor.getValue().key);
+        assertEquals(4, captor.getValue().count);
+        assertEquals(6.0, captor.getValue().sum, 0.0000001);
+        assertEquals(instant.timestampMs, captor.getValue().timestamp);
+        assertEquals(segmentation, captor.getValue().segmentation);
     }
 }
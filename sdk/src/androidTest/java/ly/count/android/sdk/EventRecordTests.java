@@ -0,0 +1,118 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class EventRecordTests {
+
+    @Before
+    public void setUp() {
+        Countly.sharedInstance().setLoggingEnabled(true);
+    }
+
+    Event fullEvent() {
+        final Event event = new Event();
+        event.key = "eventKey \"ü\" /";
+        event.timestamp = 1579463653876L;
+        event.hour = 21;
+        event.dow = 6;
+        event.count = 42;
+        event.sum = -3.25;
+        event.dur = 10.5;
+        event.segmentation = new HashMap<>();
+        event.segmentation.put("str", "value\n");
+        event.segmentationInt = new HashMap<>();
+        event.segmentationInt.put("int", -7);
+        event.segmentationDouble = new HashMap<>();
+        event.segmentationDouble.put("double", 1.5);
+        event.segmentationBoolean = new HashMap<>();
+        event.segmentationBoolean.put("bool", true);
+        return event;
+    }
+
+    @Test
+    public void encodeAndDecode() {
+        final Event event = fullEvent();
+        final Event decoded = EventRecord.decode(EventRecord.encode(event));
+
+        assertEquals(event, decoded);
+        assertEquals(event.count, decoded.count);
+        assertEquals(event.sum, decoded.sum, 0.0000001);
+        assertEquals(event.dur, decoded.dur, 0.0000001);
+        assertEquals(event.segmentationInt, decoded.segmentationInt);
+        assertEquals(event.segmentationDouble, decoded.segmentationDouble);
+        assertEquals(event.segmentationBoolean, decoded.segmentationBoolean);
+        assertEquals(event.timestamp, EventRecord.readTimestamp(EventRecord.encode(event)));
+    }
+
+    @Test
+    public void encodeAndDecode_noSegmentation() {
+        final Event event = new Event("eventKey");
+        final Event decoded = EventRecord.decode(EventRecord.encode(event));
+
+        assertEquals(event, decoded);
+        assertNull(decoded.segmentation);
+        assertNull(decoded.segmentationInt);
+    }
+
+    @Test
+    public void writeJSONMatchesToJSON() {
+        final Event event = fullEvent();
+        StringBuilder sb = new StringBuilder();
+        assertTrue(EventRecord.writeJSON(EventRecord.encode(event), sb));
+        assertEquals(event.toJSON().toString(), sb.toString());
+
+        final Event simple = new Event("eventKey");
+        sb = new StringBuilder();
+        assertTrue(EventRecord.writeJSON(EventRecord.encode(simple), sb));
+        assertEquals(simple.toJSON().toString(), sb.toString());
+    }
+
+    @Test
+    public void writeJSON_nonFiniteValues() {
+        final Event event = new Event("eventKey");
+        event.sum = Double.NaN;
+        StringBuilder sb = new StringBuilder();
+        assertTrue(EventRecord.writeJSON(EventRecord.encode(event), sb));
+        assertEquals(event.toJSON().toString(), sb.toString());
+
+        event.sum = 1;
+        event.segmentationDouble = new HashMap<>();
+        event.segmentationDouble.put("double", Double.POSITIVE_INFINITY);
+        sb = new StringBuilder();
+        assertTrue(EventRecord.writeJSON(EventRecord.encode(event), sb));
+        assertEquals(event.toJSON().toString(), sb.toString());
+    }
+
+    @Test
+    public void invalidRecord() {
+        final byte[] record = EventRecord.encode(fullEvent());
+        final byte[] truncated = new byte[record.length - 3];
+        System.arraycopy(record, 0, truncated, 0, truncated.length);
+
+        assertNull(EventRecord.decode(truncated));
+
+        final StringBuilder sb = new StringBuilder("[");
+        assertFalse(EventRecord.writeJSON(truncated, sb));
+        assertEquals("[", sb.toString());
+
+        record[0] = 99;
+        assertNull(EventRecord.decode(record));
+    }
+
+    @Test
+    public void emptyKeyIsDecodedAsNull() {
+        final Event event = new Event();
+        event.key = "";
+        assertNull(EventRecord.decode(EventRecord.encode(event)));
+    }
+}
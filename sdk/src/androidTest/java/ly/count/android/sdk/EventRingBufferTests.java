@@ -0,0 +1,169 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class EventRingBufferTests {
+
+    @Test
+    public void capacityIsRoundedUp() {
+        assertEquals(2, new EventRingBuffer<Integer>(1, BackPressurePolicy.DROP_NEWEST, 0).capacity());
+        assertEquals(8, new EventRingBuffer<Integer>(5, BackPressurePolicy.DROP_NEWEST, 0).capacity());
+        assertEquals(16, new EventRingBuffer<Integer>(16, BackPressurePolicy.DROP_NEWEST, 0).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new EventRingBuffer<Integer>(0, BackPressurePolicy.DROP_NEWEST, 0);
+    }
+
+    @Test
+    public void entriesAreReturnedInOrder() {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(4, BackPressurePolicy.DROP_NEWEST, 0);
+
+        for (int round = 0; round < 3; round++) {
+            for (int a = 0; a < 4; a++) {
+                assertTrue(buffer.offer(round * 10 + a));
+            }
+            assertEquals(4, buffer.size());
+
+            for (int a = 0; a < 4; a++) {
+                assertEquals(round * 10 + a, (int) buffer.poll());
+            }
+            assertNull(buffer.poll());
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    @Test
+    public void dropNewest() {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(2, BackPressurePolicy.DROP_NEWEST, 0);
+
+        assertTrue(buffer.publish(1));
+        assertTrue(buffer.publish(2));
+        assertFalse(buffer.publish(3));
+        assertEquals(1, buffer.getDroppedCount());
+
+        assertEquals(1, (int) buffer.poll());
+        assertEquals(2, (int) buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void dropOldest() {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(2, BackPressurePolicy.DROP_OLDEST, 0);
+
+        assertTrue(buffer.publish(1));
+        assertTrue(buffer.publish(2));
+        assertTrue(buffer.publish(3));
+        assertTrue(buffer.publish(4));
+        assertEquals(2, buffer.getDroppedCount());
+
+        assertEquals(3, (int) buffer.poll());
+        assertEquals(4, (int) buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void block_timeout() {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<>(2, BackPressurePolicy.BLOCK, 50);
+
+        assertTrue(buffer.publish(1));
+        assertTrue(buffer.publish(2));
+
+        long start = System.currentTimeMillis();
+        assertFalse(buffer.publish(3));
+        assertTrue(System.currentTimeMillis() - start >= 40);
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(1, (int) buffer.poll());
+    }
+
+    @Test
+    public void block_waitsForConsumer() throws InterruptedException {
+        final EventRingBuffer<Integer> buffer = new EventRingBuffer<>(2, BackPressurePolicy.BLOCK, 5000);
+        assertTrue(buffer.publish(1));
+        assertTrue(buffer.publish(2));
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                buffer.poll();
+            }
+        });
+        consumer.start();
+
+        assertTrue(buffer.publish(3));
+        consumer.join();
+
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(2, (int) buffer.poll());
+        assertEquals(3, (int) buffer.poll());
+    }
+
+    @Test
+    public void multipleProducers() throws InterruptedException {
+        final int producerCount = 4;
+        final int perProducer = 5000;
+        final EventRingBuffer<Integer> buffer = new EventRingBuffer<>(64, BackPressurePolicy.BLOCK, 10000);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] producers = new Thread[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            final int base = p * perProducer;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int a = 0; a < perProducer; a++) {
+                        buffer.publish(base + a);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        start.countDown();
+
+        Set<Integer> received = new HashSet<>();
+        int[] lastFromProducer = new int[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            lastFromProducer[p] = -1;
+        }
+
+        while (received.size() < producerCount * perProducer) {
+            Integer value = buffer.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue(received.add(value));
+
+            //entries of a single producer keep their order
+            int producer = value / perProducer;
+            assertTrue(value > lastFromProducer[producer]);
+            lastFromProducer[producer] = value;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, buffer.getDroppedCount());
+        assertNull(buffer.poll());
+    }
+}
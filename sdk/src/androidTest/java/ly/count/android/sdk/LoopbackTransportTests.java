@@ -0,0 +1,93 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+public class LoopbackTransportTests {
+    LoopbackTransport transport;
+    CountlyStore mockStore;
+    DeviceId mockDeviceId;
+    ConnectionProcessor connectionProcessor;
+
+    @Before
+    public void setUp() {
+        Countly.sharedInstance().setLoggingEnabled(true);
+        transport = new LoopbackTransport();
+        mockStore = mock(CountlyStore.class);
+        mockDeviceId = mock(DeviceId.class);
+        when(mockDeviceId.getId()).thenReturn("123");
+
+        connectionProcessor = new ConnectionProcessor("http://server", mockStore, mockDeviceId, null, null, mock(ModuleLog.class));
+        connectionProcessor.setTransport(transport);
+    }
+
+    @Test
+    public void requestsAreRecorded() {
+        when(mockStore.connections()).thenReturn(new String[] { "a=1", "b=2" }, new String[] { "b=2" }, new String[0]);
+        connectionProcessor.run();
+
+        final List<LoopbackTransport.ReceivedRequest> requests = transport.getReceivedRequests();
+        assertEquals(2, requests.size());
+        assertEquals("GET", requests.get(0).method);
+        assertTrue(requests.get(0).url.toString().startsWith("http://server/i?a=1&device_id=123&checksum256="));
+        assertTrue(requests.get(1).url.toString().startsWith("http://server/i?b=2&device_id=123"));
+    }
+
+    @Test
+    public void scriptedFailuresAreRetried() {
+        final RetryScheduler mockScheduler = mock(RetryScheduler.class);
+        when(mockScheduler.canSend()).thenReturn(true);
+        connectionProcessor.setRetryScheduler(mockScheduler);
+        transport.enqueueFailure(new IOException("offline")).enqueueResponse(500, "");
+
+        when(mockStore.connections()).thenReturn(new String[] { "a=1" });
+        connectionProcessor.run();
+        connectionProcessor.run();
+
+        when(mockStore.connections()).thenReturn(new String[] { "a=1" }, new String[0]);
+        connectionProcessor.run();
+
+        assertEquals(3, transport.getReceivedRequests().size());
+        verify(mockScheduler, times(2)).onFailure();
+        verify(mockStore).removeConnection("a=1");
+    }
+
+    @Test
+    public void compressedBodyCanBeRead() throws IOException {
+        connectionProcessor.setRequestCompression(new RequestCompressionStats());
+        final StringBuilder sb = new StringBuilder("a=1");
+        for (int a = 0; a < 3000; a++) {
+            sb.append('x');
+        }
+        final String request = sb.toString();
+
+        when(mockStore.connections()).thenReturn(new String[] { request }, new String[0]);
+        connectionProcessor.run();
+
+        final LoopbackTransport.ReceivedRequest received = transport.getReceivedRequests().get(0);
+        assertEquals("POST", received.method);
+        assertTrue(received.bodyAsString().startsWith(request + "&device_id=123&checksum256="));
+    }
+
+    @Test
+    public void latency() throws IOException {
+        transport.setLatency(50);
+        final long start = System.currentTimeMillis();
+        final CountlyTransport.Response response = transport.execute(transport.openConnection(new URL("http://server/i")));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertEquals(200, response.code);
+    }
+}
@@ -11,8 +11,14 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 
 import static androidx.test.InstrumentationRegistry.getContext;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @RunWith(AndroidJUnit4.class)
@@ -236,4 +242,34 @@ public class ModuleAPMTests {
 
         Assert.assertEquals(0, mCountly.moduleAPM.networkTraces.size());
     }
+
+    @Test
+    public void aggregatedNetworkTraces() {
+        Countly countly = new Countly();
+        countly.init((new CountlyConfig(getContext(), "appkey", "http://test.count.ly")).setDeviceId("1234").setLoggingEnabled(true).enableNetworkTraceAggregation(60000));
+        ConnectionQueue cq = mock(ConnectionQueue.class);
+        countly.setConnectionQueue(cq);
+
+        countly.apm().recordNetworkTrace("aaa", 200, 10, 100, 1000, 1100);
+        countly.apm().recordNetworkTrace("aaa", 200, 20, 200, 1000, 1300);
+        countly.apm().recordNetworkTrace("bbb", 404, 10, 100, 1000, 1050);
+
+        verify(cq, never()).sendAPMNetworkTrace(anyString(), anyLong(), anyInt(), anyInt(), anyInt(), anyLong(), anyLong());
+        verify(cq, never()).sendAPMNetworkTraceSummary(any(NetworkTraceAggregator.TraceSummary.class));
+
+        //the interval has not passed yet
+        countly.moduleAPM.flushNetworkTraceSummaries(false);
+        verify(cq, never()).sendAPMNetworkTraceSummary(any(NetworkTraceAggregator.TraceSummary.class));
+
+        //going to the background sends them
+        countly.moduleAPM.doForegroundBackgroundCalculations(true, false);
+
+        ArgumentCaptor<NetworkTraceAggregator.TraceSummary> captor = ArgumentCaptor.forClass(NetworkTraceAggregator.TraceSummary.class);
+        verify(cq, times(2)).sendAPMNetworkTraceSummary(captor.capture());
+        Assert.assertEquals("aaa", captor.getAllValues().get(0).traceKey);
+        Assert.assertEquals(2, captor.getAllValues().get(0).count());
+        Assert.assertEquals(300, captor.getAllValues().get(0).responseTime.max);
+        Assert.assertEquals(400, captor.getAllValues().get(1).dominantResponseCode());
+        Assert.assertEquals(0, countly.moduleAPM.networkTraceAggregator.size());
+    }
 }
@@ -1,6 +1,8 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import org.junit.After;
@@ -14,9 +16,12 @@ import static androidx.test.InstrumentationRegistry.getContext;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(AndroidJUnit4.class)
 public class ModuleCrashTests {
@@ -102,6 +107,100 @@ public class ModuleCrashTests {
             "\tat ly.count.android.sdk.ModuleCrashTests.crashFilterTest(ModuleCrashTests.java:"));
     }
 
+    @Test
+    public void crashDeduplication() {
+        Countly countly = new Countly();
+        CountlyConfig cConfig = (new CountlyConfig(getContext(), "appkey", "http://test.count.ly")).setDeviceId("1234").setLoggingEnabled(true).enableCrashReporting();
+        cConfig.enableCrashDeduplication(1, 60000);
+
+        countly.init(cConfig);
+        countly.setConnectionQueue(connectionQueue);
+
+        for (int i = 0; i < 3; i++) {
+            countly.crashes().recordHandledException(new Exception("Repeated message " + i));
+        }
+
+        verify(connectionQueue).sendCrashReport(any(String.class), eq(true), eq(false), isNull(Map.class));
+
+        //the limit only applies to handled exceptions
+        countly.crashes().recordUnhandledException(new Exception("Unhandled message"));
+        verify(connectionQueue).sendCrashReport(any(String.class), eq(false), eq(false), isNull(Map.class));
+
+        //the count of dropped repeats is added to the queued report
+        CountlyStore store = mock(CountlyStore.class);
+        when(connectionQueue.getCountlyStore()).thenReturn(store);
+        when(connectionQueue.sendCrashReport(any(String.class), eq(true), eq(false), nullable(Map.class))).thenReturn(11L);
+        when(store.addCrashRepeats(11L, 2)).thenReturn(true);
+        countly.moduleCrash.crashDeduplicator = new CrashDeduplicator(1, 60000, 0, 0, System.currentTimeMillis());
+        for (int i = 0; i < 3; i++) {
+            countly.crashes().recordHandledException(new Exception("Counted message " + i));
+        }
+        countly.moduleCrash.addSuppressedRepeats();
+
+        verify(store).addCrashRepeats(11L, 2);
+        verify(connectionQueue, times(2)).sendCrashReport(any(String.class), eq(true), eq(false), isNull(Map.class));
+    }
+
+    @Test
+    public void crashDeduplicationWithoutFurtherReports() throws InterruptedException {
+        long collectionDelay = ModuleCrash.REPEATS_COLLECTION_DELAY_MS;
+        ModuleCrash.REPEATS_COLLECTION_DELAY_MS = 10;
+        try {
+            Countly countly = new Countly();
+            CountlyConfig cConfig = (new CountlyConfig(getContext(), "appkey", "http://test.count.ly")).setDeviceId("1234").setLoggingEnabled(true).enableCrashReporting();
+            cConfig.enableCrashDeduplication(1, 60000);
+
+            countly.init(cConfig);
+            countly.setConnectionQueue(connectionQueue);
+
+            CountlyStore store = mock(CountlyStore.class);
+            when(connectionQueue.getCountlyStore()).thenReturn(store);
+            when(connectionQueue.sendCrashReport(any(String.class), eq(true), eq(false), nullable(Map.class))).thenReturn(11L);
+
+            for (int i = 0; i < 3; i++) {
+                countly.crashes().recordHandledException(new Exception("Repeated message " + i));
+            }
+
+            //nothing else is reported, the count is collected after the delay
+            Thread.sleep(500);
+            verify(store).addCrashRepeats(11L, 2);
+
+            //the report was sent meanwhile, so the last repeat is sent with the rest of the count
+            ArgumentCaptor<Map> segmentation = ArgumentCaptor.forClass(Map.class);
+            verify(connectionQueue, times(2)).sendCrashReport(any(String.class), eq(true), eq(false), segmentation.capture());
+            Assert.assertNull(segmentation.getAllValues().get(0));
+            Assert.assertEquals(1, segmentation.getValue().size());
+            Assert.assertEquals(1, segmentation.getValue().get(CrashDeduplicator.REPEATS_KEY));
+        } finally {
+            ModuleCrash.REPEATS_COLLECTION_DELAY_MS = collectionDelay;
+        }
+    }
+
+    @Test
+    public void deleteUnqueuedCrashDumps() throws IOException {
+        File pendingFolder = new File(getContext().getCacheDir(), "pending_dumps_test");
+        pendingFolder.mkdirs();
+        File queued = new File(pendingFolder, "queued.dmp");
+        File unqueued = new File(pendingFolder, "unqueued.dmp");
+        Assert.assertTrue(queued.createNewFile() || queued.isFile());
+        Assert.assertTrue(unqueued.createNewFile() || unqueued.isFile());
+
+        CountlyStore store = mock(CountlyStore.class);
+        when(connectionQueue.getCountlyStore()).thenReturn(store);
+        when(store.connections()).thenReturn(new String[] {
+            "app_key=a&events=1",
+            "app_key=a&crash=%7B%7D&" + CrashDetails.nativeDumpPathKey + "=" + UtilsNetworking.urlEncodeString(queued.getAbsolutePath())
+        });
+
+        mCountly.moduleCrash.deleteUnqueuedCrashDumps(pendingFolder);
+
+        Assert.assertTrue(queued.exists());
+        Assert.assertFalse(unqueued.exists());
+
+        queued.delete();
+        pendingFolder.delete();
+    }
+
     @Test
     public void setCustomCrashSegment() {
         CrashDetails.customSegments = null;
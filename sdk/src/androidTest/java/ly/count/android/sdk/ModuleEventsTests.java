@@ -3,6 +3,7 @@ package ly.count.android.sdk;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -391,4 +392,56 @@ public class ModuleEventsTests {
         mEvents.recordEventInternal(eventKey, segm2, 123, 321.22d, 342.32d, null, true);
         verify(eventQueue).recordEvent(eventKey, segmS, segmI, segmD, segmB, 123, 321.22d, 342.32d, null);
     }
+
+    @Test
+    public void recordSegmentedEvent() {
+        final Map<String, String> segmS = new HashMap<>();
+        final Map<String, Integer> segmI = new HashMap<>();
+        final Map<String, Double> segmD = new HashMap<>();
+        final Map<String, Boolean> segmB = new HashMap<>();
+        segmS.put("asd", "123");
+        segmI.put("1", 1234);
+        segmD.put("2", 1234.55d);
+        segmB.put("3", true);
+
+        Segmentation segmentation = new Segmentation()
+            .put("asd", "123")
+            .put("1", 1234)
+            .put("2", 1234.55d)
+            .put("3", true)
+            .put(ModuleEvents.reservedSegmentationKeys[0], "x");
+
+        mCountly.events().recordSegmentedEvent(eventKey, segmentation, 123, 321.22d, 342.32d);
+        verify(eventQueue).recordEvent(eventKey, segmS, segmI, segmD, segmB, 123, 321.22d, 342.32d, null);
+
+        //the builder can be reused
+        segmentation.clear().put("a", "b");
+        segmS.clear();
+        segmS.put("a", "b");
+        mCountly.events().recordSegmentedEvent(eventKey, segmentation);
+        verify(eventQueue).recordEvent(eventKey, segmS, new HashMap<String, Integer>(), new HashMap<String, Double>(), new HashMap<String, Boolean>(), 1, 0.0d, 0.0d, null);
+    }
+
+    @Test
+    public void recordEvent_ingestionBuffer() throws InterruptedException {
+        Countly countly = new Countly();
+        countly.init((new CountlyConfig(getContext(), "appkey", "http://test.count.ly")).setDeviceId("1234").setLoggingEnabled(true)
+            .enableEventIngestionBuffer(16, BackPressurePolicy.DROP_OLDEST, 0));
+
+        EventQueue queue = mock(EventQueue.class);
+        countly.setEventQueue(queue);
+
+        Map<String, Object> segm = new HashMap<>();
+        segm.put("aa", "dd");
+        countly.events().recordEvent(eventKey, segm, 5);
+        segm.put("bb", "ee");
+
+        countly.moduleEvents.ingestionWorker.shutdown();
+        Assert.assertTrue(countly.moduleEvents.ingestionWorker.awaitTermination(5, TimeUnit.SECONDS));
+
+        Map<String, String> segmS = new HashMap<>();
+        segmS.put("aa", "dd");
+        verify(queue).recordEvent(eq(eventKey), eq(segmS), eq(new HashMap<String, Integer>()), eq(new HashMap<String, Double>()), eq(new HashMap<String, Boolean>()), eq(5), eq(0.0), eq(0.0), any(UtilsTime.Instant.class));
+        Assert.assertEquals(0, countly.moduleEvents.ingestionBuffer.size());
+    }
 }
@@ -0,0 +1,111 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class NetworkTraceAggregatorTests {
+
+    @After
+    public void tearDown() {
+        NetworkTraceAggregator.MAX_TRACE_KEYS = 100;
+    }
+
+    @Test
+    public void bucketBounds() {
+        for (long v : new long[] { 0, 1, 3, 4, 7, 8, 15, 16, 100, 1000, 123456, 4294967295L }) {
+            int index = NetworkTraceAggregator.Histogram.bucketIndex(v);
+            assertTrue(NetworkTraceAggregator.Histogram.bucketLowerBound(index) <= v);
+            assertTrue(NetworkTraceAggregator.Histogram.bucketLowerBound(index + 1) > v);
+        }
+
+        //larger values are kept in the last bucket
+        assertEquals(NetworkTraceAggregator.Histogram.BUCKET_COUNT - 1, NetworkTraceAggregator.Histogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(0, NetworkTraceAggregator.Histogram.bucketIndex(0));
+        assertEquals(7, NetworkTraceAggregator.Histogram.bucketIndex(7));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        NetworkTraceAggregator.Histogram histogram = new NetworkTraceAggregator.Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+
+        for (int a = 1; a <= 1000; a++) {
+            histogram.add(a);
+        }
+
+        assertEquals(1000, histogram.count);
+        assertEquals(501, histogram.mean());
+        assertEquals(1, histogram.min);
+        assertEquals(1000, histogram.max);
+
+        //percentiles are within a quarter of the real value
+        assertWithin(500, histogram.percentile(0.5));
+        assertWithin(900, histogram.percentile(0.9));
+        assertWithin(990, histogram.percentile(0.99));
+        assertEquals(1000, histogram.percentile(1));
+        assertEquals(1, histogram.percentile(0));
+    }
+
+    void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.25);
+    }
+
+    @Test
+    public void summariesPerTraceKey() {
+        NetworkTraceAggregator aggregator = new NetworkTraceAggregator(1000, 0);
+
+        assertTrue(aggregator.add("a", 200, 10, 100, 1000, 1100));
+        assertTrue(aggregator.add("a", 200, 30, 300, 900, 1200));
+        assertTrue(aggregator.add("a", 503, 20, 0, 1300, 1310));
+        assertTrue(aggregator.add("b", 0, 0, 0, 5, 5));
+        assertEquals(2, aggregator.size());
+
+        List<NetworkTraceAggregator.TraceSummary> summaries = aggregator.removeAll(10);
+        assertEquals(0, aggregator.size());
+        assertEquals(2, summaries.size());
+
+        NetworkTraceAggregator.TraceSummary a = summaries.get(0);
+        assertEquals("a", a.traceKey);
+        assertEquals(3, a.count());
+        assertEquals(900, a.startMs);
+        assertEquals(1310, a.endMs);
+        assertEquals(300, a.responseTime.max);
+        assertEquals(20, a.requestPayloadSize.mean());
+        assertEquals(200, a.dominantResponseCode());
+
+        assertEquals(0, summaries.get(1).dominantResponseCode());
+    }
+
+    @Test
+    public void traceKeyLimit() {
+        NetworkTraceAggregator.MAX_TRACE_KEYS = 2;
+        NetworkTraceAggregator aggregator = new NetworkTraceAggregator(1000, 0);
+
+        assertTrue(aggregator.add("a", 200, 1, 1, 0, 1));
+        assertTrue(aggregator.add("b", 200, 1, 1, 0, 1));
+        assertFalse(aggregator.add("c", 200, 1, 1, 0, 1));
+        assertTrue(aggregator.add("a", 200, 1, 1, 0, 1));
+    }
+
+    @Test
+    public void flushInterval() {
+        NetworkTraceAggregator aggregator = new NetworkTraceAggregator(1000, 5000);
+
+        assertFalse(aggregator.isFlushDue(5999));
+        assertTrue(aggregator.isFlushDue(6000));
+
+        aggregator.removeAll(6000);
+        assertFalse(aggregator.isFlushDue(6500));
+
+        //the clock was set back
+        assertTrue(aggregator.isFlushDue(100));
+    }
+}
@@ -1,11 +1,18 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Map;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.mockito.Mockito.mock;
+
 @RunWith(AndroidJUnit4.class)
 public class RemoteConfigTests {
 
@@ -24,4 +31,74 @@ public class RemoteConfigTests {
 
         ModuleRemoteConfig.RemoteConfigValueStore.dataFromString(remoteConfigValueStore.dataToString());
     }
+
+    @Test
+    public void snapshotFromJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("flag", true);
+        json.put("number", 42);
+        json.put("text", "value");
+        json.put("nested", new JSONObject().put("a", 1));
+        json.put("list", new JSONArray().put(1).put(2));
+
+        ModuleRemoteConfig.RemoteConfigSnapshot snapshot = ModuleRemoteConfig.RemoteConfigSnapshot.fromJSON(json);
+
+        Assert.assertEquals(true, snapshot.getValue("flag"));
+        Assert.assertEquals(42, snapshot.getValue("number"));
+        Assert.assertEquals("value", snapshot.getValue("text"));
+        Assert.assertNull(snapshot.getValue("missing"));
+        Assert.assertNull(snapshot.getValue(null));
+
+        //nested values are returned as copies, changing them doesn't change the snapshot
+        JSONObject nested = (JSONObject) snapshot.getValue("nested");
+        Assert.assertEquals(1, nested.getInt("a"));
+        nested.put("a", 2);
+        Assert.assertEquals(1, ((JSONObject) snapshot.getValue("nested")).getInt("a"));
+        Assert.assertEquals(2, ((JSONArray) snapshot.getValue("list")).length());
+
+        Map<String, Object> all = snapshot.getAllValues();
+        Assert.assertEquals(5, all.size());
+        Assert.assertEquals("value", all.get("text"));
+
+        Assert.assertSame(ModuleRemoteConfig.RemoteConfigSnapshot.EMPTY, ModuleRemoteConfig.RemoteConfigSnapshot.fromJSON(new JSONObject()));
+    }
+
+    @Test
+    public void typedGetters() throws JSONException {
+        CountlyStore countlyStore = new CountlyStore(getContext(), mock(ModuleLog.class));
+        countlyStore.clear();
+
+        JSONObject json = new JSONObject();
+        json.put("flag", true);
+        json.put("number", 42);
+        json.put("decimal", 2.75);
+        json.put("text", "value");
+        countlyStore.setRemoteConfigValues(json.toString());
+
+        Countly countly = new Countly();
+        countly.init((new CountlyConfig(getContext(), "appkey", "http://test.count.ly")).setDeviceId("1234").setLoggingEnabled(true));
+        ModuleRemoteConfig.RemoteConfig rc = countly.remoteConfig();
+
+        Assert.assertTrue(rc.getBoolean("flag", false));
+        Assert.assertFalse(rc.getBoolean("text", false));
+        Assert.assertEquals(42, rc.getLong("number", 0));
+        Assert.assertEquals(2, rc.getLong("decimal", 0));
+        Assert.assertEquals(-1, rc.getLong("text", -1));
+        Assert.assertEquals("value", rc.getString("text", null));
+        Assert.assertEquals("default", rc.getString("number", "default"));
+        Assert.assertEquals("default", rc.getString("missing", "default"));
+        Assert.assertEquals(42, rc.getValueForKey("number"));
+
+        //saving new values replaces the snapshot
+        ModuleRemoteConfig.RemoteConfigValueStore rcvs = ModuleRemoteConfig.RemoteConfigValueStore.dataFromString(null);
+        rcvs.values.put("number", 7);
+        countly.moduleRemoteConfig.saveConfig(rcvs);
+        Assert.assertEquals(7, rc.getLong("number", 0));
+        Assert.assertFalse(rc.getBoolean("flag", false));
+        Assert.assertEquals("{\"number\":7}", countlyStore.getRemoteConfigValues());
+
+        rc.clearStoredValues();
+        Assert.assertEquals(0, rc.getLong("number", 0));
+        Assert.assertTrue(rc.getAllValues().isEmpty());
+    }
 }
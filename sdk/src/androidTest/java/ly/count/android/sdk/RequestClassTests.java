@@ -0,0 +1,39 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestClassTests {
+
+    @Test
+    public void classify() {
+        assertEquals(RequestClass.CRASH, RequestClass.of("app_key=a&timestamp=1&crash=%7B%7D"));
+        assertEquals(RequestClass.SESSION, RequestClass.of("app_key=a&timestamp=1&begin_session=1&metrics=%7B%7D"));
+        assertEquals(RequestClass.SESSION, RequestClass.of("app_key=a&timestamp=1&session_duration=60"));
+        assertEquals(RequestClass.SESSION, RequestClass.of("app_key=a&timestamp=1&end_session=1&session_duration=5"));
+        assertEquals(RequestClass.EVENTS, RequestClass.of("app_key=a&timestamp=1&events=%5B%5D"));
+        assertEquals(RequestClass.APM, RequestClass.of("app_key=a&timestamp=1&count=1&apm=%7B%7D"));
+        assertEquals(RequestClass.CONSENT, RequestClass.of("app_key=a&timestamp=1&consent=%7B%7D"));
+        assertEquals(RequestClass.USER_DETAILS, RequestClass.of("app_key=a&timestamp=1&user_details=%7B%7D"));
+        assertEquals(RequestClass.DEVICE_ID, RequestClass.of("app_key=a&timestamp=1&device_id=new"));
+        assertEquals(RequestClass.DEVICE_ID, RequestClass.of("app_key=a&timestamp=1&override_id=new"));
+        assertEquals(RequestClass.OTHER, RequestClass.of("app_key=a&timestamp=1&location=1,2"));
+        assertEquals(RequestClass.OTHER, RequestClass.of(null));
+    }
+
+    @Test
+    public void hasParam() {
+        assertTrue(RequestClass.hasParam("crash=1", "crash"));
+        assertTrue(RequestClass.hasParam("a=crash&crash=1", "crash"));
+        assertFalse(RequestClass.hasParam("a=crash", "crash"));
+        assertFalse(RequestClass.hasParam("a=1&crashes=1", "crash"));
+        assertFalse(RequestClass.hasParam("a=1&no_crash=1", "crash"));
+        assertFalse(RequestClass.hasParam("a=1&crash", "crash"));
+    }
+}
@@ -0,0 +1,364 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestLogTests {
+    File dir;
+    RequestLog log;
+
+    @Before
+    public void setUp() {
+        dir = new File(getContext().getCacheDir(), "request_log_test");
+        log = new RequestLog(dir, mock(ModuleLog.class));
+        log.clear();
+    }
+
+    @After
+    public void tearDown() {
+        RequestLog.SEGMENT_SIZE_LIMIT = 256 * 1024;
+        log.clear();
+    }
+
+    RequestLog reopen() {
+        return new RequestLog(dir, mock(ModuleLog.class));
+    }
+
+    int segmentCount() {
+        int count = 0;
+        for (String name : dir.list()) {
+            if (name.startsWith("segment_")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void appendAndReopen() {
+        log.append("a=1");
+        log.append("b=2");
+        log.append("c=ü");
+
+        assertEquals(3, log.size());
+        assertArrayEquals(new String[] { "a=1", "b=2", "c=ü" }, reopen().requests());
+    }
+
+    @Test
+    public void removeOldestIsPersisted() {
+        log.append("a=1");
+        log.append("b=2");
+        log.removeOldest();
+
+        assertArrayEquals(new String[] { "b=2" }, log.requests());
+        assertArrayEquals(new String[] { "b=2" }, reopen().requests());
+
+        log.removeOldest();
+        assertTrue(log.isEmpty());
+        assertTrue(reopen().isEmpty());
+
+        //removing from an empty log does nothing
+        log.removeOldest();
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void removeNotOldest() {
+        log.append("a=1");
+        log.append("b=2");
+        log.append("a=1");
+
+        assertFalse(log.remove("c=3"));
+        assertTrue(log.remove("b=2"));
+        assertArrayEquals(new String[] { "a=1", "a=1" }, log.requests());
+        assertArrayEquals(new String[] { "a=1", "a=1" }, reopen().requests());
+
+        log.append("d=4");
+        assertArrayEquals(new String[] { "a=1", "a=1", "d=4" }, reopen().requests());
+    }
+
+    @Test
+    public void removeSent() {
+        log.append("a=1");
+        log.append("b=2");
+        log.append("c=3");
+        log.append("d=4");
+
+        assertEquals(2, log.removeSent(Arrays.asList("a=1", "b=2")));
+        assertArrayEquals(new String[] { "c=3", "d=4" }, log.requests());
+        assertArrayEquals(new String[] { "c=3", "d=4" }, reopen().requests());
+
+        //a sent request that is gone is skipped, the others are removed even if they are not the oldest
+        log.append("e=5");
+        assertEquals(1, log.removeSent(Arrays.asList("x=1", "d=4")));
+        assertArrayEquals(new String[] { "c=3", "e=5" }, log.requests());
+        assertArrayEquals(new String[] { "c=3", "e=5" }, reopen().requests());
+
+        assertEquals(0, log.removeSent(Arrays.asList("x=1")));
+        assertEquals(2, log.removeSent(Arrays.asList("c=3", "e=5")));
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void replaceAll() {
+        log.append("a=1");
+        log.append("b=2");
+        log.replaceAll(Arrays.asList("x=1", "y=2", "z=3"));
+
+        assertArrayEquals(new String[] { "x=1", "y=2", "z=3" }, log.requests());
+        assertArrayEquals(new String[] { "x=1", "y=2", "z=3" }, reopen().requests());
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void consumedSegmentsAreDeleted() {
+        RequestLog.SEGMENT_SIZE_LIMIT = 20;
+
+        for (int a = 0; a < 10; a++) {
+            log.append("request=" + a);
+        }
+        assertTrue(segmentCount() > 1);
+
+        for (int a = 0; a < 9; a++) {
+            log.removeOldest();
+        }
+        assertEquals(1, segmentCount());
+        assertArrayEquals(new String[] { "request=9" }, reopen().requests());
+
+        log.removeOldest();
+        log.append("request=10");
+        assertEquals(1, segmentCount());
+        assertArrayEquals(new String[] { "request=10" }, reopen().requests());
+    }
+
+    @Test
+    public void partiallyWrittenRecordIsDropped() throws Exception {
+        log.append("a=1");
+        log.append("b=2");
+
+        //simulate a process death in the middle of writing a record
+        File segment = new File(dir, "segment_1");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(file.length());
+        file.writeInt(100);
+        file.write(new byte[] { 1, 2, 3 });
+        file.close();
+
+        RequestLog recovered = reopen();
+        assertArrayEquals(new String[] { "a=1", "b=2" }, recovered.requests());
+
+        recovered.append("c=3");
+        assertArrayEquals(new String[] { "a=1", "b=2", "c=3" }, reopen().requests());
+    }
+
+    @Test
+    public void memoryOnly() {
+        RequestLog memoryLog = new RequestLog(null, mock(ModuleLog.class));
+        memoryLog.append("a=1");
+        memoryLog.append("b=2");
+        memoryLog.append("c=3");
+        memoryLog.removeOldest();
+        memoryLog.remove("c=3");
+
+        assertArrayEquals(new String[] { "b=2" }, memoryLog.requests());
+
+        memoryLog.clear();
+        assertTrue(memoryLog.isEmpty());
+    }
+
+    @Test
+    public void byteAccounting() {
+        log.append("app_key=a&events=%5B%5D");
+        log.append("app_key=a&crash=abc");
+        log.append("app_key=a&c=\u00fc");
+
+        assertEquals(23 + 19 + 14, log.byteSize());
+        assertEquals(23, log.byteSize(RequestClass.EVENTS));
+        assertEquals(19, log.byteSize(RequestClass.CRASH));
+        assertEquals(1, log.size(RequestClass.OTHER));
+
+        log.removeOldest();
+        assertEquals(19 + 14, log.byteSize());
+        assertEquals(0, log.byteSize(RequestClass.EVENTS));
+
+        RequestLog reopened = reopen();
+        assertEquals(19 + 14, reopened.byteSize());
+        assertEquals(1, reopened.size(RequestClass.CRASH));
+    }
+
+    @Test
+    public void evictLowestClassFirst() {
+        log.append("app_key=a&crash=1");
+        log.append("app_key=a&events=1");
+        log.append("app_key=a&begin_session=1");
+        log.append("app_key=a&events=2");
+        log.append("app_key=a&apm=1");
+
+        assertEquals(0, log.evict(5, 0));
+
+        assertEquals(2, log.evict(3, 0));
+        assertArrayEquals(new String[] { "app_key=a&crash=1", "app_key=a&begin_session=1", "app_key=a&events=2" }, log.requests());
+        assertArrayEquals(log.requests(), reopen().requests());
+
+        assertEquals(2, log.evict(1, 0));
+        assertArrayEquals(new String[] { "app_key=a&crash=1" }, log.requests());
+        assertArrayEquals(log.requests(), reopen().requests());
+    }
+
+    @Test
+    public void evictByCount() {
+        for (int a = 0; a < 21; a++) {
+            log.append("app_key=a&events=" + a);
+        }
+
+        //over the limit, requests are dropped until a tenth of the limit is free
+        assertEquals(3, log.evict(20, 0));
+        assertEquals(18, log.size());
+        assertEquals("app_key=a&events=3", log.requests()[0]);
+
+        //the next requests fit without dropping anything
+        log.append("app_key=a&events=21");
+        log.append("app_key=a&events=22");
+        assertEquals(0, log.evict(20, 0));
+        assertArrayEquals(log.requests(), reopen().requests());
+    }
+
+    @Test
+    public void evictByBytes() {
+        for (int a = 0; a < 10; a++) {
+            log.append("app_key=a&events=" + a);//18 bytes each
+        }
+        log.append("app_key=a&crash=0123456789");//26 bytes
+
+        assertEquals(206, log.byteSize());
+
+        //over the limit, requests are dropped until a tenth of the limit is free
+        assertEquals(2, log.evict(100, 200));
+        assertEquals(170, log.byteSize());
+        assertEquals(1, log.size(RequestClass.CRASH));
+        assertEquals("app_key=a&events=2", log.requests()[0]);
+        assertArrayEquals(log.requests(), reopen().requests());
+    }
+
+    @Test
+    public void utf8Length() {
+        assertEquals(0, RequestLog.utf8Length(""));
+        assertEquals(3, RequestLog.utf8Length("abc"));
+        assertEquals(2, RequestLog.utf8Length("\u00fc"));
+        assertEquals(3, RequestLog.utf8Length("\u20ac"));
+        assertEquals(4, RequestLog.utf8Length("\ud83d\ude00"));
+    }
+
+    @Test
+    public void mutate() {
+        log.append("app_key=a&events=1");
+        log.append("app_key=b&events=2");
+        log.append("events=3");
+
+        //unchanged requests are not rewritten
+        assertEquals(0, log.mutate(new CountlyStore.RequestMutation() {
+            @Override public StoredRequest apply(StoredRequest request) {
+                return request;
+            }
+        }));
+
+        assertEquals(2, log.mutate(new CountlyStore.RequestMutation() {
+            @Override public StoredRequest apply(StoredRequest request) {
+                if ("b".equals(request.appKey)) {
+                    return null;
+                }
+                return request.withAppKey("c");
+            }
+        }));
+        assertArrayEquals(new String[] { "app_key=c&events=1", "events=3" }, log.requests());
+        assertArrayEquals(log.requests(), reopen().requests());
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void removeOldestCount() {
+        RequestLog.SEGMENT_SIZE_LIMIT = 20;
+
+        for (int a = 0; a < 10; a++) {
+            log.append("request=" + a);
+        }
+
+        assertEquals(7, log.removeOldest(7));
+        assertArrayEquals(new String[] { "request=7", "request=8", "request=9" }, log.requests());
+        assertArrayEquals(log.requests(), reopen().requests());
+
+        assertEquals(3, log.removeOldest(5));
+        assertTrue(log.isEmpty());
+        assertTrue(reopen().isEmpty());
+        assertEquals(0, log.removeOldest(1));
+    }
+
+    @Test
+    public void temporaryDeviceIdCount() {
+        log.append("app_key=a&events=1");
+        assertFalse(log.containsTemporaryDeviceId());
+
+        log.append("app_key=a&session_duration=5&device_id=CLYTemporaryDeviceID");
+        log.append("app_key=a&end_session=1&override_id=CLYTemporaryDeviceID");
+        assertTrue(log.containsTemporaryDeviceId());
+        assertTrue(reopen().containsTemporaryDeviceId());
+
+        log.removeOldest(2);
+        assertTrue(log.containsTemporaryDeviceId());
+        log.removeOldest();
+        assertFalse(log.containsTemporaryDeviceId());
+    }
+
+    @Test
+    public void legacySegmentIsConverted() throws Exception {
+        log.clear();
+        File segment = new File(dir, "segment_0");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.writeInt(0x434C5251);
+        file.writeByte(1);
+        for (String r : new String[] { "app_key=a&events=1", "app_key=a&crash=1&device_id=CLYTemporaryDeviceID" }) {
+            byte[] bytes = r.getBytes("UTF-8");
+            file.writeInt(bytes.length);
+            file.write(bytes);
+        }
+        file.close();
+
+        RequestLog converted = reopen();
+        assertArrayEquals(new String[] { "app_key=a&events=1", "app_key=a&crash=1&device_id=CLYTemporaryDeviceID" }, converted.requests());
+        assertEquals(1, converted.size(RequestClass.DEVICE_ID));
+        assertTrue(converted.containsTemporaryDeviceId());
+        assertFalse(segment.exists());
+
+        converted.append("app_key=a&events=2");
+        assertArrayEquals(new String[] { "app_key=a&events=1", "app_key=a&crash=1&device_id=CLYTemporaryDeviceID", "app_key=a&events=2" }, reopen().requests());
+    }
+
+    @Test
+    public void encodeDecodeRecord() throws Exception {
+        StoredRequest request = StoredRequest.parse("timestamp=5&app_key=a%20b&events=1&override_id=x");
+        byte[] record = RequestLog.encodeRecord(request);
+        StoredRequest decoded = RequestLog.decodeRecord(Arrays.copyOfRange(record, 4, record.length));
+
+        assertEquals(request.render(), decoded.render());
+        assertEquals(StoredRequest.DeviceIdMode.OVERRIDE, decoded.deviceIdMode);
+        assertEquals(5, decoded.timestamp);
+        assertEquals(RequestClass.DEVICE_ID, decoded.requestClass);
+
+        //damaged records are not decoded
+        assertEquals(null, RequestLog.decodeRecord(Arrays.copyOfRange(record, 4, record.length - 1)));
+    }
+}
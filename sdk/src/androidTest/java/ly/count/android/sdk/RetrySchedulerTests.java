@@ -0,0 +1,86 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static androidx.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class RetrySchedulerTests {
+    CountlyStore store;
+
+    @Before
+    public void setUp() {
+        store = new CountlyStore(getContext(), mock(ModuleLog.class));
+        store.clear();
+    }
+
+    @After
+    public void tearDown() {
+        RetryScheduler.BASE_DELAY_MS = 5000;
+        RetryScheduler.MAX_DELAY_MS = 5 * 60 * 1000;
+        store.clear();
+    }
+
+    @Test
+    public void delayIsDoubledAndCapped() {
+        assertEquals(2500, RetryScheduler.delayForAttempt(1, 0));
+        assertEquals(5000, RetryScheduler.delayForAttempt(2, 0));
+        assertEquals(10000, RetryScheduler.delayForAttempt(3, 0));
+        assertEquals(RetryScheduler.MAX_DELAY_MS / 2, RetryScheduler.delayForAttempt(20, 0));
+        assertEquals(RetryScheduler.MAX_DELAY_MS / 2, RetryScheduler.delayForAttempt(1000, 0));
+    }
+
+    @Test
+    public void jitterStaysInRange() {
+        for (int attempt = 1; attempt < 12; attempt++) {
+            long low = RetryScheduler.delayForAttempt(attempt, 0);
+            long high = RetryScheduler.delayForAttempt(attempt, 0.9999);
+            assertTrue(high >= low);
+            assertTrue(high <= low * 2);
+            assertTrue(high <= RetryScheduler.MAX_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void failureAndSuccess() {
+        RetryScheduler scheduler = new RetryScheduler(store, mock(ModuleLog.class));
+        assertTrue(scheduler.canSend());
+
+        scheduler.onFailure();
+        assertFalse(scheduler.canSend());
+        assertTrue(scheduler.remainingDelay() > 0);
+        assertTrue(scheduler.remainingDelay() <= RetryScheduler.BASE_DELAY_MS);
+
+        scheduler.onSuccess();
+        assertTrue(scheduler.canSend());
+        assertEquals(0, store.getRetryAttempts());
+    }
+
+    @Test
+    public void stateSurvivesRestart() {
+        RetryScheduler scheduler = new RetryScheduler(store, mock(ModuleLog.class));
+        scheduler.onFailure();
+        scheduler.onFailure();
+
+        RetryScheduler restored = new RetryScheduler(new CountlyStore(getContext(), mock(ModuleLog.class)), mock(ModuleLog.class));
+        assertFalse(restored.canSend());
+        assertEquals(2, store.getRetryAttempts());
+    }
+
+    @Test
+    public void backoffPasses() throws InterruptedException {
+        RetryScheduler.BASE_DELAY_MS = 20;
+        RetryScheduler scheduler = new RetryScheduler(store, mock(ModuleLog.class));
+        scheduler.onFailure();
+        Thread.sleep(30);
+        assertTrue(scheduler.canSend());
+    }
+}
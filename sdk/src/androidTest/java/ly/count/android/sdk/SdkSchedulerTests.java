@@ -0,0 +1,166 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SdkSchedulerTests {
+    SdkScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new SdkScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.halt();
+        scheduler.timer().shutdownNow();
+    }
+
+    Runnable blocker(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+    }
+
+    @Test
+    public void laneThreadsAreNamed() throws Exception {
+        final String[] name = new String[1];
+        scheduler.submit(SdkScheduler.Lane.MEDIA, new Runnable() {
+            @Override
+            public void run() {
+                name[0] = Thread.currentThread().getName();
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(name[0].startsWith("Countly-media-"));
+
+        //the count is updated right after the result is set
+        for (int a = 0; a < 100 && scheduler.completedCount(SdkScheduler.Lane.MEDIA) == 0; a++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, scheduler.completedCount(SdkScheduler.Lane.MEDIA));
+        assertEquals(0, scheduler.completedCount(SdkScheduler.Lane.UPLOAD));
+    }
+
+    @Test
+    public void queueDepthPerLane() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, blocker(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        //the upload lane has a single thread, so the rest waits
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, new Runnable() {
+            @Override public void run() {
+            }
+        });
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, new Runnable() {
+            @Override public void run() {
+            }
+        });
+
+        assertEquals(2, scheduler.queueDepth(SdkScheduler.Lane.UPLOAD));
+        assertEquals(2, scheduler.peakQueueDepth(SdkScheduler.Lane.UPLOAD));
+        assertEquals(1, scheduler.activeCount(SdkScheduler.Lane.UPLOAD));
+        assertEquals(0, scheduler.queueDepth(SdkScheduler.Lane.PERSISTENCE));
+
+        //other lanes are not held back
+        final CountDownLatch persisted = new CountDownLatch(1);
+        scheduler.submit(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+            @Override public void run() {
+                persisted.countDown();
+            }
+        });
+        assertTrue(persisted.await(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, new Runnable() {
+            @Override public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, scheduler.queueDepth(SdkScheduler.Lane.UPLOAD));
+    }
+
+    @Test
+    public void scheduleRunsInLane() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] name = new String[1];
+        scheduler.schedule(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+            @Override
+            public void run() {
+                name[0] = Thread.currentThread().getName();
+                done.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(name[0].startsWith("Countly-persistence-"));
+    }
+
+    @Test
+    public void haltStopsLanesAndDelayedWork() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean delayedRan = new AtomicBoolean(false);
+
+        ExecutorService upload = scheduler.executor(SdkScheduler.Lane.UPLOAD);
+        assertSame(upload, scheduler.executor(SdkScheduler.Lane.UPLOAD));
+
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, blocker(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.schedule(SdkScheduler.Lane.UPLOAD, new Runnable() {
+            @Override public void run() {
+                delayedRan.set(true);
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        scheduler.halt();
+        assertTrue(upload.isShutdown());
+        assertEquals(0, scheduler.queueDepth(SdkScheduler.Lane.UPLOAD));
+
+        //the lane is started again for new work
+        ExecutorService restarted = scheduler.executor(SdkScheduler.Lane.UPLOAD);
+        assertNotSame(upload, restarted);
+        scheduler.submit(SdkScheduler.Lane.UPLOAD, new Runnable() {
+            @Override public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        Thread.sleep(300);
+        assertFalse(delayedRan.get());
+    }
+
+    @Test
+    public void countlyUsesSingleScheduler() {
+        Countly countly = new Countly();
+        assertSame(countly.scheduler_.timer(), countly.getTimerService());
+        assertSame(countly.scheduler_, countly.getConnectionQueue().getScheduler());
+
+        countly.getConnectionQueue().ensureExecutor();
+        assertSame(countly.scheduler_.executor(SdkScheduler.Lane.UPLOAD), countly.getConnectionQueue().getExecutor());
+    }
+}
@@ -0,0 +1,95 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentationTests {
+    final Map<String, String> segmS = new HashMap<>();
+    final Map<String, Integer> segmI = new HashMap<>();
+    final Map<String, Double> segmD = new HashMap<>();
+    final Map<String, Boolean> segmB = new HashMap<>();
+
+    void partition(Segmentation segmentation, String[] reservedKeys) {
+        segmS.clear();
+        segmI.clear();
+        segmD.clear();
+        segmB.clear();
+        segmentation.partition(reservedKeys, segmS, segmI, segmD, segmB);
+    }
+
+    @Test
+    public void putAndPartition() {
+        Segmentation segmentation = new Segmentation(1)
+            .put("s", "v")
+            .put("i", 5)
+            .put("d", 2.5d)
+            .put("b", false)
+            .put("r", "reserved");
+
+        assertEquals(5, segmentation.size());
+        partition(segmentation, new String[] { "r" });
+
+        assertEquals(1, segmS.size());
+        assertEquals("v", segmS.get("s"));
+        assertEquals(Integer.valueOf(5), segmI.get("i"));
+        assertEquals(2.5d, segmD.get("d"), 0.0d);
+        assertEquals(Boolean.FALSE, segmB.get("b"));
+    }
+
+    @Test
+    public void replaceAndIgnoreInvalid() {
+        Segmentation segmentation = new Segmentation()
+            .put("k", "v")
+            .put("k", 7)
+            .put(null, 1)
+            .put("", true)
+            .put("n", (String) null);
+
+        assertEquals(1, segmentation.size());
+        partition(segmentation, null);
+        assertTrue(segmS.isEmpty());
+        assertEquals(Integer.valueOf(7), segmI.get("k"));
+    }
+
+    @Test
+    public void clearAndCopy() {
+        Segmentation segmentation = new Segmentation().put("a", 1).put("b", "c");
+        Segmentation copy = segmentation.copy();
+
+        segmentation.clear();
+        assertTrue(segmentation.isEmpty());
+        segmentation.put("x", true);
+
+        partition(copy, null);
+        assertEquals(Integer.valueOf(1), segmI.get("a"));
+        assertEquals("c", segmS.get("b"));
+        assertTrue(segmB.isEmpty());
+
+        copy.put("d", 1.0d);
+        assertEquals(3, copy.size());
+    }
+
+    @Test
+    public void fromMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("s", "v");
+        map.put("i", 1);
+        map.put("d", 1.5d);
+        map.put("b", true);
+        map.put("f", 1.5f);
+        map.put("n", null);
+        map.put(null, "v");
+
+        Segmentation segmentation = Segmentation.fromMap(map, mock(ModuleLog.class));
+        assertEquals(4, segmentation.size());
+        assertEquals(7, map.size());
+    }
+}
@@ -0,0 +1,111 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class StoredRequestTests {
+
+    @Test
+    public void parseHeader() {
+        StoredRequest request = StoredRequest.parse("app_key=abc&timestamp=1604252139458&hour=19&begin_session=1");
+
+        assertEquals("abc", request.appKey);
+        assertEquals(1604252139458L, request.timestamp);
+        assertEquals(RequestClass.SESSION, request.requestClass);
+        assertEquals(StoredRequest.DeviceIdMode.NONE, request.deviceIdMode);
+        assertNull(request.deviceId);
+        assertEquals("&timestamp=1604252139458&hour=19&begin_session=1", request.payload);
+    }
+
+    @Test
+    public void parseDeviceIdModes() {
+        StoredRequest change = StoredRequest.parse("app_key=abc&session_duration=5&device_id=new%20id");
+        assertEquals(StoredRequest.DeviceIdMode.CHANGE, change.deviceIdMode);
+        assertEquals("new%20id", change.deviceId);
+
+        StoredRequest override = StoredRequest.parse("app_key=abc&end_session=1&override_id=old");
+        assertEquals(StoredRequest.DeviceIdMode.OVERRIDE, override.deviceIdMode);
+        assertEquals("old", override.deviceId);
+
+        //only the last parameter changes the device ID
+        StoredRequest notLast = StoredRequest.parse("app_key=abc&device_id=a&events=1");
+        assertEquals(StoredRequest.DeviceIdMode.NONE, notLast.deviceIdMode);
+    }
+
+    @Test
+    public void renderRoundTrip() {
+        String[] requests = new String[] {
+            "",
+            "blah1",
+            "app_key=abc",
+            "app_key=",
+            "app_key=abc&",
+            "app_key=abc&events=1",
+            "timestamp=1&hour=19&app_key=abc&dow=0",
+            "timestamp=1&app_key=abc",
+            "app_key=abc&device_id=x",
+            "app_key=abc&crash=1&override_id=x",
+            "&device_id=x",
+            "events=ü&device_id=",
+        };
+
+        for (String r : requests) {
+            StoredRequest request = StoredRequest.parse(r);
+            assertEquals(r, request.render());
+            assertEquals(RequestLog.utf8Length(r), request.byteLength());
+        }
+    }
+
+    @Test
+    public void withAppKey() {
+        StoredRequest request = StoredRequest.parse("timestamp=1&app_key=abc&dow=0&device_id=x");
+
+        assertEquals("timestamp=1&app_key=new&dow=0&device_id=x", request.withAppKey("new").render());
+        assertSame(request, request.withAppKey("abc"));
+
+        StoredRequest noKey = StoredRequest.parse("timestamp=1&dow=0");
+        assertSame(noKey, noKey.withAppKey("new"));
+    }
+
+    @Test
+    public void temporaryDeviceId() {
+        StoredRequest request = StoredRequest.parse("app_key=abc&session_duration=5&device_id=CLYTemporaryDeviceID");
+        assertTrue(request.hasTemporaryDeviceId());
+        assertTrue(StoredRequest.parse("app_key=abc&end_session=1&override_id=CLYTemporaryDeviceID").hasTemporaryDeviceId());
+        assertFalse(StoredRequest.parse("app_key=abc&events=CLYTemporaryDeviceID").hasTemporaryDeviceId());
+
+        StoredRequest replaced = request.withDeviceId("real");
+        assertFalse(replaced.hasTemporaryDeviceId());
+        assertEquals("app_key=abc&session_duration=5&device_id=real", replaced.render());
+    }
+
+    @Test
+    public void renderWithDeviceId() {
+        assertEquals("app_key=abc&events=1&device_id=dev", StoredRequest.parse("app_key=abc&events=1").renderWithDeviceId("dev"));
+        assertEquals("app_key=abc&end_session=1&device_id=old", StoredRequest.parse("app_key=abc&end_session=1&override_id=old").renderWithDeviceId("old"));
+    }
+
+    @Test
+    public void paramValue() {
+        assertEquals("5", StoredRequest.paramValue("a=1&timestamp=5&b=2", "timestamp"));
+        assertEquals("5", StoredRequest.paramValue("old_timestamp=3&timestamp=5", "timestamp"));
+        assertNull(StoredRequest.paramValue("old_timestamp=3", "timestamp"));
+        assertEquals(-1, StoredRequest.paramIndex("timestamp", "timestamp"));
+    }
+
+    @Test
+    public void removeParam() {
+        assertEquals("a=1&b=2", StoredRequest.removeParam("a=1&timestamp=5&b=2", "timestamp"));
+        assertEquals("a=1", StoredRequest.removeParam("a=1&timestamp=5", "timestamp"));
+        assertEquals("b=2", StoredRequest.removeParam("timestamp=5&b=2", "timestamp"));
+        assertEquals("old_timestamp=3", StoredRequest.removeParam("old_timestamp=3", "timestamp"));
+    }
+}
@@ -66,4 +66,15 @@ public class UtilsNetworkingTest {
             Assert.assertEquals(UtilsNetworking.sha256Hash(list_a[a]), list_b[a]);
         }
     }
+
+    @Test
+    public void testUrlEncodeToMatchesUrlEncoder() {
+        String[] list = new String[] { "", "132", "\u0101\u0161\u0113\u0123", "&#(%^$(&#^@$%$&!_)@(*#_$", " ds fdsf 8ds7f0d&)(^ F*(D&F%S( SD%(F", "{\"key\":\"a.b-c*d_e~f\"}", "\u20ac \ud83d\ude00", "\ud83d", "a\ude00b", "\u0000\u007f\u0080\u07ff\u0800\uffff" };
+
+        for (String item : list) {
+            StringBuilder sb = new StringBuilder("prefix");
+            UtilsNetworking.urlEncodeTo(item, sb);
+            Assert.assertEquals("prefix" + UtilsNetworking.urlEncodeString(item), sb.toString());
+        }
+    }
 }
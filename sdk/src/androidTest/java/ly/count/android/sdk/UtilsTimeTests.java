@@ -2,6 +2,9 @@ package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Assert;
@@ -50,4 +53,112 @@ public class UtilsTimeTests {
 
         Assert.assertTrue(tms2 - tms < 260);
     }
+
+    @Test
+    public void instantMatchesCalendar() {
+        UtilsTime.clearHourCache();
+        long start = 1579463653876L;
+
+        //going through several hours and back, so that the cached hour is used and replaced
+        for (long ts = start; ts < start + 5 * 3600000L; ts += 7 * 60000L + 13) {
+            assertInstantMatchesCalendar(ts);
+        }
+        assertInstantMatchesCalendar(start);
+        assertInstantMatchesCalendar(0);
+    }
+
+    @Test
+    public void instantTimezoneChange() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT+03:00"));
+            UtilsTime.clearHourCache();
+            Assert.assertEquals(22, UtilsTime.Instant.get(1579463653876L).hour);
+
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT-05:00"));
+            UtilsTime.clearHourCache();
+            Assert.assertEquals(14, UtilsTime.Instant.get(1579463653876L).hour);
+        } finally {
+            TimeZone.setDefault(original);
+            UtilsTime.clearHourCache();
+        }
+    }
+
+    void assertInstantMatchesCalendar(long ts) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(ts);
+
+        UtilsTime.Instant instant = UtilsTime.Instant.get(ts);
+        Assert.assertEquals(ts, instant.timestampMs);
+        Assert.assertEquals(calendar.get(Calendar.HOUR_OF_DAY), instant.hour);
+        Assert.assertEquals(calendar.get(Calendar.DAY_OF_WEEK) - 1, instant.dow);
+    }
+
+    @Test
+    public void uniqueTimestampsAcrossThreads() throws InterruptedException {
+        //a separate generator, so that the shared one doesn't run ahead of the clock for other tests
+        final UtilsTime.TimeUniquesEnsurer ensurer = new UtilsTime.TimeUniquesEnsurer();
+        final int threadCount = 4;
+        final int perThread = 10000;
+        final long[][] results = new long[threadCount][perThread];
+
+        Thread[] threads = new Thread[threadCount];
+        for (int a = 0; a < threadCount; a++) {
+            final int index = a;
+            threads[a] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int b = 0; b < perThread; b++) {
+                        results[index][b] = ensurer.uniqueTimestamp();
+                    }
+                }
+            });
+            threads[a].start();
+        }
+
+        Set<Long> all = new HashSet<>();
+        for (int a = 0; a < threadCount; a++) {
+            threads[a].join();
+            for (int b = 0; b < perThread; b++) {
+                if (b > 0) {
+                    Assert.assertTrue(results[a][b] > results[a][b - 1]);
+                }
+                all.add(results[a][b]);
+            }
+        }
+        Assert.assertEquals(threadCount * perThread, all.size());
+    }
+
+    @Test
+    public void uniqueTimestampsClockChanges() {
+        final long[] clock = new long[] { 1000000 };
+        UtilsTime.TimeUniquesEnsurer ensurer = new UtilsTime.TimeUniquesEnsurer() {
+            @Override
+            long currentTimeMillis() {
+                return clock[0];
+            }
+        };
+
+        Assert.assertEquals(1000000, ensurer.uniqueTimestamp());
+        Assert.assertEquals(1000001, ensurer.uniqueTimestamp());
+        Assert.assertEquals(1000002, ensurer.uniqueTimestamp());
+
+        clock[0] = 1000010;
+        Assert.assertEquals(1000010, ensurer.uniqueTimestamp());
+
+        //a small step back keeps the timestamps increasing
+        clock[0] = 1000005;
+        Assert.assertEquals(1000011, ensurer.uniqueTimestamp());
+
+        //timestamps that ran ahead of the clock keep increasing too
+        for (int a = 0; a < 2000; a++) {
+            ensurer.uniqueTimestamp();
+        }
+        Assert.assertEquals(1002012, ensurer.uniqueTimestamp());
+
+        //a clock that was set back is followed
+        clock[0] = 500000;
+        Assert.assertEquals(500000, ensurer.uniqueTimestamp());
+        Assert.assertEquals(500001, ensurer.uniqueTimestamp());
+    }
 }
@@ -18,7 +18,7 @@ public class AdvertisingIdAdapter {
     }
 
     public static void setAdvertisingId(final Context context, final CountlyStore store, final DeviceId deviceId) {
-        new Thread(new Runnable() {
+        Countly.sharedInstance().scheduler_.submit(SdkScheduler.Lane.IMMEDIATE, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -38,7 +38,7 @@ public class AdvertisingIdAdapter {
                     }
                 }
             }
-        }).start();
+        });
     }
 
     private static String getAdvertisingId(final Context context) throws Throwable {
@@ -78,7 +78,7 @@ public class AdvertisingIdAdapter {
      * Cache advertising ID for attribution
      */
     protected static void cacheAdvertisingID(final Context context, final CountlyStore store) {
-        new Thread(new Runnable() {
+        Countly.sharedInstance().scheduler_.submit(SdkScheduler.Lane.IMMEDIATE, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -102,6 +102,6 @@ public class AdvertisingIdAdapter {
                     }
                 }
             }
-        }).start();
+        });
     }
 }
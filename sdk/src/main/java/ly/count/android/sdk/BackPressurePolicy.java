@@ -0,0 +1,20 @@
+package ly.count.android.sdk;
+
+/**
+ * What should happen when an event is recorded while the event ingestion buffer is full
+ */
+public enum BackPressurePolicy {
+    /**
+     * The oldest event that was not yet stored is dropped to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * The new event is dropped
+     */
+    DROP_NEWEST,
+    /**
+     * The recording thread waits until there is room, up to the given timeout.
+     * If the timeout passes, the new event is dropped.
+     */
+    BLOCK
+}
@@ -0,0 +1,348 @@
+package ly.count.android.sdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring buffer of crash breadcrumbs.
+ *
+ * Every breadcrumb is stored as a record with a sequence number, the time it was added and the ID
+ * of the thread that added it, followed by the text encoded as UTF-8. Records are written directly
+ * into the preallocated buffer without creating any objects, when there is no space left the oldest
+ * records are overwritten.
+ *
+ * If the buffer is backed by a memory mapped file, every write ends up in the file even if the process
+ * is killed right after it, so the breadcrumbs of a previous run can be read on the next launch.
+ *
+ * Layout: a header with the positions of the oldest record and of the next write, followed by the records.
+ * A record that would not fit before the end of the buffer is written at the start of it instead,
+ * and a wrap marker is left in the place where it would have started.
+ */
+class BreadcrumbBuffer {
+    private static final int MAGIC = 0x434C4243;// "CLBC"
+    private static final int VERSION = 1;
+    private static final int WRAP_MARKER = -1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //magic, version, capacity, count, tail, head, next sequence
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4 + 8;
+    //length, sequence, timestamp, thread ID
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 8;
+
+    private static final int POS_CAPACITY = 8;
+    private static final int POS_COUNT = 12;
+    private static final int POS_TAIL = 16;
+    private static final int POS_HEAD = 20;
+    private static final int POS_SEQUENCE = 24;
+
+    static class Entry {
+        final long sequence;
+        final long timestamp;
+        final long threadId;
+        final String record;
+
+        Entry(long sequence, long timestamp, long threadId, String record) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.threadId = threadId;
+            this.record = record;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    //size of the record area
+    private final int capacity;
+    private final int maxEntries;
+    private final int maxChars;
+    private final boolean fileBacked;
+
+    private int count = 0;
+    //offsets in the record area of the oldest record and of the next write
+    private int tail = 0;
+    private int head = 0;
+    private long nextSequence = 0;
+
+    /**
+     * Creates a buffer in memory
+     */
+    BreadcrumbBuffer(int capacity, int maxEntries, int maxChars) {
+        this(ByteBuffer.allocate(HEADER_SIZE + capacity), capacity, maxEntries, maxChars, false);
+        writeHeader();
+    }
+
+    private BreadcrumbBuffer(ByteBuffer buffer, int capacity, int maxEntries, int maxChars, boolean fileBacked) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.fileBacked = fileBacked;
+    }
+
+    /**
+     * Opens a buffer backed by a memory mapped file, keeping the records that are already in it
+     * if the file is valid. If the file can't be mapped, null is returned.
+     */
+    static BreadcrumbBuffer open(File file, int capacity, int maxEntries, int maxChars, ModuleLog L) {
+        RandomAccessFile raf = null;
+        try {
+            final File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            final boolean existing = raf.length() == HEADER_SIZE + capacity;
+            final ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            final BreadcrumbBuffer res = new BreadcrumbBuffer(mapped, capacity, maxEntries, maxChars, true);
+
+            if (!existing || !res.readHeader()) {
+                if (existing) {
+                    L.w("[BreadcrumbBuffer] Breadcrumb file is damaged, starting with an empty one");
+                }
+                res.reset();
+            }
+            return res;
+        } catch (IOException ex) {
+            L.e("[BreadcrumbBuffer] Failed to map breadcrumb file, " + ex);
+            return null;
+        } finally {
+            //the mapping stays valid after the file is closed
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    boolean isFileBacked() {
+        return fileBacked;
+    }
+
+    /**
+     * Adds a breadcrumb, texts longer than the character limit are cut
+     */
+    synchronized void add(final String record) {
+        add(record, System.currentTimeMillis(), Thread.currentThread().getId());
+    }
+
+    /**
+     * Adds a breadcrumb that was taken from another buffer, keeping its time and thread
+     */
+    synchronized void add(final Entry entry) {
+        add(entry.record, entry.timestamp, entry.threadId);
+    }
+
+    private void add(final String record, final long timestamp, final long threadId) {
+        final int chars = Math.min(record.length(), maxChars);
+        final int length = utf8Length(record, chars);
+        final int needed = RECORD_HEADER_SIZE + length;
+        if (needed > capacity) {
+            return;
+        }
+
+        if (head + needed > capacity) {
+            //records between the write position and the end of the buffer are overwritten by the wrap
+            while (count > 0 && tail >= head) {
+                removeOldest();
+            }
+            if (capacity - head >= 4) {
+                buffer.putInt(HEADER_SIZE + head, WRAP_MARKER);
+            }
+            head = 0;
+            if (count == 0) {
+                tail = 0;
+            }
+        }
+
+        while (count > 0 && (count >= maxEntries || (tail >= head && tail < head + needed))) {
+            removeOldest();
+        }
+
+        final int start = HEADER_SIZE + head;
+        buffer.putInt(start, length);
+        buffer.putLong(start + 4, nextSequence);
+        buffer.putLong(start + 12, timestamp);
+        buffer.putLong(start + 20, threadId);
+        writeUtf8(buffer, record, chars, start + RECORD_HEADER_SIZE);
+
+        if (count == 0) {
+            tail = head;
+        }
+        head += needed;
+        count++;
+        nextSequence++;
+        writeHeader();
+    }
+
+    /**
+     * Returns the breadcrumbs from the oldest to the newest
+     */
+    synchronized List<Entry> entries() {
+        final List<Entry> res = new ArrayList<>(count);
+        int position = tail;
+        for (int i = 0; i < count; i++) {
+            position = recordStart(position);
+            final int start = HEADER_SIZE + position;
+            final int length = buffer.getInt(start);
+            final byte[] bytes = new byte[length];
+            for (int b = 0; b < length; b++) {
+                bytes[b] = buffer.get(start + RECORD_HEADER_SIZE + b);
+            }
+            res.add(new Entry(buffer.getLong(start + 4), buffer.getLong(start + 12), buffer.getLong(start + 20), new String(bytes, UTF8)));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the breadcrumbs from the oldest to the newest and removes them
+     */
+    synchronized List<Entry> drain() {
+        final List<Entry> res = entries();
+        reset();
+        return res;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized void clear() {
+        reset();
+    }
+
+    private void reset() {
+        count = 0;
+        tail = 0;
+        head = 0;
+        writeHeader();
+    }
+
+    private void removeOldest() {
+        tail += RECORD_HEADER_SIZE + buffer.getInt(HEADER_SIZE + tail);
+        count--;
+        if (count > 0) {
+            //the tail always points to the start of a record, so that it can be compared to the write position
+            tail = recordStart(tail);
+        }
+    }
+
+    /**
+     * Returns where the record at the given position starts, following a wrap
+     */
+    private int recordStart(final int position) {
+        if (capacity - position < 4 || buffer.getInt(HEADER_SIZE + position) == WRAP_MARKER) {
+            return 0;
+        }
+        return position;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(POS_CAPACITY, capacity);
+        buffer.putInt(POS_COUNT, count);
+        buffer.putInt(POS_TAIL, tail);
+        buffer.putInt(POS_HEAD, head);
+        buffer.putLong(POS_SEQUENCE, nextSequence);
+    }
+
+    /**
+     * Reads the header and checks that the records it points to are valid
+     */
+    private boolean readHeader() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(POS_CAPACITY) != capacity) {
+            return false;
+        }
+
+        final int storedCount = buffer.getInt(POS_COUNT);
+        final int storedTail = buffer.getInt(POS_TAIL);
+        final int storedHead = buffer.getInt(POS_HEAD);
+        if (storedCount < 0 || storedTail < 0 || storedTail > capacity || storedHead < 0 || storedHead > capacity) {
+            return false;
+        }
+
+        int position = storedTail;
+        for (int i = 0; i < storedCount; i++) {
+            position = recordStart(position);
+            if (capacity - position < RECORD_HEADER_SIZE) {
+                return false;
+            }
+            final int length = buffer.getInt(HEADER_SIZE + position);
+            if (length < 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+                return false;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (storedCount > 0 && position != storedHead) {
+            return false;
+        }
+
+        count = storedCount;
+        tail = storedTail;
+        head = storedHead;
+        nextSequence = buffer.getLong(POS_SEQUENCE);
+        return true;
+    }
+
+    /**
+     * Returns the length in UTF-8 of the first characters of the text, unpaired surrogates are written as '?'
+     */
+    static int utf8Length(final String s, final int chars) {
+        int length = 0;
+        for (int i = 0; i < chars; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the first characters of the text as UTF-8 at the given position, without creating any objects
+     *
+     * @return the position after the written bytes
+     */
+    static int writeUtf8(final ByteBuffer buffer, final String s, final int chars, int position) {
+        for (int i = 0; i < chars; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+                buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(position++, (byte) '?');
+            } else {
+                buffer.put(position++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return position;
+    }
+}
@@ -25,17 +25,23 @@ import android.util.Log;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -49,6 +55,8 @@ import org.json.JSONObject;
 public class ConnectionProcessor implements Runnable {
     private static final int CONNECT_TIMEOUT_IN_MILLISECONDS = 30000;
     private static final int READ_TIMEOUT_IN_MILLISECONDS = 30000;
+    //bytes of a native crash dump that are read at once, a multiple of 3 so that each part is encoded to Base64 on its own
+    static final int NATIVE_DUMP_READ_SIZE = 3 * 1024;
 
     private final CountlyStore store_;
     private final DeviceId deviceId_;
@@ -59,6 +67,18 @@ public class ConnectionProcessor implements Runnable {
 
     protected static String salt;
 
+    //bulk upload is disabled while the max request count is below 2
+    private int bulkMaxRequests_ = 0;
+    private int bulkMaxBytes_ = 0;
+
+    private RetryScheduler retryScheduler_ = null;
+
+    private static final CountlyTransport defaultTransport = new HttpTransport();
+    private CountlyTransport transport_ = defaultTransport;
+
+    //request bodies are compressed only if this is set
+    private RequestCompressionStats compressionStats_ = null;
+
     ModuleLog L;
 
     private enum RequestResult {
@@ -76,29 +96,72 @@ public class ConnectionProcessor implements Runnable {
         L = logModule;
     }
 
+    /**
+     * Allows sending multiple stored requests in a single bulk request
+     *
+     * @param maxRequests the max amount of requests sent together
+     * @param maxBytes the max combined length of the requests sent together
+     */
+    void setBulkUpload(final int maxRequests, final int maxBytes) {
+        bulkMaxRequests_ = maxRequests;
+        bulkMaxBytes_ = maxBytes;
+    }
+
+    /**
+     * Set the transport that is used for opening and executing connections
+     */
+    void setTransport(final CountlyTransport transport) {
+        transport_ = transport == null ? defaultTransport : transport;
+    }
+
+    CountlyTransport getTransport() {
+        return transport_;
+    }
+
+    /**
+     * Set the scheduler that decides when failed requests are retried
+     */
+    void setRetryScheduler(final RetryScheduler retryScheduler) {
+        retryScheduler_ = retryScheduler;
+    }
+
+    /**
+     * Enables gzip compression of POST request bodies
+     *
+     * @param compressionStats counters that are updated for each compressed request
+     */
+    void setRequestCompression(final RequestCompressionStats compressionStats) {
+        compressionStats_ = compressionStats;
+    }
+
     synchronized public URLConnection urlConnectionForServerRequest(String requestData, final String customEndpoint) throws IOException {
         String urlEndpoint = "/i";
         if (customEndpoint != null) {
             urlEndpoint = customEndpoint;
         }
 
+        //native crash dumps are streamed into the request body, so the stored request only has their path
+        final String nativeDumpPath = StoredRequest.paramValue(requestData, CrashDetails.nativeDumpPathKey);
+        if (nativeDumpPath != null) {
+            requestData = StoredRequest.removeParam(requestData, CrashDetails.nativeDumpPathKey);
+        }
+
         boolean usingHttpPost = (requestData.contains("&crash=") || requestData.length() >= 2048 || Countly.sharedInstance().isHttpPostForced());
 
         String urlStr = serverURL_ + urlEndpoint;
-        if (usingHttpPost) {
+        if (nativeDumpPath != null) {
+            //the checksum is calculated while the body is written
+            usingHttpPost = true;
+        } else if (usingHttpPost) {
             requestData += "&checksum256=" + UtilsNetworking.sha256Hash(requestData + salt);
         } else {
             urlStr += "?" + requestData;
             urlStr += "&checksum256=" + UtilsNetworking.sha256Hash(requestData + salt);
         }
         final URL url = new URL(urlStr);
-        final HttpURLConnection conn;
-        if (Countly.publicKeyPinCertificates == null && Countly.certificatePinCertificates == null) {
-            conn = (HttpURLConnection) url.openConnection();
-        } else {
-            HttpsURLConnection c = (HttpsURLConnection) url.openConnection();
-            c.setSSLSocketFactory(sslContext_.getSocketFactory());
-            conn = c;
+        final HttpURLConnection conn = transport_.openConnection(url);
+        if ((Countly.publicKeyPinCertificates != null || Countly.certificatePinCertificates != null) && conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(sslContext_.getSocketFactory());
         }
         conn.setConnectTimeout(CONNECT_TIMEOUT_IN_MILLISECONDS);
         conn.setReadTimeout(READ_TIMEOUT_IN_MILLISECONDS);
@@ -122,7 +185,21 @@ public class ConnectionProcessor implements Runnable {
         L.v("[Connection Processor] Got picturePath: " + picturePath);
         L.v("[Connection Processor] Using HTTP POST: [" + usingHttpPost + "] forced:[" + Countly.sharedInstance().isHttpPostForced() + "] length:[" + (requestData.length() >= 2048) + "] crash:[" + requestData.contains("&crash=") + "]");
         //Log.v(Countly.TAG, "Used url: " + urlStr);
-        if (!picturePath.equals("")) {
+        if (nativeDumpPath != null) {
+            File dumpFile = new File(UtilsNetworking.urlDecodeString(nativeDumpPath));
+            L.v("[Connection Processor] Streaming native crash dump of [" + dumpFile.length() + "] bytes");
+
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            // the size of the body is not known before it's written, so it's sent in chunks instead of being buffered
+            conn.setChunkedStreamingMode(0);
+            OutputStream os = conn.getOutputStream();
+            try {
+                writeNativeCrashRequest(requestData, dumpFile, salt, os);
+            } finally {
+                os.close();
+            }
+        } else if (!picturePath.equals("")) {
             //Uploading files:
             //http://stackoverflow.com/questions/2793150/how-to-use-java-net-urlconnection-to-fire-and-handle-http-requests
 
@@ -159,7 +236,16 @@ public class ConnectionProcessor implements Runnable {
             // End of multipart/form-data.
             writer.append("--").append(boundary).append("--").append(CRLF).flush();
         } else {
-            if (usingHttpPost) {
+            if (usingHttpPost && compressionStats_ != null) {
+                conn.setDoOutput(true);
+                conn.setRequestMethod("POST");
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                final long compressedLength = writeCompressed(requestData, conn.getOutputStream());
+
+                // request data is url encoded, so every character is a single byte
+                compressionStats_.record(requestData.length(), compressedLength);
+                L.v("[Connection Processor] Compressed request body from [" + requestData.length() + "] to [" + compressedLength + "] bytes");
+            } else if (usingHttpPost) {
                 conn.setDoOutput(true);
                 conn.setRequestMethod("POST");
                 OutputStream os = conn.getOutputStream();
@@ -196,6 +282,12 @@ public class ConnectionProcessor implements Runnable {
                 break;
             }
 
+            if (retryScheduler_ != null && !retryScheduler_.canSend()) {
+                // previous requests failed, wait before trying again
+                L.d("[Connection Processor] Backing off, next attempt in [" + retryScheduler_.remainingDelay() + "] ms");
+                break;
+            }
+
             // get first event from collection
             if (deviceId_.getId() == null) {
                 // When device ID is supplied by OpenUDID or by Google Advertising ID.
@@ -204,21 +296,36 @@ public class ConnectionProcessor implements Runnable {
                 break;
             }
 
-            String temporaryIdOverrideTag = "&override_id=" + DeviceId.temporaryCountlyDeviceId;
-            String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
-            boolean containsTemporaryIdOverride = storedEvents[0].contains(temporaryIdOverrideTag);
-            boolean containsTemporaryId = storedEvents[0].contains(temporaryIdTag);
-            if (containsTemporaryIdOverride || containsTemporaryId || deviceId_.temporaryIdModeEnabled()) {
+            final StoredRequest request = StoredRequest.parse(storedEvents[0]);
+            if (request.hasTemporaryDeviceId() || deviceId_.temporaryIdModeEnabled()) {
                 //we are about to change ID to the temporary one or
                 //the internally set id is the temporary one
 
                 //abort and wait for exiting temporary mode
-                L.i("[Connection Processor] Temporary ID detected, stalling requests. Id override:[" + containsTemporaryIdOverride + "], tmp id tag:[" + containsTemporaryId + "], temp ID set:[" + deviceId_.temporaryIdModeEnabled() + "]");
+                L.i("[Connection Processor] Temporary ID detected, stalling requests. Request device ID mode:[" + request.deviceIdMode + "], tmp id tag:[" + request.hasTemporaryDeviceId() + "], temp ID set:[" + deviceId_.temporaryIdModeEnabled() + "]");
                 break;
             }
 
-            boolean deviceIdOverride = storedEvents[0].contains("&override_id="); //if the sendable data contains a override tag
-            boolean deviceIdChange = storedEvents[0].contains("&device_id="); //if the sendable data contains a device_id tag. In this case it means that we will have to change the stored device ID
+            if (bulkMaxRequests_ > 1 && !(Countly.sharedInstance().isDeviceAppCrawler() && Countly.sharedInstance().ifShouldIgnoreCrawlers())) {
+                final List<String> bulkRequests = collectBulkRequests(storedEvents);
+                if (bulkRequests.size() > 1) {
+                    if (sendBulkRequests(bulkRequests)) {
+                        continue;
+                    }
+                    // stop processing, let next tick take care of retrying
+                    break;
+                }
+            }
+
+            final String nativeDumpPath = StoredRequest.paramValue(storedEvents[0], CrashDetails.nativeDumpPathKey);
+            if (nativeDumpPath != null && !new File(UtilsNetworking.urlDecodeString(nativeDumpPath)).isFile()) {
+                L.w("[Connection Processor] Native crash dump of the request does not exist anymore, removing request");
+                store_.removeConnection(storedEvents[0]);
+                continue;
+            }
+
+            final boolean deviceIdOverride = request.deviceIdMode == StoredRequest.DeviceIdMode.OVERRIDE; //if the sendable data contains a override tag
+            boolean deviceIdChange = request.deviceIdMode == StoredRequest.DeviceIdMode.CHANGE; //if the sendable data contains a device_id tag. In this case it means that we will have to change the stored device ID
 
             //add the device_id to the created request
             final String eventData, newId;
@@ -228,15 +335,14 @@ public class ConnectionProcessor implements Runnable {
                 // this is indicated by having the "override_id" tag. This just means that we
                 // don't use the id provided in the deviceId variable as this might have changed already.
 
-                eventData = storedEvents[0].replace("&override_id=", "&device_id=");
+                eventData = request.renderWithDeviceId(request.deviceId);
                 newId = null;
             } else {
                 if (deviceIdChange) {
                     // this branch will be used if a new device_id is provided
                     // and a device_id merge on server has to be performed
 
-                    final int endOfDeviceIdTag = storedEvents[0].indexOf("&device_id=") + "&device_id=".length();
-                    newId = UtilsNetworking.urlDecodeString(storedEvents[0].substring(endOfDeviceIdTag));
+                    newId = UtilsNetworking.urlDecodeString(request.deviceId);
 
                     if (newId.equals(deviceId_.getId())) {
                         // If the new device_id is the same as previous,
@@ -255,90 +361,22 @@ public class ConnectionProcessor implements Runnable {
                     // This just adds the device_id to them
 
                     newId = null;
-                    eventData = storedEvents[0] + "&device_id=" + UtilsNetworking.urlEncodeString(deviceId_.getId());
+                    eventData = request.renderWithDeviceId(UtilsNetworking.urlEncodeString(deviceId_.getId()));
                 }
             }
 
             if (!(Countly.sharedInstance().isDeviceAppCrawler() && Countly.sharedInstance().ifShouldIgnoreCrawlers())) {
                 //continue with sending the request to the server
-                URLConnection conn = null;
-                InputStream connInputStream = null;
+                RequestResult rRes = RequestResult.RETRY;
                 try {
-                    // initialize and open connection
-                    conn = urlConnectionForServerRequest(eventData, null);
-                    conn.connect();
-
-                    int responseCode = 0;
-                    String responseString = "";
-                    if (conn instanceof HttpURLConnection) {
-                        final HttpURLConnection httpConn = (HttpURLConnection) conn;
-
-                        try {
-                            //assume there will be no error
-                            connInputStream = httpConn.getInputStream();
-                        } catch (Exception ex) {
-                            //in case of exception, assume there was a error in the request and change streams
-                            connInputStream = httpConn.getErrorStream();
-                        }
-
-                        responseCode = httpConn.getResponseCode();
-                        responseString = Utils.inputStreamToString(connInputStream);
-                    }
-
-                    L.d("[Connection Processor] code:[" + responseCode + "], response:[" + responseString + "], request: " + eventData);
-
-                    final RequestResult rRes;
-
-                    if (responseCode >= 200 && responseCode < 300) {
-
-                        if (responseString.isEmpty()) {
-                            L.v("[Connection Processor] Response was empty, will retry");
-                            rRes = RequestResult.RETRY;
-                        } else {
-                            JSONObject jsonObject;
-                            try {
-                                jsonObject = new JSONObject(responseString);
-                            } catch (JSONException ex) {
-                                //failed to parse, so not a valid json
-                                jsonObject = null;
-                            }
-
-                            if (jsonObject == null) {
-                                //received unparseable response, retrying
-                                L.v("[Connection Processor] Response was a unknown, will retry");
-                                rRes = RequestResult.RETRY;
-                            } else {
-                                if (jsonObject.has("result")) {
-                                    //contains result entry
-                                    L.v("[Connection Processor] Response was a success");
-                                    rRes = RequestResult.OK;
-                                } else {
-                                    L.v("[Connection Processor] Response does not contain 'result', will retry");
-                                    rRes = RequestResult.RETRY;
-                                }
-                            }
-                        }
-                    } else if (responseCode >= 300 && responseCode < 400) {
-                        //assume redirect
-                        L.d("[Connection Processor] Encountered redirect, will retry");
-                        rRes = RequestResult.RETRY;
-                    } else if (responseCode == 400 || responseCode == 404) {
-                        L.w("[Connection Processor] Bad request, will still retry");
-                        rRes = RequestResult.RETRY;
-                    } else if (responseCode > 400) {
-                        //server down, try again later
-                        L.d("[Connection Processor] Server is down, will retry");
-                        rRes = RequestResult.RETRY;
-                    } else {
-                        L.d("[Connection Processor] Bad response code, will retry");
-                        rRes = RequestResult.RETRY;
-                    }
+                    rRes = sendRequest(eventData, null);
 
                     switch (rRes) {
                         case OK:
                             // successfully submitted event data to Count.ly server, so remove
                             // this one from the stored events collection
                             store_.removeConnection(storedEvents[0]);
+                            deleteNativeDump(nativeDumpPath);
 
                             if (deviceIdChange) {
                                 deviceId_.changeToDeveloperProvidedId(store_, newId);
@@ -347,31 +385,29 @@ public class ConnectionProcessor implements Runnable {
                             if (deviceIdChange || deviceIdOverride) {
                                 Countly.sharedInstance().notifyDeviceIdChange();
                             }
+                            onRequestDelivered();
                             break;
                         case REMOVE:
                             //bad request, will be removed
                             store_.removeConnection(storedEvents[0]);
+                            deleteNativeDump(nativeDumpPath);
+                            onRequestDelivered();
                             break;
                         case RETRY:
-                            // warning was logged above, stop processing, let next tick take care of retrying
+                            // warning was logged above, back off and let a later tick take care of retrying
+                            onRequestFailed();
                             break;
                     }
                 } catch (Exception e) {
                     L.w("[Connection Processor] Got exception while trying to submit event data: [" + eventData + "] [" + e + "]");
-                    // if exception occurred, stop processing, let next tick take care of retrying
+                    // if exception occurred, stop processing, let a later tick take care of retrying
+                    onRequestFailed();
                     break;
-                } finally {
-                    // free connection resources
-                    if (conn instanceof HttpURLConnection) {
-                        try {
-                            if (connInputStream != null) {
-                                connInputStream.close();
-                            }
-                        } catch (Throwable ignored) {
-                        }
+                }
 
-                        ((HttpURLConnection) conn).disconnect();
-                    }
+                if (rRes == RequestResult.RETRY) {
+                    // stop processing, the next attempt is made once the backoff has passed
+                    break;
                 }
             } else {
                 //device is identified as a app crawler and nothing is sent to the server
@@ -379,7 +415,315 @@ public class ConnectionProcessor implements Runnable {
 
                 //remove stored data
                 store_.removeConnection(storedEvents[0]);
+                deleteNativeDump(nativeDumpPath);
+            }
+        }
+    }
+
+    /**
+     * Sends the given request data to the server and interprets the response
+     *
+     * @param requestData request that is sent
+     * @param customEndpoint endpoint to use instead of "/i", may be null
+     * @return how the request should be handled
+     */
+    private RequestResult sendRequest(final String requestData, final String customEndpoint) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) urlConnectionForServerRequest(requestData, customEndpoint);
+        final CountlyTransport.Response response = transport_.execute(conn);
+
+        L.d("[Connection Processor] code:[" + response.code + "], response:[" + response.body + "], request: " + requestData);
+
+        return interpretResponse(response.code, response.body);
+    }
+
+    private RequestResult interpretResponse(final int responseCode, final String responseString) {
+        if (responseCode >= 200 && responseCode < 300) {
+
+            if (responseString.isEmpty()) {
+                L.v("[Connection Processor] Response was empty, will retry");
+                return RequestResult.RETRY;
+            } else {
+                JSONObject jsonObject;
+                try {
+                    jsonObject = new JSONObject(responseString);
+                } catch (JSONException ex) {
+                    //failed to parse, so not a valid json
+                    jsonObject = null;
+                }
+
+                if (jsonObject == null) {
+                    //received unparseable response, retrying
+                    L.v("[Connection Processor] Response was a unknown, will retry");
+                    return RequestResult.RETRY;
+                } else {
+                    if (jsonObject.has("result")) {
+                        //contains result entry
+                        L.v("[Connection Processor] Response was a success");
+                        return RequestResult.OK;
+                    } else {
+                        L.v("[Connection Processor] Response does not contain 'result', will retry");
+                        return RequestResult.RETRY;
+                    }
+                }
+            }
+        } else if (responseCode >= 300 && responseCode < 400) {
+            //assume redirect
+            L.d("[Connection Processor] Encountered redirect, will retry");
+            return RequestResult.RETRY;
+        } else if (responseCode == 400 || responseCode == 404) {
+            L.w("[Connection Processor] Bad request, will still retry");
+            return RequestResult.RETRY;
+        } else if (responseCode > 400) {
+            //server down, try again later
+            L.d("[Connection Processor] Server is down, will retry");
+            return RequestResult.RETRY;
+        } else {
+            L.d("[Connection Processor] Bad response code, will retry");
+            return RequestResult.RETRY;
+        }
+    }
+
+    /**
+     * Collects the requests from the start of the queue that can be sent together in a single bulk request.
+     * Requests that change or override the device ID and picture uploads have to be sent on their own,
+     * so collecting stops at the first one of them to keep the order of the requests.
+     *
+     * @param storedRequests the currently stored requests
+     * @return requests that can be sent together
+     */
+    List<String> collectBulkRequests(final String[] storedRequests) {
+        final List<String> bulkRequests = new ArrayList<>();
+        final int deviceIdLength = "&device_id=".length() + UtilsNetworking.urlEncodeString(deviceId_.getId()).length();
+        int bulkBytes = 0;
+
+        for (String request : storedRequests) {
+            if (bulkRequests.size() >= bulkMaxRequests_) {
+                break;
+            }
+
+            //changes to the temporary device ID stop collecting too, they have to wait for the real one
+            final StoredRequest stored = StoredRequest.parse(request);
+            if (stored.deviceIdMode != StoredRequest.DeviceIdMode.NONE || StoredRequest.paramValue(request, UserData.PICTURE_PATH_KEY) != null || StoredRequest.paramValue(request, CrashDetails.nativeDumpPathKey) != null) {
+                break;
+            }
+
+            bulkBytes += request.length() + deviceIdLength;
+            if (bulkBytes > bulkMaxBytes_) {
+                break;
+            }
+
+            bulkRequests.add(request);
+        }
+
+        return bulkRequests;
+    }
+
+    /**
+     * Sends the given requests to the bulk endpoint. If that succeeds, the requests are removed from the queue.
+     * Each request is sent as an object of its parameters, the same way they would be received by the "/i" endpoint.
+     *
+     * @param bulkRequests requests collected with {@link #collectBulkRequests(String[])}
+     * @return true if processing of the queue can continue
+     */
+    boolean sendBulkRequests(final List<String> bulkRequests) {
+        final String deviceIdParam = "&device_id=" + UtilsNetworking.urlEncodeString(deviceId_.getId());
+        final JSONArray requests = new JSONArray();
+        for (String request : bulkRequests) {
+            final JSONObject params = new JSONObject();
+            for (String pair : (request + deviceIdParam).split("&")) {
+                final int idx = pair.indexOf('=');
+                if (idx > 0) {
+                    try {
+                        params.put(pair.substring(0, idx), UtilsNetworking.urlDecodeString(pair.substring(idx + 1)));
+                    } catch (JSONException ignored) {
+                        // can not happen for non null keys
+                    }
+                }
+            }
+            requests.put(params);
+        }
+
+        final String bulkData = "requests=" + UtilsNetworking.urlEncodeString(requests.toString());
+        L.d("[Connection Processor] Sending [" + bulkRequests.size() + "] requests in bulk");
+
+        final RequestResult rRes;
+        try {
+            rRes = sendRequest(bulkData, "/i/bulk");
+        } catch (Exception e) {
+            L.w("[Connection Processor] Got exception while trying to submit bulk data: [" + bulkData + "] [" + e + "]");
+            onRequestFailed();
+            return false;
+        }
+
+        if (rRes == RequestResult.RETRY) {
+            onRequestFailed();
+            return false;
+        }
+
+        // the bulk is either delivered or rejected as a whole, in both cases it's removed
+        store_.removeConnections(bulkRequests);
+        onRequestDelivered();
+        return true;
+    }
+
+    private void deleteNativeDump(final String nativeDumpPath) {
+        if (nativeDumpPath != null && !new File(UtilsNetworking.urlDecodeString(nativeDumpPath)).delete()) {
+            L.w("[Connection Processor] Failed to delete sent native crash dump");
+        }
+    }
+
+    /**
+     * Writes the request as a POST body with the native crash dump encoded into the placeholder of the crash report.
+     * The dump is read and encoded in parts, so only a fixed size buffer of it is held in memory.
+     * The checksum is calculated from the written data and added as the last parameter.
+     */
+    static void writeNativeCrashRequest(final String requestData, final File dumpFile, final String salt, final OutputStream output) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available");
+        }
+
+        final String placeholder = UtilsNetworking.urlEncodeString(CrashDetails.nativeDumpPlaceholder);
+        final int placeholderIndex = requestData.indexOf(placeholder);
+        if (placeholderIndex < 0) {
+            throw new IOException("Native crash request has no placeholder for the dump");
+        }
+
+        writeAndDigest(requestData.substring(0, placeholderIndex), output, digest);
+
+        final byte[] readBuffer = new byte[NATIVE_DUMP_READ_SIZE];
+        //every 3 bytes become 4 Base64 characters, each of which can take 3 characters when url encoded
+        final byte[] encodeBuffer = new byte[NATIVE_DUMP_READ_SIZE / 3 * 4 * 3];
+        final FileInputStream input = new FileInputStream(dumpFile);
+        try {
+            int read;
+            while ((read = readFully(input, readBuffer)) > 0) {
+                final int encoded = encodeBase64UrlEncoded(readBuffer, read, encodeBuffer);
+                output.write(encodeBuffer, 0, encoded);
+                digest.update(encodeBuffer, 0, encoded);
             }
+        } finally {
+            input.close();
+        }
+
+        writeAndDigest(requestData.substring(placeholderIndex + placeholder.length()), output, digest);
+
+        digest.update(String.valueOf(salt).getBytes("UTF-8"));
+        output.write(("&checksum256=" + UtilsNetworking.bytesToHex(digest.digest())).getBytes("UTF-8"));
+        output.flush();
+    }
+
+    private static void writeAndDigest(final String data, final OutputStream output, final MessageDigest digest) throws IOException {
+        final byte[] bytes = data.getBytes("UTF-8");
+        output.write(bytes);
+        digest.update(bytes);
+    }
+
+    /**
+     * Reads until the buffer is full or the stream has ended
+     *
+     * @return amount of bytes read, 0 at the end of the stream
+     */
+    private static int readFully(final FileInputStream input, final byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            final int read = input.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static final byte[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    /**
+     * Encodes the bytes to Base64 and url encodes the result, without line breaks
+     *
+     * @return amount of bytes written to the output
+     */
+    static int encodeBase64UrlEncoded(final byte[] input, final int length, final byte[] output) {
+        int position = 0;
+        for (int i = 0; i < length; i += 3) {
+            final int b0 = input[i] & 0xFF;
+            final int b1 = i + 1 < length ? input[i + 1] & 0xFF : 0;
+            final int b2 = i + 2 < length ? input[i + 2] & 0xFF : 0;
+
+            position = putUrlEncoded(output, position, BASE64_CHARS[b0 >>> 2]);
+            position = putUrlEncoded(output, position, BASE64_CHARS[((b0 & 0x03) << 4) | (b1 >>> 4)]);
+            position = putUrlEncoded(output, position, i + 1 < length ? BASE64_CHARS[((b1 & 0x0F) << 2) | (b2 >>> 6)] : (byte) '=');
+            position = putUrlEncoded(output, position, i + 2 < length ? BASE64_CHARS[b2 & 0x3F] : (byte) '=');
+        }
+        return position;
+    }
+
+    private static int putUrlEncoded(final byte[] output, int position, final byte c) {
+        if (c == '+') {
+            output[position++] = '%';
+            output[position++] = '2';
+            output[position++] = 'B';
+        } else if (c == '/') {
+            output[position++] = '%';
+            output[position++] = '2';
+            output[position++] = 'F';
+        } else if (c == '=') {
+            output[position++] = '%';
+            output[position++] = '3';
+            output[position++] = 'D';
+        } else {
+            output[position++] = c;
+        }
+        return position;
+    }
+
+    private void onRequestDelivered() {
+        if (retryScheduler_ != null) {
+            retryScheduler_.onSuccess();
+        }
+    }
+
+    private void onRequestFailed() {
+        if (retryScheduler_ != null) {
+            retryScheduler_.onFailure();
+        }
+    }
+
+    /**
+     * Compresses the data with gzip while it's written into the stream, then closes the stream
+     *
+     * @return amount of bytes written into the stream
+     */
+    static long writeCompressed(final String data, final OutputStream output) throws IOException {
+        CountingOutputStream os = new CountingOutputStream(output);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(os), "UTF-8"));
+        writer.write(data);
+        writer.close();
+        return os.count;
+    }
+
+    /**
+     * Counts the bytes that are written through it
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
     }
 
@@ -23,11 +23,10 @@ package ly.count.android.sdk;
 
 import android.content.Context;
 import android.util.Log;
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -45,6 +44,7 @@ import javax.net.ssl.TrustManager;
 public class ConnectionQueue {
     private CountlyStore store_;
     private ExecutorService executor_;
+    private SdkScheduler scheduler_;
     private String appKey_;
     private Context context_;
     private String serverURL_;
@@ -55,6 +55,15 @@ public class ConnectionQueue {
     private Map<String, String> requestHeaderCustomValues;
     Map<String, String> metricOverride = null;
 
+    private int bulkMaxRequests_ = 0;
+    private int bulkMaxBytes_ = 0;
+
+    private RetryScheduler retryScheduler_ = null;
+
+    private boolean requestCompressionEnabled_ = false;
+    private CountlyTransport transport_ = null;
+    final RequestCompressionStats compressionStats = new RequestCompressionStats();
+
     public ModuleLog L;
 
     // Getters are for unit testing
@@ -100,6 +109,14 @@ public class ConnectionQueue {
 
     void setCountlyStore(final CountlyStore countlyStore) {
         store_ = countlyStore;
+        retryScheduler_ = null;
+    }
+
+    RetryScheduler getRetryScheduler() {
+        if (retryScheduler_ == null) {
+            retryScheduler_ = new RetryScheduler(store_, L);
+        }
+        return retryScheduler_;
     }
 
     DeviceId getDeviceId() {
@@ -114,6 +131,22 @@ public class ConnectionQueue {
         requestHeaderCustomValues = headerCustomValues;
     }
 
+    void setBulkUpload(final int maxRequests, final int maxBytes) {
+        bulkMaxRequests_ = maxRequests;
+        bulkMaxBytes_ = maxBytes;
+        if (store_ != null) {
+            store_.setMaxRequestsInFlight(maxRequests);
+        }
+    }
+
+    void setRequestCompressionEnabled(final boolean enabled) {
+        requestCompressionEnabled_ = enabled;
+    }
+
+    void setTransport(final CountlyTransport transport) {
+        transport_ = transport;
+    }
+
     protected void setMetricOverride(Map<String, String> metricOverride) {
         if (L.logEnabled()) {
             if(metricOverride != null) {
@@ -167,7 +200,7 @@ public class ConnectionQueue {
         if (Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.sessions)) {
             //add session data if consent given
             data += "&begin_session=1"
-                + "&metrics=" + DeviceInfo.getMetrics(context_, metricOverride);//can be only sent with begin session
+                + "&metrics=" + DeviceContextCache.forContext(context_).getMetrics(metricOverride);//can be only sent with begin session
 
             String locationData = prepareLocationData(locationDisabled, locationCountryCode, locationCity, locationGpsCoordinates, locationIpAddress);
             if (!locationData.isEmpty()) {
@@ -278,8 +311,7 @@ public class ConnectionQueue {
         L.d("[Connection Queue] Waiting for 10 seconds before adding token request to queue");
 
         // To ensure begin_session will be fully processed by the server before token_session
-        final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
-        worker.schedule(new Runnable() {
+        getScheduler().schedule(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
             @Override
             public void run() {
                 L.d("[Connection Queue] Finished waiting 10 seconds adding token request");
@@ -395,15 +427,16 @@ public class ConnectionQueue {
     /**
      * Reports a crash with device data to the server.
      *
+     * @return timestamp of the queued request, 0 if nothing was queued
      * @throws IllegalStateException if context, app key, store, or server URL have not been set
      */
-    void sendCrashReport(String error, boolean nonfatal, boolean isNativeCrash, final Map<String, Object> customSegmentation) {
+    long sendCrashReport(String error, boolean nonfatal, boolean isNativeCrash, final Map<String, Object> customSegmentation) {
         checkInternalState();
         L.d("[Connection Queue] sendCrashReport");
 
         if (!Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.crashes)) {
             L.d("[Connection Queue] request ignored, consent not given");
-            return;
+            return 0;
         }
 
         //limit the size of the crash report to 20k characters
@@ -411,11 +444,60 @@ public class ConnectionQueue {
             error = error.substring(0, Math.min(20000, error.length()));
         }
 
-        final String data = prepareCommonRequestData()
+        final UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        final String data = prepareCommonRequestData(instant)
             + "&crash=" + UtilsNetworking.urlEncodeString(CrashDetails.getCrashData(context_, error, nonfatal, isNativeCrash, customSegmentation));
 
         store_.addConnection(data);
 
+        tick();
+        return instant.timestampMs;
+    }
+
+    /**
+     * Queues a crash report for an uncaught crash of a previous run that was written into the crash journal.
+     * The request gets the time of the crash.
+     *
+     * @param logs breadcrumbs of the run that crashed
+     */
+    void sendJournaledCrashReport(final CrashJournal.Record record, final String logs) {
+        checkInternalState();
+        L.d("[Connection Queue] sendJournaledCrashReport");
+
+        if (!Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.crashes)) {
+            L.d("[Connection Queue] request ignored, consent not given");
+            return;
+        }
+
+        final String data = prepareCommonRequestData(UtilsTime.Instant.get(record.timestamp))
+            + "&crash=" + UtilsNetworking.urlEncodeString(CrashDetails.getJournaledCrashData(context_, record, logs));
+
+        store_.addConnection(data);
+
+        tick();
+    }
+
+    /**
+     * Queues a crash report for a native crash dump. Only the path of the dump is stored,
+     * the dump is read and encoded while the request is sent.
+     *
+     * @param dumpFile native crash dump, it's deleted after the request is sent
+     */
+    void sendNativeCrashDump(final File dumpFile) {
+        checkInternalState();
+        L.d("[Connection Queue] sendNativeCrashDump");
+
+        if (!Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.crashes)) {
+            L.d("[Connection Queue] request ignored, consent not given");
+            return;
+        }
+
+        final String data = prepareCommonRequestData()
+            + "&crash=" + UtilsNetworking.urlEncodeString(CrashDetails.getCrashData(context_, CrashDetails.nativeDumpPlaceholder, false, true, null))
+            + "&" + CrashDetails.nativeDumpPathKey + "=" + UtilsNetworking.urlEncodeString(dumpFile.getAbsolutePath());
+
+        store_.addConnection(data);
+
         tick();
     }
 
@@ -433,10 +515,12 @@ public class ConnectionQueue {
         ///CONSENT FOR EVENTS IS CHECKED ON EVENT CREATION//
         ////////////////////////////////////////////////////
 
-        final String data = prepareCommonRequestData()
-            + "&events=" + events;
+        //the event batch can be large, the request is built in a buffer of the final size to avoid copying it while growing
+        final String commonData = prepareCommonRequestData();
+        final StringBuilder data = new StringBuilder(commonData.length() + 8 + events.length());
+        data.append(commonData).append("&events=").append(events);
 
-        store_.addConnection(data);
+        store_.addConnection(data.toString());
         tick();
     }
 
@@ -503,6 +587,41 @@ public class ConnectionQueue {
         tick();
     }
 
+    void sendAPMNetworkTraceSummary(NetworkTraceAggregator.TraceSummary summary) {
+        checkInternalState();
+
+        L.d("[Connection Queue] sendAPMNetworkTraceSummary, traces:[" + summary.count() + "]");
+
+        if (!Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.apm)) {
+            L.d("[Connection Queue] request ignored, consent not given");
+            return;
+        }
+
+        // same as a single network trace, the metrics hold the averages and the percentiles of the summarized traces
+        // &apm={"type":"network","name":"/count.ly/about","apm_metrics":{"response_time":1330, ..., "response_time_p90":2000}, "stz": 1584698900, "etz": 1584699900}
+        // &timestamp=1584698900&count=20
+
+        String apmMetrics = "{\"response_time\": " + summary.responseTime.mean()
+            + ", \"response_payload_size\":" + summary.responsePayloadSize.mean()
+            + ", \"response_code\":" + summary.dominantResponseCode()
+            + ", \"request_payload_size\":" + summary.requestPayloadSize.mean()
+            + ", \"response_time_p50\":" + summary.responseTime.percentile(0.5)
+            + ", \"response_time_p90\":" + summary.responseTime.percentile(0.9)
+            + ", \"response_time_p99\":" + summary.responseTime.percentile(0.99)
+            + ", \"response_time_max\":" + summary.responseTime.max
+            + ", \"response_payload_size_p90\":" + summary.responsePayloadSize.percentile(0.9)
+            + ", \"request_payload_size_p90\":" + summary.requestPayloadSize.percentile(0.9) + "}";
+        String apmData = "{\"type\":\"network\",\"name\":\"" + summary.traceKey + "\", \"apm_metrics\":" + apmMetrics + ", \"stz\": " + summary.startMs + ", \"etz\": " + summary.endMs + "}";
+
+        final String data = prepareCommonRequestData()
+            + "&count=" + summary.count()
+            + "&apm=" + UtilsNetworking.urlEncodeString(apmData);
+
+        store_.addConnection(data);
+
+        tick();
+    }
+
     void sendAPMAppStart(long durationMs, Long startMs, Long endMs) {
         checkInternalState();
 
@@ -550,8 +669,10 @@ public class ConnectionQueue {
     }
 
     String prepareCommonRequestData() {
-        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        return prepareCommonRequestData(UtilsTime.getCurrentInstant());
+    }
 
+    String prepareCommonRequestData(UtilsTime.Instant instant) {
         return "app_key=" + UtilsNetworking.urlEncodeString(appKey_)
             + "&timestamp=" + instant.timestampMs
             + "&hour=" + instant.hour
@@ -599,7 +720,7 @@ public class ConnectionQueue {
 
         if (Countly.sharedInstance().consent().getConsent(Countly.CountlyFeatureNames.sessions)) {
             //add session data if consent given
-            data += "&metrics=" + DeviceInfo.getMetrics(context_, metricOverride);
+            data += "&metrics=" + DeviceContextCache.forContext(context_).getMetrics(metricOverride);
         }
 
         //add key filters
@@ -632,10 +753,24 @@ public class ConnectionQueue {
      */
     void ensureExecutor() {
         if (executor_ == null) {
-            executor_ = Executors.newSingleThreadExecutor();
+            executor_ = getScheduler().executor(SdkScheduler.Lane.UPLOAD);
         }
     }
 
+    /**
+     * Returns the scheduler set by Countly, or a scheduler of its own if there is none
+     */
+    SdkScheduler getScheduler() {
+        if (scheduler_ == null) {
+            scheduler_ = new SdkScheduler();
+        }
+        return scheduler_;
+    }
+
+    void setScheduler(final SdkScheduler scheduler) {
+        scheduler_ = scheduler;
+    }
+
     /**
      * Starts ConnectionProcessor instances running in the background to
      * process the local connection queue data.
@@ -643,30 +778,40 @@ public class ConnectionQueue {
      * is already running.
      */
     void tick() {
+        if (store_.isRequestLogPending()) {
+            //stored requests are sent in order, so nothing is sent until they are loaded
+            L.v("[Connection Queue] tick, request log is not loaded yet");
+            return;
+        }
+
         L.v("[Connection Queue] tick, Not empty:[" + !store_.isEmptyConnections() + "], Has processor:[" + (connectionProcessorFuture_ == null) + "], Done or null:[" + (connectionProcessorFuture_ == null
             || connectionProcessorFuture_.isDone()) + "]");
 
         if (!store_.isEmptyConnections() && (connectionProcessorFuture_ == null || connectionProcessorFuture_.isDone())) {
+            if (!getRetryScheduler().canSend()) {
+                // previous requests failed, the processor is started by a tick after the backoff has passed
+                L.v("[Connection Queue] Backing off, next attempt in [" + getRetryScheduler().remainingDelay() + "] ms");
+                return;
+            }
+
             ensureExecutor();
             connectionProcessorFuture_ = executor_.submit(createConnectionProcessor());
         }
     }
 
     public ConnectionProcessor createConnectionProcessor() {
-        return new ConnectionProcessor(getServerURL(), store_, deviceId_, sslContext_, requestHeaderCustomValues, L);
+        ConnectionProcessor cp = new ConnectionProcessor(getServerURL(), store_, deviceId_, sslContext_, requestHeaderCustomValues, L);
+        cp.setBulkUpload(bulkMaxRequests_, bulkMaxBytes_);
+        cp.setRetryScheduler(getRetryScheduler());
+        cp.setTransport(transport_);
+        if (requestCompressionEnabled_) {
+            cp.setRequestCompression(compressionStats);
+        }
+        return cp;
     }
 
     public boolean queueContainsTemporaryIdItems() {
-        String[] storedRequests = getCountlyStore().connections();
-        String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
-
-        for (String storedRequest : storedRequests) {
-            if (storedRequest.contains(temporaryIdTag)) {
-                return true;
-            }
-        }
-
-        return false;
+        return getCountlyStore().containsTemporaryIdRequests();
     }
 
     // for unit testing
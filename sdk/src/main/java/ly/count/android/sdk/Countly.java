@@ -39,7 +39,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -128,6 +127,9 @@ public class Countly {
     }
 
     ConnectionQueue connectionQueue_;
+    //runs all background work of the SDK
+    final SdkScheduler scheduler_;
+    final InitTimings initTimings = new InitTimings();
     private final ScheduledExecutorService timerService_;
     private ScheduledFuture<?> timerFuture = null;
     EventQueue eventQueue_;
@@ -255,12 +257,14 @@ public class Countly {
      * Creates a new ConnectionQueue and initializes the session timer.
      */
     Countly() {
-        timerService_ = Executors.newSingleThreadScheduledExecutor();
+        scheduler_ = new SdkScheduler();
+        timerService_ = scheduler_.timer();
         staticInit();
     }
 
     private void staticInit() {
         connectionQueue_ = new ConnectionQueue();
+        connectionQueue_.setScheduler(scheduler_);
         Countly.userData = new UserData(connectionQueue_);
         startTimerService(timerService_, timerFuture, TIMER_DELAY_IN_SECONDS);
     }
@@ -393,6 +397,8 @@ public class Countly {
             throw new IllegalArgumentException("Can't init SDK with 'null' config");
         }
 
+        final long initStart = System.nanoTime();
+
         //enable logging
         if (config.loggingEnabled) {
             //enable logging before any potential logging calls
@@ -492,6 +498,8 @@ public class Countly {
         // so there is nothing to do, because we are already initialized with those values
         if (eventQueue_ == null) {
             L.d("[Init] About to init internal systems");
+            initTimings.clear();
+            long stageStart = initTimings.record(InitTimings.CHECKS, initStart);
 
             config_ = config;
 
@@ -505,9 +513,15 @@ public class Countly {
                 //we are running a test and using a mock object
                 countlyStore = config.countlyStore;
             } else {
-                countlyStore = new CountlyStore(config.context, L);
+                //with asynchronous init the request log is loaded later in the background
+                countlyStore = new CountlyStore(config.context, L, config.asyncInit);
                 config.setCountlyStore(countlyStore);
             }
+            stageStart = initTimings.record(InitTimings.STORAGE, stageStart);
+
+            if (config.maxRequestQueueBytes != null) {
+                countlyStore.setMaxRequestBytes(config.maxRequestQueueBytes);
+            }
 
             //check legacy access methods
             if (locationFallback != null && config.locationCountyCode == null && config.locationCity == null && config.locationLocation == null && config.locationIpAddress == null) {
@@ -546,6 +560,7 @@ public class Countly {
             modules.add(moduleFeedback);
 
             L.i("[Init] Finished initialising modules");
+            stageStart = initTimings.record(InitTimings.MODULES, stageStart);
 
             //init other things
             L.d("[Init] Currently cached advertising ID [" + countlyStore.getCachedAdvertisingId() + "]");
@@ -590,9 +605,14 @@ public class Countly {
             connectionQueue_.setRequestHeaderCustomValues(requestHeaderCustomValues);
             connectionQueue_.setMetricOverride(config.metricOverride);
             connectionQueue_.setContext(context_);
+            connectionQueue_.setBulkUpload(config.bulkUploadMaxRequests, config.bulkUploadMaxBytes);
+            connectionQueue_.setRequestCompressionEnabled(config.requestCompressionEnabled);
+            connectionQueue_.setTransport(config.transport);
 
             eventQueue_ = new EventQueue(countlyStore);
+            eventQueue_.setAggregationWindow(config.eventAggregationWindowMs);
             //AFTER THIS POINT THE SDK IS COUNTED AS INITIALISED
+            stageStart = initTimings.record(InitTimings.SETUP, stageStart);
 
             //set global application listeners
             if (config.application != null) {
@@ -684,9 +704,39 @@ public class Countly {
                 for (ModuleBase module : modules) {
                     module.initFinished(config);
                 }
+                stageStart = initTimings.record(InitTimings.INIT_FINISHED, stageStart);
+
+                if (!config.asyncInit) {
+                    for (ModuleBase module : modules) {
+                        module.initStateLoaded(config);
+                    }
+                    initTimings.record(InitTimings.STATE_LOADED, stageStart);
+                }
 
                 L.i("[Init] Finished initialising SDK");
             }
+
+            if (config.asyncInit) {
+                final CountlyConfig initConfig = config;
+                final boolean notifyModules = config.application != null;
+                scheduler_.submit(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+                    @Override
+                    public void run() {
+                        loadStoredState(countlyStore, initConfig, notifyModules);
+                    }
+                });
+            }
+
+            //read the device information before the first session or crash needs it
+            final DeviceContextCache deviceContext = DeviceContextCache.forContext(context_);
+            scheduler_.submit(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+                @Override
+                public void run() {
+                    deviceContext.warmUp();
+                }
+            });
+
+            initTimings.record(InitTimings.INIT, initStart);
         } else {
             //if this is not the first time we are calling init
 
@@ -697,6 +747,51 @@ public class Countly {
         return this;
     }
 
+    /**
+     * Second stage of asynchronous init. Loads the stored requests and then lets the modules do
+     * the work that needs the stored state.
+     */
+    void loadStoredState(final CountlyStore countlyStore, final CountlyConfig config, final boolean notifyModules) {
+        L.d("[Init] Loading stored state");
+        long stageStart = System.nanoTime();
+        countlyStore.loadRequestLog();
+        stageStart = initTimings.record(InitTimings.REQUEST_LOG, stageStart);
+
+        synchronized (this) {
+            if (connectionQueue_ == null || connectionQueue_.getCountlyStore() != countlyStore) {
+                //halted while loading
+                return;
+            }
+
+            //stored requests could have been made with the temporary ID before the real one was set
+            final DeviceId deviceId = connectionQueue_.getDeviceId();
+            if (deviceId != null && !deviceId.temporaryIdModeEnabled() && deviceId.getId() != null && countlyStore.containsTemporaryIdRequests()) {
+                int replaced = countlyStore.replaceTemporaryDeviceId(deviceId.getId());
+                L.d("[Init] Replaced the temporary ID in [" + replaced + "] loaded requests");
+            }
+
+            if (notifyModules) {
+                for (ModuleBase module : modules) {
+                    module.initStateLoaded(config);
+                }
+            }
+            initTimings.record(InitTimings.STATE_LOADED, stageStart);
+            L.i("[Init] Finished loading stored state");
+
+            connectionQueue_.tick();
+        }
+    }
+
+    /**
+     * Returns how long the stages of the last init took, in microseconds, in the order they finished.
+     * With asynchronous init the stages that are done in the background are added when they finish.
+     *
+     * @return stage names and their durations
+     */
+    public Map<String, Long> getInitTimings() {
+        return initTimings.durations();
+    }
+
     /**
      * Checks whether Countly.init has been already called.
      *
@@ -738,6 +833,8 @@ public class Countly {
         }
         modules.clear();
 
+        scheduler_.halt();
+
         moduleCrash = null;
         moduleViews = null;
         moduleEvents = null;
@@ -852,6 +949,8 @@ public class Countly {
             throw new IllegalStateException("init must be called before onConfigurationChanged");
         }
 
+        DeviceContextCache.configurationChanged();
+
         for (ModuleBase module : modules) {
             module.onConfigurationChanged(newConfig);
         }
@@ -1295,7 +1394,10 @@ public class Countly {
 
                     //check if it passes the crash filter
                     if (!moduleCrash.crashFilterCheck(exceptionString)) {
-                        Countly.sharedInstance().connectionQueue_.sendCrashReport(exceptionString, false, false, null);
+                        //the crash is written straight to disk and sent on the next launch
+                        if (!moduleCrash.journalCrash(exceptionString)) {
+                            Countly.sharedInstance().connectionQueue_.sendCrashReport(exceptionString, false, false, null);
+                        }
                     }
                 }
 
@@ -1548,6 +1650,8 @@ public class Countly {
                 }
             }
 
+            moduleAPM.flushNetworkTraceSummaries(false);
+
             connectionQueue_.tick();
         }
     }
@@ -2441,20 +2545,8 @@ public class Countly {
             throw new IllegalStateException("Countly.sharedInstance().init must be called before flushRequestQueues");
         }
 
-        CountlyStore store = connectionQueue_.getCountlyStore();
-
-        int count = 0;
-
-        while (true) {
-            final String[] storedEvents = store.connections();
-            if (storedEvents == null || storedEvents.length == 0) {
-                // currently no data to send, we are done for now
-                break;
-            }
-            //remove stored data
-            store.removeConnection(storedEvents[0]);
-            count++;
-        }
+        //all requests are removed at once, with a single write
+        int count = connectionQueue_.getCountlyStore().clearRequests();
 
         L.d("[Countly] flushRequestQueues removed [" + count + "] requests");
     }
@@ -2483,11 +2575,9 @@ public class Countly {
             return;
         }
 
-        List<String> filteredRequests = requestQueueReplaceWithAppKey(connectionQueue_.getCountlyStore().connections(), connectionQueue_.getAppKey());
-        if (filteredRequests != null) {
-            connectionQueue_.getCountlyStore().replaceConnectionsList(filteredRequests);
-            doStoredRequests();
-        }
+        int replaced = connectionQueue_.getCountlyStore().replaceRequestsAppKey(connectionQueue_.getAppKey());
+        L.d("[Countly] requestQueueOverwriteAppKeys replaced the app key of [" + replaced + "] requests");
+        doStoredRequests();
     }
 
     /**
@@ -2501,8 +2591,8 @@ public class Countly {
             return;
         }
 
-        List<String> filteredRequests = requestQueueRemoveWithoutAppKey(connectionQueue_.getCountlyStore().connections(), connectionQueue_.getAppKey());
-        connectionQueue_.getCountlyStore().replaceConnectionsList(filteredRequests);
+        int removed = connectionQueue_.getCountlyStore().removeRequestsWithoutAppKey(connectionQueue_.getAppKey());
+        L.d("[Countly] requestQueueEraseAppKeysRequests removed [" + removed + "] requests");
         doStoredRequests();
     }
 
@@ -2515,39 +2605,14 @@ public class Countly {
                 return filteredRequests;
             }
 
-            String replacementPart = "app_key=" + UtilsNetworking.urlEncodeString(targetAppKey);
+            String encodedAppKey = UtilsNetworking.urlEncodeString(targetAppKey);
 
             for (int a = 0; a < storedRequests.length; a++) {
                 if (storedRequests[a] == null) {
                     continue;
                 }
 
-                boolean found = false;
-                String[] parts = storedRequests[a].split("&");
-
-                for (int b = 0; b < parts.length; b++) {
-                    if (parts[b].contains("app_key=")) {
-                        parts[b] = replacementPart;
-                        found = true;
-                        break;
-                    }
-                }
-
-                if (found) {
-                    //recombine and add
-                    StringBuilder stringBuilder = new StringBuilder(storedRequests[a].length());
-
-                    for (int c = 0; c < parts.length; c++) {
-                        if (c != 0) {
-                            stringBuilder.append("&");
-                        }
-                        stringBuilder.append(parts[c]);
-                    }
-                    filteredRequests.add(stringBuilder.toString());
-                } else {
-                    //pass through the old one
-                    filteredRequests.add(storedRequests[a]);
-                }
+                filteredRequests.add(StoredRequest.parse(storedRequests[a]).withAppKey(encodedAppKey).render());
             }
 
             return filteredRequests;
@@ -2567,14 +2632,14 @@ public class Countly {
             return filteredRequests;
         }
 
-        String searchablePart = "app_key=" + targetAppKey;
+        String encodedAppKey = UtilsNetworking.urlEncodeString(targetAppKey);
 
         for (int a = 0; a < storedRequests.length; a++) {
             if (storedRequests[a] == null) {
                 continue;
             }
 
-            if (!storedRequests[a].contains(searchablePart)) {
+            if (!encodedAppKey.equals(StoredRequest.parse(storedRequests[a]).appKey)) {
                 L.d("[requestQueueEraseAppKeysRequests] Found a entry to remove: [" + storedRequests[a] + "]");
             } else {
                 filteredRequests.add(storedRequests[a]);
@@ -2641,6 +2706,19 @@ public class Countly {
         return moduleSessions.sessionInterface;
     }
 
+    /**
+     * Returns the counters of the request body compression, see {@link CountlyConfig#enableRequestCompression()}
+     *
+     * @return
+     */
+    public RequestCompressionStats requestCompressionStats() {
+        if (!isInitialized()) {
+            throw new IllegalStateException("Countly.sharedInstance().init must be called before accessing request compression stats");
+        }
+
+        return connectionQueue_.compressionStats;
+    }
+
     public ModuleRemoteConfig.RemoteConfig remoteConfig() {
         if (!isInitialized()) {
             throw new IllegalStateException("Countly.sharedInstance().init must be called before accessing remote config");
@@ -2681,6 +2759,13 @@ public class Countly {
         return moduleFeedback.feedbackInterface;
     }
 
+    /**
+     * Scheduler that runs the background work of the SDK, also available before init
+     */
+    public SdkScheduler scheduler() {
+        return scheduler_;
+    }
+
     public static void applicationOnCreate() {
     }
 
@@ -154,6 +154,36 @@ public class CountlyConfig {
 
     ModuleLog.LogCallback providedLogCallback;
 
+    int bulkUploadMaxRequests = 0;
+
+    int bulkUploadMaxBytes = 0;
+
+    boolean requestCompressionEnabled = false;
+
+    CountlyTransport transport = null;
+
+    int eventIngestionBufferCapacity = 0;
+
+    BackPressurePolicy eventIngestionPolicy = BackPressurePolicy.DROP_OLDEST;
+
+    long eventIngestionBlockTimeoutMs = 0;
+
+    long eventAggregationWindowMs = 0;
+
+    Long maxRequestQueueBytes = null;
+
+    long networkTraceAggregationIntervalMs = 0;
+
+    boolean asyncInit = false;
+
+    int crashDeduplicationMaxReports = 0;
+
+    long crashDeduplicationIntervalMs = 0;
+
+    int crashRateLimitMaxReports = 0;
+
+    long crashRateLimitIntervalMs = 0;
+
     public CountlyConfig() {
     }
 
@@ -570,4 +600,137 @@ public class CountlyConfig {
         providedLogCallback = logCallback;
         return this;
     }
+
+    /**
+     * Send multiple stored requests together in a single request to the "/i/bulk" endpoint.
+     * Requests that change the device ID are still sent on their own and in order.
+     *
+     * @param maxRequests the max amount of requests sent together, should be at least 2
+     * @param maxBytes the max combined length of the requests sent together
+     * @return
+     */
+    public synchronized CountlyConfig enableBulkUpload(int maxRequests, int maxBytes) {
+        bulkUploadMaxRequests = maxRequests;
+        bulkUploadMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Compress the bodies of requests sent with HTTP POST using gzip.
+     * Make sure that your server accepts requests with "Content-Encoding: gzip" before enabling this.
+     *
+     * @return
+     */
+    public synchronized CountlyConfig enableRequestCompression() {
+        requestCompressionEnabled = true;
+        return this;
+    }
+
+    /**
+     * Set the transport that is used to send requests to the server.
+     * By default the platform's HttpURLConnection is used.
+     *
+     * @param transport
+     * @return
+     */
+    public synchronized CountlyConfig setTransport(CountlyTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Record events on a background thread. Recorded events are put into a buffer
+     * and are stored by an SDK worker, so the calling thread does not wait for the storage.
+     *
+     * @param capacity the max amount of events waiting to be stored
+     * @param policy what to do when an event is recorded while the buffer is full
+     * @param blockTimeoutMs how long the calling thread may wait for room when using {@link BackPressurePolicy#BLOCK}
+     * @return
+     */
+    public synchronized CountlyConfig enableEventIngestionBuffer(int capacity, BackPressurePolicy policy, long blockTimeoutMs) {
+        eventIngestionBufferCapacity = capacity;
+        eventIngestionPolicy = policy;
+        eventIngestionBlockTimeoutMs = blockTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Merge custom events with the same key and segmentation that are recorded within the given window.
+     * The merged event has the summed count, sum and duration and the timestamp of the first event.
+     * Useful for counters that are recorded very often.
+     *
+     * @param windowMs length of the window in milliseconds
+     * @return
+     */
+    public synchronized CountlyConfig enableEventAggregation(long windowMs) {
+        eventAggregationWindowMs = windowMs;
+        return this;
+    }
+
+    /**
+     * Set the max combined size of the stored requests. When it is exceeded, stored requests are deleted
+     * starting with the least important ones, APM and event requests first, crash reports and device ID changes last.
+     * By default the limit is 2 MB.
+     *
+     * @param maxBytes size in bytes, 0 or less for no limit
+     * @return
+     */
+    public synchronized CountlyConfig setMaxRequestQueueBytes(long maxBytes) {
+        maxRequestQueueBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Collect network traces into summaries per trace key instead of sending a request for every trace.
+     * The summaries hold the average and percentiles of the response times and payload sizes
+     * and are sent after the given interval has passed and when the app goes to the background.
+     *
+     * @param flushIntervalMs how often the summaries are sent, in milliseconds
+     * @return
+     */
+    public synchronized CountlyConfig enableNetworkTraceAggregation(long flushIntervalMs) {
+        networkTraceAggregationIntervalMs = flushIntervalMs;
+        return this;
+    }
+
+    /**
+     * Finish init without waiting for the disk. Stored requests are loaded on a background thread,
+     * and work that needs stored state, like checking for native crash dumps, updating remote config
+     * and sending cached push actions, is done after that. Data recorded in the meantime is kept
+     * and sent after the stored requests.
+     * The duration of the init stages can be read with {@link Countly#getInitTimings()}.
+     *
+     * @return
+     */
+    public synchronized CountlyConfig enableAsyncInit() {
+        asyncInit = true;
+        return this;
+    }
+
+    /**
+     * Limit how often the same handled exception is reported. Exceptions are grouped by their stack traces,
+     * reports beyond the limit are dropped and their count is added to the last report of the same exception that was sent.
+     *
+     * @param maxReports how many reports of the same exception can be sent per interval
+     * @param intervalMs length of the interval in milliseconds
+     * @return
+     */
+    public synchronized CountlyConfig enableCrashDeduplication(int maxReports, long intervalMs) {
+        crashDeduplicationMaxReports = maxReports;
+        crashDeduplicationIntervalMs = intervalMs;
+        return this;
+    }
+
+    /**
+     * Limit how many handled exceptions are reported in total. Reports beyond the limit are dropped.
+     *
+     * @param maxReports how many reports can be sent per interval
+     * @param intervalMs length of the interval in milliseconds
+     * @return
+     */
+    public synchronized CountlyConfig setCrashReportRateLimit(int maxReports, long intervalMs) {
+        crashRateLimitMaxReports = maxReports;
+        crashRateLimitIntervalMs = intervalMs;
+        return this;
+    }
 }
@@ -23,12 +23,15 @@ package ly.count.android.sdk;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Base64;
 import android.util.Log;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import org.json.JSONException;
@@ -36,9 +39,16 @@ import org.json.JSONObject;
 
 /**
  * This class provides a persistence layer for the local event &amp; connection queues.
+ * Connections are kept in an append-only {@link RequestLog}, everything else in SharedPreferences.
+ * Events are persisted as Base64 encoded binary {@link EventRecord}s.
  *
  * The "read" methods in this class are not synchronized, because the underlying data store
- * provides thread-safe reads.  The "write" methods in this class are synchronized, because
+ * provides thread-safe reads. The only exception are the connection reads, because the request
+ * log is not thread-safe on it's own.
+ *
+ * The request log can be loaded after the store is created, see {@link #loadRequestLog()}.
+ * Until then added requests are kept in memory, and everything else that uses the stored
+ * requests waits for the loading to finish. The "write" methods in this class are synchronized, because
  * 1) they often read a list of items, modify the list, and then commit it back to the underlying
  * data store, and 2) while the Countly singleton is synchronized to ensure only a single writer
  * at a time from the public API side, the internal implementation has a background thread that
@@ -53,8 +63,11 @@ public class CountlyStore {
     private static final String DELIMITER = ":::";
     private static final String CONNECTIONS_PREFERENCE = "CONNECTIONS";
     private static final String EVENTS_PREFERENCE = "EVENTS";
+    private static final String EVENTS_SEQUENCE_PREFERENCE = "EVENTS_SEQUENCE";
     private static final String STAR_RATING_PREFERENCE = "STAR_RATING";
     private static final String CACHED_ADVERTISING_ID = "ADVERTISING_ID";
+    private static final String RETRY_ATTEMPTS = "RETRY_ATTEMPTS";
+    private static final String RETRY_NEXT_ATTEMPT = "RETRY_NEXT_ATTEMPT";
     private static final String REMOTE_CONFIG_VALUES = "REMOTE_CONFIG";
     private static final String CACHED_PUSH_ACTION_ID = "PUSH_ACTION_ID";
     private static final String CACHED_PUSH_ACTION_INDEX = "PUSH_ACTION_INDEX";
@@ -62,9 +75,39 @@ public class CountlyStore {
     private static final String CACHED_PUSH_MESSAGING_PROVIDER = "PUSH_MESSAGING_PROVIDER";
     private static final int MAX_EVENTS = 100;
     static int MAX_REQUESTS = 1000;//value is configurable for tests
+    static final long DEFAULT_MAX_REQUEST_BYTES = 2 * 1024 * 1024;
 
     private final SharedPreferences preferences_;
     private final SharedPreferences preferencesPush_;
+    private RequestLog requestLog_;
+    //directory of the request log that is not loaded yet, null once it's loaded
+    private File requestLogDirectory_ = null;
+    private boolean requestLogLoading_ = false;
+    private long maxRequestBytes_ = DEFAULT_MAX_REQUEST_BYTES;
+    //the most requests the connection processor sends at once, that many of the oldest requests could be in flight
+    private int maxRequestsInFlight_ = 1;
+
+    /**
+     * A stored event together with its sequence number.
+     * The event is kept as a binary {@link EventRecord} and as the Base64 string it is persisted as.
+     */
+    private static class StoredEvent {
+        final long seq;
+        final long timestamp;
+        final byte[] record;
+        final String encoded;
+
+        StoredEvent(long seq, long timestamp, byte[] record, String encoded) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.record = record;
+            this.encoded = encoded;
+        }
+    }
+
+    //stored events in the order they were added, loaded on first use
+    private List<StoredEvent> eventCache_ = null;
+    private long nextEventSeq_ = 0;
 
     private static final String CONSENT_GCM_PREFERENCES = "ly.count.android.api.messaging.consent.gcm";
 
@@ -76,12 +119,124 @@ public class CountlyStore {
      * @throws IllegalArgumentException if context is null
      */
     CountlyStore(final Context context, ModuleLog logModule) {
+        this(context, logModule, false);
+    }
+
+    /**
+     * @param deferRequestLog if true, the request log is not read from disk until {@link #loadRequestLog()} is called
+     */
+    CountlyStore(final Context context, ModuleLog logModule, final boolean deferRequestLog) {
         if (context == null) {
             throw new IllegalArgumentException("must provide valid context");
         }
         preferences_ = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
         preferencesPush_ = createPreferencesPush(context);
         L = logModule;
+
+        final File filesDir = context.getFilesDir();
+        final File directory = filesDir == null ? null : new File(filesDir, RequestLog.DIRECTORY_NAME);
+        if (deferRequestLog && directory != null) {
+            //requests added before loading are kept here and moved to the loaded log
+            requestLog_ = new RequestLog(null, L);
+            requestLogDirectory_ = directory;
+        } else {
+            requestLog_ = new RequestLog(directory, L);
+            migrateLegacyConnections(requestLog_);
+        }
+    }
+
+    /**
+     * Reads the request log from disk, if it was deferred when the store was created.
+     * Reading is done without holding the lock of the store, so requests can be added meanwhile.
+     * Requests that were added before loading are kept after the loaded ones.
+     */
+    void loadRequestLog() {
+        final File directory;
+        synchronized (this) {
+            if (requestLogDirectory_ == null || requestLogLoading_) {
+                return;
+            }
+            requestLogLoading_ = true;
+            directory = requestLogDirectory_;
+        }
+
+        final RequestLog loaded = new RequestLog(directory, L);
+
+        synchronized (this) {
+            finishLoadingRequestLog(loaded);
+        }
+    }
+
+    /**
+     * Returns true if the request log was deferred and is not loaded yet
+     */
+    synchronized boolean isRequestLogPending() {
+        return requestLogDirectory_ != null;
+    }
+
+    /**
+     * Waits until the request log is loaded. If nobody is loading it yet, it's loaded on the calling thread.
+     */
+    private void awaitRequestLog() {
+        if (requestLogDirectory_ == null) {
+            return;
+        }
+
+        if (!requestLogLoading_) {
+            requestLogLoading_ = true;
+            finishLoadingRequestLog(new RequestLog(requestLogDirectory_, L));
+            return;
+        }
+
+        boolean interrupted = false;
+        while (requestLogDirectory_ != null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finishLoadingRequestLog(final RequestLog loaded) {
+        migrateLegacyConnections(loaded);
+
+        final String[] added = requestLog_.requests();
+        for (String r : added) {
+            loaded.append(r);
+        }
+        L.d("[CountlyStore] Request log loaded, [" + added.length + "] requests were added before that");
+
+        requestLog_ = loaded;
+        requestLogDirectory_ = null;
+        requestLogLoading_ = false;
+        requestLog_.evict(MAX_REQUESTS, maxRequestBytes_);
+        notifyAll();
+    }
+
+    /**
+     * Requests used to be stored as a single delimited string in the preferences.
+     * If such a string is found, it's moved to the request log.
+     */
+    private void migrateLegacyConnections(final RequestLog requestLog) {
+        if (preferences_ == null || !preferences_.contains(CONNECTIONS_PREFERENCE)) {
+            return;
+        }
+
+        final String joinedConnStr = preferences_.getString(CONNECTIONS_PREFERENCE, "");
+        if (joinedConnStr.length() > 0) {
+            final String[] legacyConnections = joinedConnStr.split(DELIMITER);
+            L.d("[CountlyStore] Moving [" + legacyConnections.length + "] stored requests to the request log");
+
+            for (String c : legacyConnections) {
+                requestLog.append(c);
+            }
+        }
+
+        preferences_.edit().remove(CONNECTIONS_PREFERENCE).apply();
     }
 
     static SharedPreferences createPreferencesPush(Context context) {
@@ -89,53 +244,189 @@ public class CountlyStore {
     }
 
     /**
-     * Returns an unsorted array of the current stored connections.
+     * Returns an array of the current stored connections, from the oldest to the newest.
      */
-    public String[] connections() {
-        final String joinedConnStr = preferences_.getString(CONNECTIONS_PREFERENCE, "");
-        return joinedConnStr.length() == 0 ? new String[0] : joinedConnStr.split(DELIMITER);
+    public synchronized String[] connections() {
+        awaitRequestLog();
+        return requestLog_.requests();
     }
 
     /**
-     * Returns an unsorted array of the current stored event JSON strings.
+     * Returns an array of the current stored event JSON strings, in the order they were added.
      */
-    public String[] events() {
-        final String joinedEventsStr = preferences_.getString(EVENTS_PREFERENCE, "");
-        return joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
+    public synchronized String[] events() {
+        final List<StoredEvent> cache = eventCache();
+        final List<String> res = new ArrayList<>(cache.size());
+        final StringBuilder sb = new StringBuilder();
+        for (StoredEvent se : cache) {
+            sb.setLength(0);
+            if (EventRecord.writeJSON(se.record, sb)) {
+                res.add(sb.toString());
+            }
+        }
+        return res.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the amount of current stored events.
+     */
+    synchronized int eventsCount() {
+        return eventCache().size();
     }
 
     /**
      * Returns a list of the current stored events, sorted by timestamp from oldest to newest.
      */
-    public List<Event> eventsList() {
-        final String[] array = events();
-        final List<Event> events = new ArrayList<>(array.length);
-        for (String s : array) {
-            try {
-                final Event event = Event.fromJSON(new JSONObject(s));
-                if (event != null) {
-                    events.add(event);
-                }
-            } catch (JSONException ignored) {
-                // should not happen since JSONObject is being constructed from previously stringified JSONObject
-                // events -> json objects -> json strings -> storage -> json strings -> here
+    public synchronized List<Event> eventsList() {
+        return eventsUpTo(lastEventSeq());
+    }
+
+    /**
+     * Returns the sequence number of the newest stored event.
+     * If there are no stored events, the returned value is lower than the sequence number of the next one.
+     */
+    synchronized long lastEventSeq() {
+        eventCache();
+        return nextEventSeq_ - 1;
+    }
+
+    /**
+     * Returns the stored events up to and including the given sequence number,
+     * sorted by timestamp from oldest to newest.
+     *
+     * @param seq sequence number of the newest event to return
+     */
+    synchronized List<Event> eventsUpTo(final long seq) {
+        final List<byte[]> records = eventRecordsUpTo(seq);
+        final List<Event> events = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            final Event event = EventRecord.decode(record);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Returns the binary records of the stored events up to and including the given sequence number,
+     * sorted by timestamp from oldest to newest.
+     * They can be written into the upload JSON with {@link EventRecord#writeJSON(byte[], StringBuilder)}.
+     *
+     * @param seq sequence number of the newest event to return
+     */
+    synchronized List<byte[]> eventRecordsUpTo(final long seq) {
+        final List<StoredEvent> cache = eventCache();
+        final List<StoredEvent> selected = new ArrayList<>(cache.size());
+        for (StoredEvent se : cache) {
+            if (se.seq > seq) {
+                break;
             }
+            selected.add(se);
         }
+
         // order the events from least to most recent
-        Collections.sort(events, new Comparator<Event>() {
+        Collections.sort(selected, new Comparator<StoredEvent>() {
             @Override
-            public int compare(final Event e1, final Event e2) {
-                return (int) (e1.timestamp - e2.timestamp);
+            public int compare(final StoredEvent e1, final StoredEvent e2) {
+                return e1.timestamp < e2.timestamp ? -1 : (e1.timestamp == e2.timestamp ? 0 : 1);
             }
         });
-        return events;
+
+        final List<byte[]> records = new ArrayList<>(selected.size());
+        for (StoredEvent se : selected) {
+            records.add(se.record);
+        }
+        return records;
+    }
+
+    /**
+     * Removes the stored events up to and including the given sequence number.
+     * Events that were added after that are kept.
+     *
+     * @param seq sequence number of the newest event to remove
+     */
+    synchronized void removeEventsUpTo(final long seq) {
+        final List<StoredEvent> cache = eventCache();
+
+        int amount = 0;
+        while (amount < cache.size() && cache.get(amount).seq <= seq) {
+            amount++;
+        }
+
+        if (amount > 0) {
+            cache.subList(0, amount).clear();
+            writeEvents();
+        }
+    }
+
+    /**
+     * Returns the stored events in the order they were added.
+     * They are loaded only once, the first time they are needed.
+     * Events that were stored as JSON by older SDK versions are converted to binary records.
+     */
+    private List<StoredEvent> eventCache() {
+        if (eventCache_ != null) {
+            return eventCache_;
+        }
+
+        final String joinedEventsStr = preferences_.getString(EVENTS_PREFERENCE, "");
+        final String[] array = joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
+        long seq = preferences_.getLong(EVENTS_SEQUENCE_PREFERENCE, 0);
+
+        eventCache_ = new ArrayList<>(array.length);
+        for (String s : array) {
+            if (s.startsWith("{")) {
+                // stored as JSON by an older SDK version
+                try {
+                    final Event event = Event.fromJSON(new JSONObject(s));
+                    if (event != null) {
+                        eventCache_.add(createStoredEvent(seq++, event));
+                    }
+                } catch (JSONException ignored) {
+                    // should not happen since JSONObject is being constructed from previously stringified JSONObject
+                    // events -> json objects -> json strings -> storage -> json strings -> here
+                }
+            } else {
+                try {
+                    final byte[] record = Base64.decode(s, Base64.NO_WRAP);
+                    eventCache_.add(new StoredEvent(seq++, EventRecord.readTimestamp(record), record, s));
+                } catch (IllegalArgumentException e) {
+                    L.w("[CountlyStore] Dropping a stored event that could not be read", e);
+                }
+            }
+        }
+        nextEventSeq_ = seq;
+
+        return eventCache_;
+    }
+
+    private static StoredEvent createStoredEvent(final long seq, final Event event) {
+        final byte[] record = EventRecord.encode(event);
+        return new StoredEvent(seq, event.timestamp, record, Base64.encodeToString(record, Base64.NO_WRAP));
+    }
+
+    /**
+     * Writes the cached events to the preferences, together with the sequence number of the oldest one
+     */
+    private void writeEvents() {
+        final List<String> strings = new ArrayList<>(eventCache_.size());
+        for (StoredEvent se : eventCache_) {
+            strings.add(se.encoded);
+        }
+
+        preferences_.edit()
+            .putString(EVENTS_PREFERENCE, join(strings, DELIMITER))
+            .putLong(EVENTS_SEQUENCE_PREFERENCE, nextEventSeq_ - eventCache_.size())
+            .apply();
     }
 
     /**
      * Returns true if no connections are current stored, false otherwise.
      */
-    public boolean isEmptyConnections() {
-        return preferences_.getString(CONNECTIONS_PREFERENCE, "").length() == 0;
+    public synchronized boolean isEmptyConnections() {
+        awaitRequestLog();
+        return requestLog_.isEmpty();
     }
 
     /**
@@ -145,25 +436,45 @@ public class CountlyStore {
      */
     public synchronized void addConnection(final String str) {
         if (str != null && str.length() > 0) {
-            final List<String> connections = new ArrayList<>(Arrays.asList(connections()));
-            if (connections.size() < MAX_REQUESTS) {
-                //request under max requests, add as normal
-                connections.add(str);
-                preferences_.edit().putString(CONNECTIONS_PREFERENCE, join(connections, DELIMITER)).apply();
-            } else {
-                //reached the limit, start deleting oldest requests
-                L.w("[CountlyStore] Store reached it's limit, deleting oldest request");
+            requestLog_.append(str);
 
-                deleteOldestRequest();
-                addConnection(str);
+            //if the limits are reached, requests of the least important classes are deleted first
+            final int evicted = requestLog_.evict(MAX_REQUESTS, maxRequestBytes_);
+            if (evicted > 0) {
+                L.w("[CountlyStore] Store reached it's limit, deleted [" + evicted + "] requests");
             }
         }
     }
 
+    /**
+     * Sets how many of the oldest requests can be sent together, those are never changed in place
+     */
+    synchronized void setMaxRequestsInFlight(final int maxRequests) {
+        maxRequestsInFlight_ = Math.max(1, maxRequests);
+    }
+
+    /**
+     * Sets the max combined size of the stored requests
+     *
+     * @param maxBytes size in bytes, 0 or less for no limit
+     */
+    synchronized void setMaxRequestBytes(final long maxBytes) {
+        maxRequestBytes_ = maxBytes;
+        //a log that is not loaded yet is trimmed when loading finishes
+        requestLog_.evict(MAX_REQUESTS, maxRequestBytes_);
+    }
+
+    /**
+     * Returns the combined size of the stored requests in bytes
+     */
+    synchronized long requestsByteSize() {
+        awaitRequestLog();
+        return requestLog_.byteSize();
+    }
+
     synchronized void deleteOldestRequest() {
-        final List<String> connections = new ArrayList<>(Arrays.asList(connections()));
-        connections.remove(0);
-        preferences_.edit().putString(CONNECTIONS_PREFERENCE, join(connections, DELIMITER)).apply();
+        awaitRequestLog();
+        requestLog_.removeOldest();
     }
 
     /**
@@ -173,11 +484,9 @@ public class CountlyStore {
      * or if a matching connection cannot be found
      */
     public synchronized void removeConnection(final String str) {
+        awaitRequestLog();
         if (str != null && str.length() > 0) {
-            final List<String> connections = new ArrayList<>(Arrays.asList(connections()));
-            if (connections.remove(str)) {
-                preferences_.edit().putString(CONNECTIONS_PREFERENCE, join(connections, DELIMITER)).apply();
-            }
+            requestLog_.remove(str);
         }
     }
 
@@ -189,9 +498,143 @@ public class CountlyStore {
     }
 
     protected synchronized void replaceConnectionsList(final List<String> newConns) {
+        awaitRequestLog();
         if (newConns != null) {
-            preferences_.edit().putString(CONNECTIONS_PREFERENCE, join(newConns, DELIMITER)).apply();
+            requestLog_.replaceAll(newConns);
+        }
+    }
+
+    /**
+     * A change to the stored requests that is applied by {@link #mutateRequests(RequestMutation)}
+     */
+    interface RequestMutation {
+        /**
+         * @param request stored request, the instance must be returned if it should stay unchanged
+         * @return the request to keep, a changed copy of it, or null if it should be removed
+         */
+        StoredRequest apply(StoredRequest request);
+    }
+
+    /**
+     * Applies the mutation to all stored requests under one lock, the result is written once
+     *
+     * @return amount of changed or removed requests
+     */
+    synchronized int mutateRequests(final RequestMutation mutation) {
+        awaitRequestLog();
+        return requestLog_.mutate(mutation);
+    }
+
+    /**
+     * Removes requests that were sent together with a single write
+     *
+     * @param sent the sent requests, in the order they are stored in
+     * @return amount of removed requests
+     */
+    synchronized int removeConnections(final List<String> sent) {
+        awaitRequestLog();
+        return requestLog_.removeSent(sent);
+    }
+
+    /**
+     * Removes the given amount of the oldest stored requests
+     *
+     * @return amount of removed requests
+     */
+    synchronized int truncateRequests(final int count) {
+        awaitRequestLog();
+        return requestLog_.removeOldest(count);
+    }
+
+    /**
+     * Removes all stored requests
+     *
+     * @return amount of removed requests
+     */
+    synchronized int clearRequests() {
+        awaitRequestLog();
+        return requestLog_.removeOldest(requestLog_.size());
+    }
+
+    /**
+     * Sets the app key of all stored requests that have one
+     *
+     * @return amount of changed requests
+     */
+    synchronized int replaceRequestsAppKey(final String appKey) {
+        final String encodedAppKey = UtilsNetworking.urlEncodeString(appKey);
+        return mutateRequests(new RequestMutation() {
+            @Override public StoredRequest apply(StoredRequest request) {
+                return request.withAppKey(encodedAppKey);
+            }
+        });
+    }
+
+    /**
+     * Removes all stored requests that don't have the given app key
+     *
+     * @return amount of removed requests
+     */
+    synchronized int removeRequestsWithoutAppKey(final String appKey) {
+        final String encodedAppKey = UtilsNetworking.urlEncodeString(appKey);
+        return mutateRequests(new RequestMutation() {
+            @Override public StoredRequest apply(StoredRequest request) {
+                return encodedAppKey.equals(request.appKey) ? request : null;
+            }
+        });
+    }
+
+    /**
+     * Returns true if any stored request changes or overrides the device ID to the temporary one
+     */
+    synchronized boolean containsTemporaryIdRequests() {
+        awaitRequestLog();
+        return requestLog_.containsTemporaryDeviceId();
+    }
+
+    /**
+     * Replaces the temporary device ID in all stored device ID changes and overrides
+     *
+     * @return amount of changed requests
+     */
+    synchronized int replaceTemporaryDeviceId(final String deviceId) {
+        awaitRequestLog();
+        if (!requestLog_.containsTemporaryDeviceId()) {
+            return 0;
         }
+
+        final String encodedDeviceId = UtilsNetworking.urlEncodeString(deviceId);
+        return mutateRequests(new RequestMutation() {
+            @Override public StoredRequest apply(StoredRequest request) {
+                return request.hasTemporaryDeviceId() ? request.withDeviceId(encodedDeviceId) : request;
+            }
+        });
+    }
+
+    /**
+     * Adds the amount of dropped repeats to the queued crash report with the given request timestamp.
+     * The oldest requests that could be sent in a single batch are left unchanged, because they could be
+     * in flight right now. Sent requests are acknowledged by their exact content, so a changed request would
+     * be sent again. Requests only move towards the head while they wait, so a request that is not among them
+     * now can't have been taken by a batch that is already running.
+     *
+     * @return true if the report was found and changed
+     */
+    synchronized boolean addCrashRepeats(final long reportTimestamp, final int repeats) {
+        return mutateRequests(new RequestMutation() {
+            int position = 0;
+
+            @Override public StoredRequest apply(StoredRequest request) {
+                final boolean inFlight = position++ < maxRequestsInFlight_;
+                if (inFlight || request.requestClass != RequestClass.CRASH || request.timestamp != reportTimestamp) {
+                    return request;
+                }
+
+                final String crashData = StoredRequest.paramValue(request.payload, "crash");
+                final String changed = crashData == null ? null : CrashDeduplicator.addRepeats(UtilsNetworking.urlDecodeString(crashData), repeats);
+                return changed == null ? request : request.withParam("crash", UtilsNetworking.urlEncodeString(changed));
+            }
+        }) > 0;
     }
 
     /**
@@ -199,11 +642,11 @@ public class CountlyStore {
      *
      * @param event event to be added to the local store, must not be null
      */
-    void addEvent(final Event event) {
-        final List<Event> events = eventsList();
-        if (events.size() < MAX_EVENTS) {
-            events.add(event);
-            preferences_.edit().putString(EVENTS_PREFERENCE, joinEvents(events, DELIMITER)).apply();
+    synchronized void addEvent(final Event event) {
+        final List<StoredEvent> cache = eventCache();
+        if (cache.size() < MAX_EVENTS) {
+            cache.add(createStoredEvent(nextEventSeq_++, event));
+            writeEvents();
         }
     }
 
@@ -237,6 +680,24 @@ public class CountlyStore {
         return preferences_.getString(CACHED_ADVERTISING_ID, "");
     }
 
+    /**
+     * Persist the state of the request retry backoff
+     *
+     * @param attempts amount of failed attempts in a row
+     * @param nextAttemptTimestamp timestamp in milliseconds after which requests can be sent again
+     */
+    void setRetryState(int attempts, long nextAttemptTimestamp) {
+        preferences_.edit().putInt(RETRY_ATTEMPTS, attempts).putLong(RETRY_NEXT_ATTEMPT, nextAttemptTimestamp).apply();
+    }
+
+    int getRetryAttempts() {
+        return preferences_.getInt(RETRY_ATTEMPTS, 0);
+    }
+
+    long getRetryNextAttemptTimestamp() {
+        return preferences_.getLong(RETRY_NEXT_ATTEMPT, 0);
+    }
+
     void setConsentPush(boolean consentValue) {
         preferencesPush_.edit().putBoolean(CONSENT_GCM_PREFERENCES, consentValue).apply();
     }
@@ -283,32 +744,24 @@ public class CountlyStore {
     /**
      * Removes the specified events from the local store. Does nothing if the event collection
      * is null or empty.
+     * Prefer {@link #removeEventsUpTo(long)}, this matches events by equality.
      *
      * @param eventsToRemove collection containing the events to remove from the local store
      */
     public synchronized void removeEvents(final Collection<Event> eventsToRemove) {
         if (eventsToRemove != null && eventsToRemove.size() > 0) {
-            final List<Event> events = eventsList();
-            if (events.removeAll(eventsToRemove)) {
-                preferences_.edit().putString(EVENTS_PREFERENCE, joinEvents(events, DELIMITER)).apply();
+            boolean removed = false;
+            for (Iterator<StoredEvent> it = eventCache().iterator(); it.hasNext(); ) {
+                if (eventsToRemove.contains(EventRecord.decode(it.next().record))) {
+                    it.remove();
+                    removed = true;
+                }
             }
-        }
-    }
 
-    /**
-     * Converts a collection of Event objects to URL-encoded JSON to a string, with each
-     * event JSON string delimited by the specified delimiter.
-     *
-     * @param collection events to join into a delimited string
-     * @param delimiter delimiter to use, should not be something that can be found in URL-encoded JSON string
-     */
-    @SuppressWarnings("SameParameterValue")
-    static String joinEvents(final Collection<Event> collection, final String delimiter) {
-        final List<String> strings = new ArrayList<>();
-        for (Event e : collection) {
-            strings.add(e.toJSON().toString());
+            if (removed) {
+                writeEvents();
+            }
         }
-        return join(strings, delimiter);
     }
 
     public static synchronized void cachePushData(String id_key, String index_key, Context context) {
@@ -393,10 +846,16 @@ public class CountlyStore {
     synchronized void clear() {
         final SharedPreferences.Editor prefsEditor = preferences_.edit();
         prefsEditor.remove(EVENTS_PREFERENCE);
+        prefsEditor.remove(EVENTS_SEQUENCE_PREFERENCE);
         prefsEditor.remove(CONNECTIONS_PREFERENCE);
         prefsEditor.clear();
         prefsEditor.apply();
 
         preferencesPush_.edit().clear().apply();
+
+        awaitRequestLog();
+        requestLog_.clear();
+        eventCache_ = null;
+        nextEventSeq_ = 0;
     }
 }
@@ -0,0 +1,47 @@
+package ly.count.android.sdk;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens and executes the connections that are used to send requests to the Countly server.
+ * The SDK prepares the connection (method, headers and body), the transport is responsible
+ * for creating it and for reading the response.
+ *
+ * The default implementation is {@link HttpTransport}. {@link LoopbackTransport} answers
+ * requests in memory and can be used for tests.
+ */
+public interface CountlyTransport {
+    /**
+     * Response received from the server
+     */
+    class Response {
+        public final int code;
+        public final String body;
+
+        public Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Creates a connection to the given url. It will be configured and written into by the SDK
+     * before it's given to {@link #execute(HttpURLConnection)}.
+     *
+     * @param url the full url of the request
+     * @return a new connection
+     * @throws IOException if the connection could not be created
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+
+    /**
+     * Connects, reads the full response and releases the connection
+     *
+     * @param connection connection created by {@link #openConnection(URL)}
+     * @return the response of the server
+     * @throws IOException if the request failed
+     */
+    Response execute(HttpURLConnection connection) throws IOException;
+}
@@ -0,0 +1,258 @@
+package ly.count.android.sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Limits how many reports of handled exceptions are sent, so that an exception that is recorded in a loop
+ * doesn't fill the request queue.
+ *
+ * Exceptions are grouped by a fingerprint of their stack traces. Every fingerprint has a token bucket,
+ * and there is another one for all of them together. A report is sent only if both buckets have a token left,
+ * otherwise it's dropped and counted against the last report of the same fingerprint that was sent.
+ * The counts are collected with {@link #takeRepeats()} and added to the queued reports they belong to.
+ * Only the most recently seen fingerprints are kept, the count of a fingerprint that is dropped is kept until
+ * it's collected.
+ */
+class CrashDeduplicator {
+    //the amount of fingerprints that are kept, value is configurable for tests
+    static int MAX_FINGERPRINTS = 100;
+
+    //key of the custom segmentation value with the amount of dropped reports
+    static final String REPEATS_KEY = "suppressed_repeats";
+
+    /**
+     * Allows up to the given amount of reports at once and refills them evenly over the interval
+     */
+    static final class TokenBucket {
+        final int capacity;
+        final long intervalMs;
+        double tokens;
+        long refilledAt;
+
+        TokenBucket(int capacity, long intervalMs, long now) {
+            this.capacity = capacity;
+            this.intervalMs = intervalMs;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        boolean hasToken(final long now) {
+            if (now < refilledAt) {
+                //clock was set back
+                refilledAt = now;
+            }
+            tokens = Math.min(capacity, tokens + (double) (now - refilledAt) * capacity / intervalMs);
+            refilledAt = now;
+            return tokens >= 1;
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+    }
+
+    /**
+     * Reports that were dropped since the given report was sent
+     */
+    static final class Repeats {
+        //timestamp of the request of the report, 0 if it was not queued
+        final long reportTimestamp;
+        final int count;
+        //the last dropped exception, it's sent in place of the report if that can't be changed anymore
+        final Throwable exception;
+        final Map<String, Object> customSegmentation;
+
+        Repeats(long reportTimestamp, int count, Throwable exception, Map<String, Object> customSegmentation) {
+            this.reportTimestamp = reportTimestamp;
+            this.count = count;
+            this.exception = exception;
+            this.customSegmentation = customSegmentation;
+        }
+    }
+
+    private static final class Entry {
+        final TokenBucket bucket;
+        long reportTimestamp = 0;
+        int dropped = 0;
+        Throwable lastDropped = null;
+        Map<String, Object> lastDroppedSegmentation = null;
+
+        Entry(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        Repeats takeRepeats() {
+            final Repeats repeats = new Repeats(reportTimestamp, dropped, lastDropped, lastDroppedSegmentation);
+            dropped = 0;
+            lastDropped = null;
+            lastDroppedSegmentation = null;
+            return repeats;
+        }
+    }
+
+    private final int fingerprintCapacity;
+    private final long fingerprintIntervalMs;
+    private final TokenBucket global;
+    //counts that are not part of an entry anymore
+    private final List<Repeats> detached = new ArrayList<>();
+    private boolean collectionScheduled = false;
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() <= MAX_FINGERPRINTS) {
+                return false;
+            }
+            if (eldest.getValue().dropped > 0) {
+                detached.add(eldest.getValue().takeRepeats());
+            }
+            return true;
+        }
+    };
+
+    /**
+     * @param fingerprintCapacity reports of a single fingerprint per interval, 0 for no limit
+     * @param globalCapacity reports of all fingerprints per interval, 0 for no limit
+     */
+    CrashDeduplicator(int fingerprintCapacity, long fingerprintIntervalMs, int globalCapacity, long globalIntervalMs, long now) {
+        this.fingerprintCapacity = fingerprintCapacity;
+        this.fingerprintIntervalMs = fingerprintIntervalMs;
+        this.global = globalCapacity > 0 && globalIntervalMs > 0 ? new TokenBucket(globalCapacity, globalIntervalMs, now) : null;
+    }
+
+    /**
+     * Decides if a report with the given fingerprint is sent. A dropped report is counted.
+     *
+     * @param exception the reported exception, kept in case the count has to be sent with a report of its own
+     * @return true if the report should be sent
+     */
+    synchronized boolean onReport(final long fingerprint, final long now, final Throwable exception, final Map<String, Object> customSegmentation) {
+        Entry entry = entries.get(fingerprint);
+        if (entry == null) {
+            entry = new Entry(fingerprintCapacity > 0 && fingerprintIntervalMs > 0 ? new TokenBucket(fingerprintCapacity, fingerprintIntervalMs, now) : null);
+            entries.put(fingerprint, entry);
+        }
+
+        final boolean fingerprintAllows = entry.bucket == null || entry.bucket.hasToken(now);
+        final boolean globalAllows = global == null || global.hasToken(now);
+        if (!fingerprintAllows || !globalAllows) {
+            entry.dropped++;
+            entry.lastDropped = exception;
+            entry.lastDroppedSegmentation = customSegmentation;
+            return false;
+        }
+
+        if (entry.bucket != null) {
+            entry.bucket.take();
+        }
+        if (global != null) {
+            global.take();
+        }
+
+        //the count belongs to the previous report
+        if (entry.dropped > 0) {
+            detached.add(entry.takeRepeats());
+        }
+        entry.reportTimestamp = 0;
+        return true;
+    }
+
+    /**
+     * Sets the request timestamp of the report that was just sent for the fingerprint, so that repeats can be added to it
+     */
+    synchronized void onReportQueued(final long fingerprint, final long reportTimestamp) {
+        final Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            entry.reportTimestamp = reportTimestamp;
+        }
+    }
+
+    /**
+     * Marks that the counts are going to be collected
+     *
+     * @return false if that is already scheduled
+     */
+    synchronized boolean scheduleCollection() {
+        if (collectionScheduled) {
+            return false;
+        }
+        collectionScheduled = true;
+        return true;
+    }
+
+    /**
+     * Returns the counts of the dropped reports since the last call
+     */
+    synchronized List<Repeats> takeRepeats() {
+        collectionScheduled = false;
+        final List<Repeats> res = new ArrayList<>(detached);
+        detached.clear();
+        for (Entry entry : entries.values()) {
+            if (entry.dropped > 0) {
+                res.add(entry.takeRepeats());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Adds the amount of repeats to the custom segmentation of the given crash data, on top of the amount that is there already
+     *
+     * @param crashData crash data JSON of a crash request
+     * @return the changed crash data, or null if it can't be parsed
+     */
+    static String addRepeats(final String crashData, final int repeats) {
+        try {
+            final JSONObject json = new JSONObject(crashData);
+            JSONObject custom = json.optJSONObject("_custom");
+            if (custom == null) {
+                custom = new JSONObject();
+                json.put("_custom", custom);
+            }
+            custom.put(REPEATS_KEY, custom.optInt(REPEATS_KEY, 0) + repeats);
+            return json.toString();
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a fingerprint of the stack traces of the exception and its causes.
+     * Exception messages are left out, because they often contain values that change between repeats.
+     */
+    static long fingerprint(final Throwable exception) {
+        //64 bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        Throwable current = exception;
+        //guard against cause cycles
+        for (int depth = 0; current != null && depth < 10; depth++) {
+            hash = hash(hash, current.getClass().getName());
+            for (StackTraceElement element : current.getStackTrace()) {
+                hash = hash(hash, element.getClassName());
+                hash = hash(hash, element.getMethodName());
+                hash = hash(hash, element.getLineNumber());
+            }
+            current = current.getCause() == current ? null : current.getCause();
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, final String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = hash(hash, value.charAt(i));
+            }
+        }
+        //separator, so that values next to each other can't be mixed up
+        return hash(hash, -1);
+    }
+
+    private static long hash(long hash, final int value) {
+        hash ^= value;
+        return hash * 0x100000001b3L;
+    }
+}
@@ -39,8 +39,9 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -54,7 +55,18 @@ import org.json.JSONObject;
 class CrashDetails {
     private static final int maxBreadcrumbLimit = 1000;//the limit of how many breadcrumbs can be saved
     private static final int maxBreadcrumbSize = 1000;//maximum allowed length of a breadcrumb in characters
-    private static final LinkedList<String> logs = new LinkedList<>();
+    static final int breadcrumbBufferSize = 128 * 1024;//size of the breadcrumb buffer in bytes
+    static final String breadcrumbFileName = "breadcrumbs";
+    //request parameter with the path of a native crash dump that is streamed into the request when it's sent
+    static final String nativeDumpPathKey = "crash_dump_path";
+    //replaced with the Base64 encoded native crash dump when the request is sent
+    static final String nativeDumpPlaceholder = "[CLY]_native_dump";
+    //in memory until the SDK is initialised, then backed by a file
+    private static BreadcrumbBuffer breadcrumbs = new BreadcrumbBuffer(breadcrumbBufferSize, maxBreadcrumbLimit, maxBreadcrumbSize);
+    //guards the breadcrumb buffer reference, so that no breadcrumb is added to the memory buffer after it was moved to the file
+    private static final Object breadcrumbLock = new Object();
+    //breadcrumbs that were left in the file by the previous run of the app
+    private static List<BreadcrumbBuffer.Entry> previousRunBreadcrumbs = new ArrayList<>();
     private static final int startTime = UtilsTime.currentTimestampSeconds();
     static Map<String, Object> customSegments = null;
     private static boolean inBackground = true;
@@ -123,6 +135,10 @@ class CrashDetails {
         return Boolean.toString(inBackground);
     }
 
+    static boolean inBackgroundState() {
+        return inBackground;
+    }
+
     /**
      * Adds a record in the log
      */
@@ -130,14 +146,15 @@ class CrashDetails {
         int recordLength = record.length();
         if (recordLength > maxBreadcrumbSize) {
             Countly.sharedInstance().L.d("Breadcrumb exceeds character limit: [" + recordLength + "], reducing it to: [" + maxBreadcrumbSize + "]");
-            record = record.substring(0, Math.min(maxBreadcrumbSize, recordLength));
         }
 
-        logs.add(record);
+        synchronized (breadcrumbLock) {
+            if (breadcrumbs.size() >= maxBreadcrumbLimit) {
+                Countly.sharedInstance().L.d("Breadcrumb amount limit exceeded, deleting the oldest one");
+            }
 
-        if (logs.size() > maxBreadcrumbLimit) {
-            Countly.sharedInstance().L.d("Breadcrumb amount limit exceeded, deleting the oldest one");
-            logs.removeFirst();
+            //the record is cut to the character limit while it is written
+            breadcrumbs.add(record);
         }
     }
 
@@ -145,15 +162,68 @@ class CrashDetails {
      * Returns the collected logs.
      */
     static String getLogs() {
+        final List<BreadcrumbBuffer.Entry> entries;
+        synchronized (breadcrumbLock) {
+            entries = breadcrumbs.drain();
+        }
+        return joinLogs(entries);
+    }
+
+    /**
+     * Returns the logs that were collected by the previous run of the app and clears them,
+     * so that they are attached only to the first crash of that run that is reported during init
+     */
+    static synchronized String takePreviousRunLogs() {
+        final String logs = joinLogs(previousRunBreadcrumbs);
+        previousRunBreadcrumbs = new ArrayList<>();
+        return logs;
+    }
+
+    static synchronized void clearPreviousRunLogs() {
+        previousRunBreadcrumbs = new ArrayList<>();
+    }
+
+    private static String joinLogs(List<BreadcrumbBuffer.Entry> entries) {
         StringBuilder allLogs = new StringBuilder();
 
-        for (String s : logs) {
-            allLogs.append(s).append("\n");
+        for (BreadcrumbBuffer.Entry entry : entries) {
+            allLogs.append(entry.record).append("\n");
         }
-        logs.clear();
         return allLogs.toString();
     }
 
+    /**
+     * Moves the breadcrumbs to a memory mapped file, so that they survive if the process is killed.
+     * The breadcrumbs that were left in the file are kept as the logs of the previous run.
+     * Does nothing if it's already done.
+     *
+     * @param file file of the buffer
+     */
+    static synchronized void initBreadcrumbFile(File file, ModuleLog L) {
+        synchronized (breadcrumbLock) {
+            if (breadcrumbs.isFileBacked()) {
+                return;
+            }
+        }
+
+        final BreadcrumbBuffer fileBuffer = BreadcrumbBuffer.open(file, breadcrumbBufferSize, maxBreadcrumbLimit, maxBreadcrumbSize, L);
+        if (fileBuffer == null) {
+            L.w("[CrashDetails] Breadcrumbs will be kept only in memory");
+            return;
+        }
+
+        previousRunBreadcrumbs = fileBuffer.drain();
+        L.d("[CrashDetails] Found [" + previousRunBreadcrumbs.size() + "] breadcrumbs from the previous run");
+
+        //swapped and copied under the lock that addLog takes, so that breadcrumbs added meanwhile are not lost
+        synchronized (breadcrumbLock) {
+            for (BreadcrumbBuffer.Entry entry : breadcrumbs.drain()) {
+                fileBuffer.add(entry);
+            }
+            breadcrumbs = fileBuffer;
+        }
+    }
+
     /**
      * Adds developer provided custom segments for crash,
      * like versions of dependency libraries.
@@ -336,7 +406,11 @@ class CrashDetails {
      * Get app's running time before crashing.
      */
     static String getRunningTime() {
-        return Integer.toString(UtilsTime.currentTimestampSeconds() - startTime);
+        return Integer.toString(getRunningSeconds());
+    }
+
+    static int getRunningSeconds() {
+        return UtilsTime.currentTimestampSeconds() - startTime;
     }
 
     /**
@@ -420,31 +494,18 @@ class CrashDetails {
 
         fillJSONIfValuesNotEmpty(json,
             "_error", error,
-            "_nonfatal", Boolean.toString(nonfatal),
-            "_device", DeviceInfo.getDevice(),
-            "_os", DeviceInfo.getOS(),
-            "_os_version", DeviceInfo.getOSVersion(),
-            "_resolution", DeviceInfo.getResolution(context),
-            "_app_version", DeviceInfo.getAppVersion(context),
-            "_manufacture", getManufacturer(),
-            "_cpu", getCpu(),
-            "_opengl", getOpenGL(context),
-            "_root", isRooted(),
-            "_ram_total", getRamTotal(),
-            "_disk_total", getDiskTotal()
+            "_nonfatal", Boolean.toString(nonfatal)
         );
 
+        //device values are cached, so that the crash path doesn't query all of them from the system
+        DeviceContextCache.forContext(context).fillCrashData(json, isNativeCrash);
+
         if (!isNativeCrash) {
             //if is not a native crash
             fillJSONIfValuesNotEmpty(json,
                 "_logs", getLogs(),
                 "_ram_current", getRamCurrent(context),
-                "_disk_current", getDiskCurrent(),
-                "_bat", getBatteryLevel(context),
                 "_run", getRunningTime(),
-                "_orientation", getOrientation(context),
-                "_online", isOnline(context),
-                "_muted", isMuted(context),
                 "_background", isInBackground()
             );
         } else {
@@ -453,6 +514,9 @@ class CrashDetails {
                 json.put("_native_cpp", true);
             } catch (JSONException ignored) {
             }
+
+            //the breadcrumbs of the run that crashed
+            fillJSONIfValuesNotEmpty(json, "_logs", takePreviousRunLogs());
         }
 
         try {
@@ -463,6 +527,34 @@ class CrashDetails {
         return json.toString();
     }
 
+    /**
+     * Returns a JSON string containing a crash report of a previous run.
+     * Only device values that don't describe the current state are added, the rest comes from the crash.
+     */
+    static String getJournaledCrashData(final Context context, final CrashJournal.Record record, final String logs) {
+        final JSONObject json = new JSONObject();
+
+        fillJSONIfValuesNotEmpty(json,
+            "_error", record.trace,
+            "_nonfatal", Boolean.toString(false)
+        );
+
+        DeviceContextCache.forContext(context).fillCrashData(json, true);
+
+        fillJSONIfValuesNotEmpty(json,
+            "_logs", logs,
+            "_run", Integer.toString(record.runningTime),
+            "_background", Boolean.toString(record.inBackground)
+        );
+
+        try {
+            json.put("_custom", getCustomSegmentsJson(null));
+        } catch (JSONException e) {
+            //no custom segments
+        }
+        return json.toString();
+    }
+
     /**
      * Utility method to fill JSONObject with supplied objects for supplied keys.
      * Fills json only with non-null and non-empty key/value pairs.
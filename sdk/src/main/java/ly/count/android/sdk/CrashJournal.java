@@ -0,0 +1,167 @@
+package ly.count.android.sdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Preallocated, memory mapped file region that the uncaught exception handler writes a crash into.
+ *
+ * Building a crash request and adding it to the request queue takes time and allocations that a dying
+ * process might not have. Instead the stack trace is written as UTF-8 straight into the mapped region
+ * together with a small context record, and the request is made from it on the next launch.
+ *
+ * Layout: a header with the state of the region, the length of the stack trace and the context of the crash,
+ * followed by the stack trace. The state is set to committed only after everything else is written,
+ * so a crash that was not completely written is ignored.
+ */
+class CrashJournal {
+    private static final int MAGIC = 0x434C434A;// "CLCJ"
+    private static final int VERSION = 1;
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_COMMITTED = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //the same limit as for crash reports that are sent right away
+    static final int MAX_TRACE_CHARS = 20000;
+    //every character takes at most 3 bytes in UTF-8
+    static final int TRACE_CAPACITY = MAX_TRACE_CHARS * 3;
+
+    //magic, version, capacity, state, trace length, timestamp, running time, in background
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8 + 4 + 4;
+
+    private static final int POS_CAPACITY = 8;
+    private static final int POS_STATE = 12;
+    private static final int POS_LENGTH = 16;
+    private static final int POS_TIMESTAMP = 20;
+    private static final int POS_RUNNING_TIME = 28;
+    private static final int POS_BACKGROUND = 32;
+
+    /**
+     * A crash read back from the journal
+     */
+    static class Record {
+        final String trace;
+        final long timestamp;
+        final int runningTime;
+        final boolean inBackground;
+
+        Record(String trace, long timestamp, int runningTime, boolean inBackground) {
+            this.trace = trace;
+            this.timestamp = timestamp;
+            this.runningTime = runningTime;
+            this.inBackground = inBackground;
+        }
+    }
+
+    private final ByteBuffer buffer;
+
+    CrashJournal(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps the journal file, keeping a crash that is already in it. If the file can't be mapped, null is returned.
+     */
+    static CrashJournal open(File file, ModuleLog L) {
+        RandomAccessFile raf = null;
+        try {
+            final File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            final boolean existing = raf.length() == HEADER_SIZE + TRACE_CAPACITY;
+            final CrashJournal res = new CrashJournal(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + TRACE_CAPACITY));
+
+            if (!existing || !res.isValid()) {
+                if (existing) {
+                    L.w("[CrashJournal] Crash journal is damaged, starting with an empty one");
+                }
+                res.clear();
+            }
+            return res;
+        } catch (IOException ex) {
+            L.e("[CrashJournal] Failed to map crash journal, " + ex);
+            return null;
+        } finally {
+            //the mapping stays valid after the file is closed
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the crash into the journal, without creating any objects
+     *
+     * @return false if the journal already holds a crash, in that case nothing is written
+     */
+    synchronized boolean write(final String trace, final long timestamp, final int runningTime, final boolean inBackground) {
+        if (buffer.getInt(POS_STATE) != STATE_EMPTY) {
+            return false;
+        }
+
+        final int chars = Math.min(trace.length(), MAX_TRACE_CHARS);
+        final int end = BreadcrumbBuffer.writeUtf8(buffer, trace, chars, HEADER_SIZE);
+        buffer.putInt(POS_LENGTH, end - HEADER_SIZE);
+        buffer.putLong(POS_TIMESTAMP, timestamp);
+        buffer.putInt(POS_RUNNING_TIME, runningTime);
+        buffer.putInt(POS_BACKGROUND, inBackground ? 1 : 0);
+
+        //committed last, so that a partially written crash is never read
+        buffer.putInt(POS_STATE, STATE_COMMITTED);
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+        return true;
+    }
+
+    synchronized boolean hasRecord() {
+        return buffer.getInt(POS_STATE) == STATE_COMMITTED;
+    }
+
+    /**
+     * Returns the crash in the journal, or null if there is none
+     */
+    synchronized Record read() {
+        if (!hasRecord()) {
+            return null;
+        }
+
+        final int length = buffer.getInt(POS_LENGTH);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(HEADER_SIZE + i);
+        }
+        return new Record(new String(bytes, UTF8), buffer.getLong(POS_TIMESTAMP), buffer.getInt(POS_RUNNING_TIME), buffer.getInt(POS_BACKGROUND) == 1);
+    }
+
+    /**
+     * Removes the crash from the journal, so that a new one can be written
+     */
+    synchronized void clear() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(POS_CAPACITY, TRACE_CAPACITY);
+        buffer.putInt(POS_LENGTH, 0);
+        buffer.putInt(POS_STATE, STATE_EMPTY);
+    }
+
+    private boolean isValid() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(POS_CAPACITY) != TRACE_CAPACITY) {
+            return false;
+        }
+        final int state = buffer.getInt(POS_STATE);
+        final int length = buffer.getInt(POS_LENGTH);
+        return (state == STATE_EMPTY || state == STATE_COMMITTED) && length >= 0 && length <= TRACE_CAPACITY;
+    }
+}
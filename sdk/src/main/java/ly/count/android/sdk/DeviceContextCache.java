@@ -0,0 +1,221 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Keeps the device information that is sent with session starts, remote config requests and crash reports,
+ * so that it doesn't have to be queried from the system every time.
+ *
+ * Values that don't change while the app runs are read once. Values that depend on the device configuration
+ * are read again when the orientation or locale changes. Values that can change at any time, like the battery
+ * level and connectivity, are reused for {@link #VOLATILE_TTL_MS}. The URL-encoded metrics are kept until
+ * any of the values they are built from changes.
+ */
+class DeviceContextCache {
+    //how long values that can change at any time are reused, value is configurable for tests
+    static long VOLATILE_TTL_MS = 30000;
+
+    private static DeviceContextCache shared = null;
+
+    private final Context context;
+
+    //values that don't change while the app runs, read on first use
+    private boolean staticLoaded = false;
+    private String device;
+    private String os;
+    private String osVersion;
+    private String appVersion;
+    private String store;
+    private String deviceType;
+    private String manufacturer;
+    private String cpu;
+    private String openGL;
+    private String root;
+    private String ramTotal;
+    private String diskTotal;
+
+    //values that depend on the device configuration
+    private int configurationOrientation = -1;
+    private Locale configurationLocale = null;
+    private String resolution;
+    private String density;
+    private String locale;
+    private String orientation;
+
+    //values that can change at any time
+    private long volatileLoadedAt = 0;
+    private boolean volatileLoaded = false;
+    private String carrier;
+    private String battery;
+    private String online;
+    private String muted;
+    private String diskCurrent;
+
+    //encoded metrics and what they were built from
+    private String metrics = null;
+    private Map<String, String> metricsOverride = null;
+    private String metricsDeepLink = null;
+
+    DeviceContextCache(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the cache of the given context, the same instance is returned as long as the context doesn't change
+     */
+    static synchronized DeviceContextCache forContext(final Context context) {
+        if (shared == null || shared.context != context) {
+            shared = new DeviceContextCache(context);
+        }
+        return shared;
+    }
+
+    /**
+     * Drops the values that depend on the device configuration, so that they are read again on next use
+     */
+    static synchronized void configurationChanged() {
+        if (shared != null) {
+            shared.invalidateConfiguration();
+        }
+    }
+
+    synchronized void invalidateConfiguration() {
+        configurationLocale = null;
+        metrics = null;
+    }
+
+    /**
+     * Reads everything that is not read yet, so that it is ready before it's needed
+     */
+    synchronized void warmUp() {
+        ensureStatic();
+        ensureConfiguration();
+        ensureVolatile();
+    }
+
+    private void ensureStatic() {
+        if (staticLoaded) {
+            return;
+        }
+        device = DeviceInfo.getDevice();
+        os = DeviceInfo.getOS();
+        osVersion = DeviceInfo.getOSVersion();
+        appVersion = DeviceInfo.getAppVersion(context);
+        store = DeviceInfo.getStore(context);
+        deviceType = DeviceInfo.getDeviceType(context);
+        manufacturer = CrashDetails.getManufacturer();
+        cpu = CrashDetails.getCpu();
+        openGL = CrashDetails.getOpenGL(context);
+        root = CrashDetails.isRooted();
+        ramTotal = CrashDetails.getRamTotal();
+        diskTotal = CrashDetails.getDiskTotal();
+        staticLoaded = true;
+    }
+
+    private void ensureConfiguration() {
+        //reading the configuration doesn't leave the process, unlike the system services used for the values
+        final Configuration configuration = context.getResources().getConfiguration();
+        final Locale currentLocale = Locale.getDefault();
+        if (configurationLocale != null && configuration.orientation == configurationOrientation && currentLocale.equals(configurationLocale)) {
+            return;
+        }
+        resolution = DeviceInfo.getResolution(context);
+        density = DeviceInfo.getDensity(context);
+        locale = DeviceInfo.getLocale();
+        orientation = CrashDetails.getOrientation(context);
+        configurationOrientation = configuration.orientation;
+        configurationLocale = currentLocale;
+        metrics = null;
+    }
+
+    private void ensureVolatile() {
+        final long now = System.currentTimeMillis();
+        if (volatileLoaded && now - volatileLoadedAt < VOLATILE_TTL_MS && now >= volatileLoadedAt) {
+            return;
+        }
+        final String previousCarrier = carrier;
+        carrier = DeviceInfo.getCarrier(context);
+        battery = CrashDetails.getBatteryLevel(context);
+        online = CrashDetails.isOnline(context);
+        muted = CrashDetails.isMuted(context);
+        diskCurrent = CrashDetails.getDiskCurrent();
+        volatileLoadedAt = now;
+        volatileLoaded = true;
+        if (!carrier.equals(previousCarrier)) {
+            metrics = null;
+        }
+    }
+
+    /**
+     * Returns the URL-encoded metrics, the same as {@link DeviceInfo#getMetrics(Context, Map)}
+     */
+    synchronized String getMetrics(final Map<String, String> metricOverride) {
+        ensureStatic();
+        ensureConfiguration();
+        ensureVolatile();
+
+        final String deepLink = DeviceInfo.deepLink;
+        if (metrics != null && metricOverride == metricsOverride && (deepLink == null ? metricsDeepLink == null : deepLink.equals(metricsDeepLink))) {
+            return metrics;
+        }
+
+        final JSONObject json = new JSONObject();
+        DeviceInfo.fillJSONIfValuesNotEmpty(json,
+            "_device", device,
+            "_os", os,
+            "_os_version", osVersion,
+            "_carrier", carrier,
+            "_resolution", resolution,
+            "_density", density,
+            "_locale", locale,
+            "_app_version", appVersion,
+            "_store", store,
+            "_deep_link", deepLink,
+            "_device_type", deviceType);
+
+        metrics = DeviceInfo.encodeMetrics(json, metricOverride);
+        metricsOverride = metricOverride;
+        metricsDeepLink = deepLink;
+        return metrics;
+    }
+
+    /**
+     * Adds the device values of a crash report to the given JSON
+     *
+     * @param previousRun if true, only the values that don't describe the current state are added,
+     * because the crash happened in a previous run
+     */
+    synchronized void fillCrashData(final JSONObject json, final boolean previousRun) {
+        ensureStatic();
+        ensureConfiguration();
+
+        CrashDetails.fillJSONIfValuesNotEmpty(json,
+            "_device", device,
+            "_os", os,
+            "_os_version", osVersion,
+            "_resolution", resolution,
+            "_app_version", appVersion,
+            "_manufacture", manufacturer,
+            "_cpu", cpu,
+            "_opengl", openGL,
+            "_root", root,
+            "_ram_total", ramTotal,
+            "_disk_total", diskTotal
+        );
+
+        if (!previousRun) {
+            ensureVolatile();
+            CrashDetails.fillJSONIfValuesNotEmpty(json,
+                "_disk_current", diskCurrent,
+                "_bat", battery,
+                "_orientation", orientation,
+                "_online", online,
+                "_muted", muted
+            );
+        }
+    }
+}
@@ -245,6 +245,13 @@ class DeviceInfo {
             "_deep_link", deepLink,
             "_device_type", getDeviceType(context));
 
+        return encodeMetrics(json, metricOverride);
+    }
+
+    /**
+     * Applies the metric overrides and returns the metrics URL-encoded
+     */
+    static String encodeMetrics(final JSONObject json, final Map<String, String> metricOverride) {
         //override metric values
         if (metricOverride != null) {
             for (String k : metricOverride.keySet()) {
@@ -0,0 +1,171 @@
+package ly.count.android.sdk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges events with the same key and segmentation that are recorded within a time window.
+ * The count, sum and duration of the merged events are added together, the timestamp
+ * of the first event is kept. Internal "[CLY]_" events are never merged.
+ */
+class EventAggregator {
+    static final String INTERNAL_EVENT_PREFIX = "[CLY]_";
+
+    private final long windowMs;
+    private final Map<AggregationKey, Aggregate> aggregates = new LinkedHashMap<>();
+
+    EventAggregator(final long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Identifies events that can be merged, the hash is calculated once when the key is created
+     */
+    static final class AggregationKey {
+        final String key;
+        final Map<String, String> segmentation;
+        final Map<String, Integer> segmentationInt;
+        final Map<String, Double> segmentationDouble;
+        final Map<String, Boolean> segmentationBoolean;
+        private final int hash;
+
+        AggregationKey(String key, Map<String, String> segmentation, Map<String, Integer> segmentationInt, Map<String, Double> segmentationDouble, Map<String, Boolean> segmentationBoolean) {
+            this.key = key;
+            this.segmentation = segmentation;
+            this.segmentationInt = segmentationInt;
+            this.segmentationDouble = segmentationDouble;
+            this.segmentationBoolean = segmentationBoolean;
+
+            int h = key.hashCode();
+            h = 31 * h + mapHash(segmentation);
+            h = 31 * h + mapHash(segmentationInt);
+            h = 31 * h + mapHash(segmentationDouble);
+            h = 31 * h + mapHash(segmentationBoolean);
+            hash = h;
+        }
+
+        //null and empty segmentation are treated the same
+        static int mapHash(Map<String, ?> map) {
+            return map == null ? 0 : map.hashCode();
+        }
+
+        static boolean mapEquals(Map<String, ?> a, Map<String, ?> b) {
+            if (a == null || a.isEmpty()) {
+                return b == null || b.isEmpty();
+            }
+            return a.equals(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AggregationKey)) {
+                return false;
+            }
+            AggregationKey other = (AggregationKey) o;
+            return hash == other.hash
+                && key.equals(other.key)
+                && mapEquals(segmentation, other.segmentation)
+                && mapEquals(segmentationInt, other.segmentationInt)
+                && mapEquals(segmentationDouble, other.segmentationDouble)
+                && mapEquals(segmentationBoolean, other.segmentationBoolean);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Aggregate {
+        final Event event;
+        final long startedAt;
+
+        Aggregate(Event event, long startedAt) {
+            this.event = event;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Returns true if events with the given key can be merged
+     */
+    boolean accepts(final String key) {
+        return windowMs > 0 && key != null && !key.startsWith(INTERNAL_EVENT_PREFIX);
+    }
+
+    /**
+     * Merges the event into an existing aggregate or starts a new one.
+     *
+     * @param now current timestamp, used for the window
+     * @return an aggregate that was replaced because the new event was too far apart from it, or null
+     */
+    synchronized Event add(final String key, final Map<String, String> segmentation, final Map<String, Integer> segmentationInt, final Map<String, Double> segmentationDouble,
+        final Map<String, Boolean> segmentationBoolean, final int count, final double sum, final double dur, final UtilsTime.Instant instant, final long now) {
+        final AggregationKey aggregationKey = new AggregationKey(key, segmentation, segmentationInt, segmentationDouble, segmentationBoolean);
+        final Aggregate existing = aggregates.get(aggregationKey);
+
+        if (existing != null && now - existing.startedAt < windowMs && Math.abs(instant.timestampMs - existing.event.timestamp) < windowMs) {
+            existing.event.count += count;
+            existing.event.sum += sum;
+            existing.event.dur += dur;
+            return null;
+        }
+
+        final Event event = new Event();
+        event.key = key;
+        event.segmentation = segmentation;
+        event.segmentationInt = segmentationInt;
+        event.segmentationDouble = segmentationDouble;
+        event.segmentationBoolean = segmentationBoolean;
+        event.timestamp = instant.timestampMs;
+        event.hour = instant.hour;
+        event.dow = instant.dow;
+        event.count = count;
+        event.sum = sum;
+        event.dur = dur;
+
+        //removing first so that the new aggregate is at the end of the insertion order
+        aggregates.remove(aggregationKey);
+        aggregates.put(aggregationKey, new Aggregate(event, now));
+
+        return existing == null ? null : existing.event;
+    }
+
+    /**
+     * Removes and returns the aggregates whose window has passed
+     */
+    synchronized List<Event> removeExpired(final long now) {
+        final List<Event> expired = new ArrayList<>();
+        final Iterator<Aggregate> it = aggregates.values().iterator();
+        while (it.hasNext()) {
+            final Aggregate aggregate = it.next();
+            if (now - aggregate.startedAt >= windowMs || now < aggregate.startedAt) {
+                expired.add(aggregate.event);
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Removes and returns all aggregates
+     */
+    synchronized List<Event> removeAll() {
+        final List<Event> all = new ArrayList<>(aggregates.size());
+        for (Aggregate aggregate : aggregates.values()) {
+            all.add(aggregate.event);
+        }
+        aggregates.clear();
+        return all;
+    }
+
+    synchronized int size() {
+        return aggregates.size();
+    }
+}
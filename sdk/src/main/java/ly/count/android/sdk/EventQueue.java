@@ -21,10 +21,8 @@ THE SOFTWARE.
 */
 package ly.count.android.sdk;
 
-import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Map;
-import org.json.JSONArray;
 
 /**
  * This class queues event data locally and can convert that event data to JSON
@@ -38,6 +36,7 @@ import org.json.JSONArray;
  */
 public class EventQueue {
     private final CountlyStore countlyStore_;
+    private EventAggregator aggregator_;
 
     /**
      * Constructs an EventQueue.
@@ -48,13 +47,38 @@ public class EventQueue {
         countlyStore_ = countlyStore;
     }
 
+    /**
+     * Merge events with the same key and segmentation that are recorded within the given window.
+     *
+     * @param windowMs length of the window in milliseconds, 0 disables merging
+     */
+    void setAggregationWindow(final long windowMs) {
+        flushAggregates();
+        aggregator_ = windowMs > 0 ? new EventAggregator(windowMs) : null;
+    }
+
+    /**
+     * Moves all merged events that are waiting for their window to pass into the store
+     */
+    void flushAggregates() {
+        if (aggregator_ != null) {
+            for (Event event : aggregator_.removeAll()) {
+                countlyStore_.addEvent(event);
+            }
+        }
+    }
+
     /**
      * Returns the number of events in the local event queue.
      *
      * @return the number of events in the local event queue
      */
     int size() {
-        return countlyStore_.events().length;
+        int size = countlyStore_.eventsCount();
+        if (aggregator_ != null) {
+            size += aggregator_.size();
+        }
+        return size;
     }
 
     /**
@@ -64,26 +88,34 @@ public class EventQueue {
      * @return URL-encoded JSON string of event data from the local event queue
      */
     String events() {
-        String result;
-
-        final List<Event> events = countlyStore_.eventsList();
-
-        final JSONArray eventArray = new JSONArray();
-        for (Event e : events) {
-            eventArray.put(e.toJSON());
+        flushAggregates();
+
+        //only the events that are stored at this point are sent and removed,
+        //events added while this is running get a higher sequence number and stay in the queue
+        final long lastSeq = countlyStore_.lastEventSeq();
+        final List<byte[]> records = countlyStore_.eventRecordsUpTo(lastSeq);
+
+        //every stored record is written as JSON into a reused buffer and URL encoded from there
+        //straight into the result, so only a single event is ever held in a second copy
+        final StringBuilder result = new StringBuilder(records.size() * 192 + 6);
+        final StringBuilder event = new StringBuilder(128);
+        boolean first = true;
+        result.append("%5B");
+        for (byte[] record : records) {
+            event.setLength(0);
+            if (EventRecord.writeJSON(record, event)) {
+                if (!first) {
+                    result.append("%2C");
+                }
+                UtilsNetworking.urlEncodeTo(event, result);
+                first = false;
+            }
         }
+        result.append("%5D");
 
-        result = eventArray.toString();
-
-        countlyStore_.removeEvents(events);
+        countlyStore_.removeEventsUpTo(lastSeq);
 
-        try {
-            result = java.net.URLEncoder.encode(result, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // should never happen because Android guarantees UTF-8 support
-        }
-
-        return result;
+        return result.toString();
     }
 
     /**
@@ -102,6 +134,21 @@ public class EventQueue {
             instant = UtilsTime.getCurrentInstant();
         }
 
+        if (aggregator_ != null) {
+            final long now = System.currentTimeMillis();
+            for (Event expired : aggregator_.removeExpired(now)) {
+                countlyStore_.addEvent(expired);
+            }
+
+            if (aggregator_.accepts(key)) {
+                final Event replaced = aggregator_.add(key, segmentation, segmentationInt, segmentationDouble, segmentationBoolean, count, sum, dur, instant, now);
+                if (replaced != null) {
+                    countlyStore_.addEvent(replaced);
+                }
+                return;
+            }
+        }
+
         final long timestamp = instant.timestampMs;
         final int hour = instant.hour;
         final int dow = instant.dow;
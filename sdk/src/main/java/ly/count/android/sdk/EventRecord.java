@@ -0,0 +1,421 @@
+package ly.count.android.sdk;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact binary representation of a single {@link Event}, used for persisting events.
+ *
+ * A record has the following layout:
+ * - version byte
+ * - flags byte (sum present, duration present, segmentation present)
+ * - key (varint length + UTF-8 bytes)
+ * - count (zigzag varint)
+ * - timestamp (zigzag varint)
+ * - hour and day of week (one byte each)
+ * - sum and duration (8 byte doubles, only if present)
+ * - segmentation value count (varint) followed by the segmentation values, each one
+ * as a type tag, the key and the value encoded according to its type
+ *
+ * Records can be turned back into an Event or written straight into the upload JSON
+ * without building intermediate JSON objects.
+ */
+final class EventRecord {
+    static final byte VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_SUM = 0x01;
+    private static final int FLAG_DUR = 0x02;
+    private static final int FLAG_SEGMENTATION = 0x04;
+
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_DOUBLE = 3;
+    private static final byte TAG_TRUE = 4;
+    private static final byte TAG_FALSE = 5;
+
+    private EventRecord() {
+    }
+
+    /**
+     * Encodes the given event into a binary record
+     *
+     * @param event event to encode, must not be null
+     * @return the binary record
+     */
+    static byte[] encode(final Event event) {
+        final Writer out = new Writer(64);
+
+        // merge the typed segmentation maps the same way Event.toJSON does, later maps override earlier ones
+        Map<String, Object> segmentation = null;
+        if (event.segmentation != null || event.segmentationInt != null || event.segmentationDouble != null || event.segmentationBoolean != null) {
+            segmentation = new LinkedHashMap<>();
+            putAll(segmentation, event.segmentation);
+            putAll(segmentation, event.segmentationInt);
+            putAll(segmentation, event.segmentationDouble);
+            putAll(segmentation, event.segmentationBoolean);
+        }
+
+        int flags = 0;
+        if (event.sum != 0) {
+            flags |= FLAG_SUM;
+        }
+        if (event.dur > 0) {
+            flags |= FLAG_DUR;
+        }
+        if (segmentation != null) {
+            flags |= FLAG_SEGMENTATION;
+        }
+
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeString(event.key == null ? "" : event.key);
+        out.writeVarLong(zigZag(event.count));
+        out.writeVarLong(zigZag(event.timestamp));
+        out.writeByte(event.hour);
+        out.writeByte(event.dow);
+
+        if ((flags & FLAG_SUM) != 0) {
+            out.writeDouble(event.sum);
+        }
+        if ((flags & FLAG_DUR) != 0) {
+            out.writeDouble(event.dur);
+        }
+
+        if (segmentation != null) {
+            out.writeVarLong(segmentation.size());
+            for (Map.Entry<String, Object> pair : segmentation.entrySet()) {
+                final Object value = pair.getValue();
+                if (value instanceof Integer) {
+                    out.writeByte(TAG_INT);
+                    out.writeString(pair.getKey());
+                    out.writeVarLong(zigZag((Integer) value));
+                } else if (value instanceof Double) {
+                    out.writeByte(TAG_DOUBLE);
+                    out.writeString(pair.getKey());
+                    out.writeDouble((Double) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+                    out.writeString(pair.getKey());
+                } else {
+                    out.writeByte(TAG_STRING);
+                    out.writeString(pair.getKey());
+                    out.writeString((String) value);
+                }
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a binary record back into an Event
+     *
+     * @param record binary record created by {@link #encode(Event)}
+     * @return the decoded event or null if the record is invalid or the event has no key
+     */
+    static Event decode(final byte[] record) {
+        try {
+            final Reader in = new Reader(record);
+            final int flags = readHeader(in);
+
+            final Event event = new Event();
+            event.key = in.readString();
+            event.count = (int) unZigZag(in.readVarLong());
+            event.timestamp = unZigZag(in.readVarLong());
+            event.hour = in.readByte();
+            event.dow = in.readByte();
+            event.sum = (flags & FLAG_SUM) != 0 ? in.readDouble() : 0.0d;
+            event.dur = (flags & FLAG_DUR) != 0 ? in.readDouble() : 0.0d;
+
+            if ((flags & FLAG_SEGMENTATION) != 0) {
+                // all four maps are created, the same way Event.fromJSON does it
+                event.segmentation = new HashMap<>();
+                event.segmentationInt = new HashMap<>();
+                event.segmentationDouble = new HashMap<>();
+                event.segmentationBoolean = new HashMap<>();
+
+                final long amount = in.readVarLong();
+                for (long a = 0; a < amount; a++) {
+                    final byte tag = (byte) in.readByte();
+                    final String key = in.readString();
+                    switch (tag) {
+                        case TAG_STRING:
+                            event.segmentation.put(key, in.readString());
+                            break;
+                        case TAG_INT:
+                            event.segmentationInt.put(key, (int) unZigZag(in.readVarLong()));
+                            break;
+                        case TAG_DOUBLE:
+                            event.segmentationDouble.put(key, in.readDouble());
+                            break;
+                        case TAG_TRUE:
+                            event.segmentationBoolean.put(key, true);
+                            break;
+                        case TAG_FALSE:
+                            event.segmentationBoolean.put(key, false);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown segmentation type tag: " + tag);
+                    }
+                }
+            }
+
+            return event.key.length() > 0 ? event : null;
+        } catch (IllegalArgumentException e) {
+            Countly.sharedInstance().L.w("[EventRecord] Got exception decoding an event record", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads only the timestamp of the event in the given record
+     *
+     * @param record binary record created by {@link #encode(Event)}
+     * @return the timestamp of the event
+     * @throws IllegalArgumentException if the record is invalid
+     */
+    static long readTimestamp(final byte[] record) {
+        final Reader in = new Reader(record);
+        readHeader(in);
+        in.skip((int) in.readVarLong());//key
+        in.readVarLong();//count
+        return unZigZag(in.readVarLong());
+    }
+
+    /**
+     * Appends the JSON representation of the event in the given record to the builder.
+     * The output is the same as the result of {@code Event.toJSON().toString()}.
+     * If the record is invalid, nothing is appended.
+     *
+     * @param record binary record created by {@link #encode(Event)}
+     * @param out builder the JSON is appended to
+     * @return true if the event was appended
+     */
+    static boolean writeJSON(final byte[] record, final StringBuilder out) {
+        final int start = out.length();
+        try {
+            final Reader in = new Reader(record);
+            final int flags = readHeader(in);
+
+            out.append("{\"key\":").append(JSONObject.quote(in.readString()));
+            out.append(",\"count\":").append((int) unZigZag(in.readVarLong()));
+            out.append(",\"timestamp\":").append(unZigZag(in.readVarLong()));
+            out.append(",\"hour\":").append(in.readByte());
+            out.append(",\"dow\":").append(in.readByte());
+
+            final double sum = (flags & FLAG_SUM) != 0 ? in.readDouble() : 0.0d;
+            final double dur = (flags & FLAG_DUR) != 0 ? in.readDouble() : 0.0d;
+
+            // Event.toJSON stops adding fields once it hits a value that can't be represented in JSON
+            boolean valid = true;
+
+            if ((flags & FLAG_SEGMENTATION) != 0) {
+                final int segmentationStart = out.length();
+                out.append(",\"segmentation\":{");
+
+                final long amount = in.readVarLong();
+                for (long a = 0; a < amount && valid; a++) {
+                    if (a > 0) {
+                        out.append(',');
+                    }
+                    final byte tag = (byte) in.readByte();
+                    out.append(JSONObject.quote(in.readString())).append(':');
+                    switch (tag) {
+                        case TAG_STRING:
+                            out.append(JSONObject.quote(in.readString()));
+                            break;
+                        case TAG_INT:
+                            out.append((int) unZigZag(in.readVarLong()));
+                            break;
+                        case TAG_DOUBLE:
+                            valid = appendDouble(out, in.readDouble());
+                            break;
+                        case TAG_TRUE:
+                            out.append(true);
+                            break;
+                        case TAG_FALSE:
+                            out.append(false);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown segmentation type tag: " + tag);
+                    }
+                }
+
+                if (valid) {
+                    out.append('}');
+                } else {
+                    out.setLength(segmentationStart);
+                }
+            }
+
+            if (valid) {
+                final int sumStart = out.length();
+                out.append(",\"sum\":");
+                if (!appendDouble(out, sum)) {
+                    out.setLength(sumStart);
+                } else if (dur > 0) {
+                    out.append(",\"dur\":");
+                    appendDouble(out, dur);
+                }
+            }
+
+            out.append('}');
+            return true;
+        } catch (IllegalArgumentException e) {
+            Countly.sharedInstance().L.w("[EventRecord] Got exception writing an event record as JSON", e);
+            out.setLength(start);
+            return false;
+        }
+    }
+
+    private static int readHeader(final Reader in) {
+        final int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported event record version: " + version);
+        }
+        return in.readByte();
+    }
+
+    private static boolean appendDouble(final StringBuilder out, final double value) {
+        try {
+            out.append(JSONObject.numberToString(value));
+            return true;
+        } catch (JSONException e) {
+            // NaN or infinite
+            return false;
+        }
+    }
+
+    private static void putAll(final Map<String, Object> target, final Map<String, ?> source) {
+        if (source != null) {
+            for (Map.Entry<String, ?> pair : source.entrySet()) {
+                // an overridden key keeps its original position, same as with JSONObject
+                target.put(pair.getKey(), pair.getValue());
+            }
+        }
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        byte[] buffer;
+        int position = 0;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void ensure(int amount) {
+            if (position + amount > buffer.length) {
+                final byte[] larger = new byte[Math.max(buffer.length * 2, position + amount)];
+                System.arraycopy(buffer, 0, larger, 0, position);
+                buffer = larger;
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            final long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            final byte[] bytes = value.getBytes(UTF8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            final byte[] res = new byte[position];
+            System.arraycopy(buffer, 0, res, 0, position);
+            return res;
+        }
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        void require(int amount) {
+            if (amount < 0 || position + amount > data.length) {
+                throw new IllegalArgumentException("Truncated event record");
+            }
+        }
+
+        int readByte() {
+            require(1);
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in event record");
+        }
+
+        double readDouble() {
+            require(8);
+            long bits = 0;
+            for (int a = 0; a < 8; a++) {
+                bits = (bits << 8) | (data[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            final long length = readVarLong();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed string length in event record");
+            }
+            require((int) length);
+            final String value = new String(data, position, (int) length, UTF8);
+            position += length;
+            return value;
+        }
+
+        void skip(int amount) {
+            require(amount);
+            position += amount;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue that is used to hand over recorded events to the SDK worker.
+ * Every slot has a sequence number which tells if it can be written or read at the given position,
+ * so producers and the consumer only compete on a single compare-and-set.
+ * Producers may also remove entries when the oldest entries should be dropped.
+ *
+ * @param <T> type of the entries, they should be immutable
+ */
+class EventRingBuffer<T> {
+    static long BLOCK_PARK_NS = TimeUnit.MICROSECONDS.toNanos(100);//value is configurable for tests
+
+    private final int mask;
+    private final AtomicReferenceArray<T> entries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final BackPressurePolicy policy;
+    private final long blockTimeoutNs;
+
+    /**
+     * @param capacity the max amount of entries, rounded up to the next power of two, at least 2
+     * @param policy what to do when the buffer is full
+     * @param blockTimeoutMs how long to wait for free space with {@link BackPressurePolicy#BLOCK}
+     */
+    EventRingBuffer(final int capacity, final BackPressurePolicy policy, final long blockTimeoutMs) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Back-pressure policy must not be null");
+        }
+
+        //with a single slot a full and a free slot would have the same sequence number
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        entries = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int a = 0; a < size; a++) {
+            sequences.set(a, a);
+        }
+
+        this.policy = policy;
+        blockTimeoutNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMs));
+    }
+
+    /**
+     * Adds the entry to the buffer, applying the back-pressure policy if it is full.
+     *
+     * @return true if the entry was added, false if it was dropped
+     */
+    boolean publish(final T entry) {
+        if (entry == null) {
+            throw new IllegalArgumentException("Entry must not be null");
+        }
+
+        if (offer(entry)) {
+            return true;
+        }
+
+        switch (policy) {
+            case DROP_OLDEST:
+                do {
+                    if (poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                } while (!offer(entry));
+                return true;
+            case BLOCK:
+                final long deadline = System.nanoTime() + blockTimeoutNs;
+                do {
+                    if (System.nanoTime() - deadline >= 0) {
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NS);
+                } while (!offer(entry));
+                return true;
+            case DROP_NEWEST:
+            default:
+                droppedCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Adds the entry if there is free space
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(final T entry) {
+        while (true) {
+            final long pos = tail.get();
+            final int index = (int) (pos & mask);
+            final long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    entries.set(index, entry);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // another producer took this slot, try the next one
+        }
+    }
+
+    /**
+     * Removes the oldest entry
+     *
+     * @return the entry or null if the buffer is empty
+     */
+    T poll() {
+        while (true) {
+            final long pos = head.get();
+            final int index = (int) (pos & mask);
+            final long diff = sequences.get(index) - (pos + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final T entry = entries.get(index);
+                    entries.set(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return entry;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    void clear() {
+        while (poll() != null) {
+            // just removing the entries
+        }
+    }
+
+    int size() {
+        final long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the amount of entries that were dropped because the buffer was full
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,54 @@
+package ly.count.android.sdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default transport that uses the platform's HttpURLConnection.
+ *
+ * Connections are not disconnected after a successful request. The response is read fully and the
+ * stream is closed instead, which lets HttpURLConnection keep the socket alive and reuse it
+ * for the next request to the same server.
+ */
+public class HttpTransport implements CountlyTransport {
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    @Override
+    public Response execute(HttpURLConnection connection) throws IOException {
+        InputStream stream = null;
+        boolean completed = false;
+        try {
+            connection.connect();
+
+            try {
+                //assume there will be no error
+                stream = connection.getInputStream();
+            } catch (Exception ex) {
+                //in case of exception, assume there was a error in the request and change streams
+                stream = connection.getErrorStream();
+            }
+
+            final int responseCode = connection.getResponseCode();
+            final String responseString = stream == null ? "" : Utils.inputStreamToString(stream);
+            completed = true;
+            return new Response(responseCode, responseString);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (Throwable ignored) {
+                }
+            }
+
+            if (!completed) {
+                // the connection might be in a broken state, don't let it be reused
+                connection.disconnect();
+            }
+        }
+    }
+}
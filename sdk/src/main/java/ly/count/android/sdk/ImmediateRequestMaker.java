@@ -2,10 +2,7 @@ package ly.count.android.sdk;
 
 import android.os.AsyncTask;
 import android.util.Log;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import org.json.JSONObject;
 
@@ -42,10 +39,6 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> {
 
         L.v("[ImmediateRequestMaker] Starting request");
 
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-        boolean wasSuccess = true;
-
         try {
             L.d("[ImmediateRequestMaker] delayed[" + requestShouldBeDelayed + "] hasCallback[" + (callback != null) + "] endpoint[" + customEndpoint + "] request[" + requestData + "]");
 
@@ -61,6 +54,7 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> {
             }
 
             //getting connection ready
+            HttpURLConnection connection;
             try {
                 connection = (HttpURLConnection) cp.urlConnectionForServerRequest(requestData, customEndpoint);
             } catch (IOException e) {
@@ -69,55 +63,17 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> {
                 return null;
             }
 
-            //connecting
-            connection.connect();
-
-            InputStream stream;
-
-            try {
-                //assume there will be no error
-                stream = connection.getInputStream();
-            } catch (Exception ex) {
-                //in case of exception, assume there was a error in the request
-                //and change streams
-                stream = connection.getErrorStream();
-                wasSuccess = false;
-            }
-
-            if (stream == null) {
-                L.e("[ImmediateRequestMaker] Encountered problem while making a immediate server request, received stream was null");
-                return null;
-            }
-
-            //getting result
-            reader = new BufferedReader(new InputStreamReader(stream));
+            //connecting and getting result
+            final CountlyTransport.Response response = cp.getTransport().execute(connection);
 
-            StringBuilder buffer = new StringBuilder();
-            String line = "";
-
-            while ((line = reader.readLine()) != null) {
-                buffer.append(line).append("\n");
-            }
-
-            if (wasSuccess) {
-                return new JSONObject(buffer.toString());
+            if (response.code >= 200 && response.code < 400) {
+                return new JSONObject(response.body);
             } else {
-                L.e("[ImmediateRequestMaker] Encountered problem while making a immediate server request, :[" + buffer.toString() + "]");
+                L.e("[ImmediateRequestMaker] Encountered problem while making a immediate server request, :[" + response.body + "]");
                 return null;
             }
         } catch (Exception e) {
             L.e("[ImmediateRequestMaker] Received exception while making a immediate server request", e);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-            } catch (IOException e) {
-                L.e("[ImmediateRequestMaker] ", e);
-            }
         }
         L.v("[ImmediateRequestMaker] Finished request");
         return null;
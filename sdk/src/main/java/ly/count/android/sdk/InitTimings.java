@@ -0,0 +1,51 @@
+package ly.count.android.sdk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durations of the stages of SDK init, so that the time init adds to app start can be measured.
+ * Stages are kept in the order they finished, with asynchronous init the background stages come last.
+ */
+class InitTimings {
+    //checking the config
+    static final String CHECKS = "checks";
+    //creating the store, includes loading the request log unless init is asynchronous
+    static final String STORAGE = "storage";
+    static final String MODULES = "modules";
+    //setting up networking and the event queue
+    static final String SETUP = "setup";
+    //lifecycle callbacks and the modules finishing init
+    static final String INIT_FINISHED = "init_finished";
+    //everything init did before returning
+    static final String INIT = "init";
+    //loading the request log in the background
+    static final String REQUEST_LOG = "request_log";
+    //work of the modules that needs the stored state
+    static final String STATE_LOADED = "state_loaded";
+
+    private final Map<String, Long> durationsUs = new LinkedHashMap<>();
+
+    /**
+     * Records the duration of a stage that started at the given time
+     *
+     * @param startNs start of the stage from {@link System#nanoTime()}
+     * @return the end of the stage, which can be used as the start of the next one
+     */
+    synchronized long record(final String stage, final long startNs) {
+        final long now = System.nanoTime();
+        durationsUs.put(stage, (now - startNs) / 1000);
+        return now;
+    }
+
+    /**
+     * Returns the durations of the recorded stages in microseconds
+     */
+    synchronized Map<String, Long> durations() {
+        return new LinkedHashMap<>(durationsUs);
+    }
+
+    synchronized void clear() {
+        durationsUs.clear();
+    }
+}
@@ -0,0 +1,155 @@
+package ly.count.android.sdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transport that doesn't use the network. Requests are recorded in memory and answered
+ * with scripted responses, optionally after a delay.
+ *
+ * This is meant for tests and load tests of the upload pipeline, it works without a server.
+ */
+public class LoopbackTransport implements CountlyTransport {
+    /**
+     * A request that was received by the transport
+     */
+    public static class ReceivedRequest {
+        public final String method;
+        public final URL url;
+        public final Map<String, List<String>> headers;
+        public final byte[] body;
+
+        ReceivedRequest(String method, URL url, Map<String, List<String>> headers, byte[] body) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * Returns the body as a string, decompressed if it was sent with gzip
+         */
+        public String bodyAsString() throws IOException {
+            final List<String> encoding = headers.get("Content-Encoding");
+            if (encoding != null && encoding.contains("gzip")) {
+                return Utils.inputStreamToString(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            return new String(body, "UTF-8");
+        }
+    }
+
+    private final List<ReceivedRequest> receivedRequests = new ArrayList<>();
+    private final LinkedList<Object> script = new LinkedList<>();
+    private Response defaultResponse = new Response(200, "{\"result\":\"Success\"}");
+    private long latencyMs = 0;
+
+    /**
+     * Delay every request by the given amount of time
+     */
+    public synchronized LoopbackTransport setLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * Set the response that is returned when no scripted responses are left
+     */
+    public synchronized LoopbackTransport setDefaultResponse(int code, String body) {
+        defaultResponse = new Response(code, body);
+        return this;
+    }
+
+    /**
+     * Answer the next request that isn't answered by earlier scripted responses with the given response
+     */
+    public synchronized LoopbackTransport enqueueResponse(int code, String body) {
+        script.add(new Response(code, body));
+        return this;
+    }
+
+    /**
+     * Fail the next request that isn't answered by earlier scripted responses with the given exception,
+     * as if the network was not reachable
+     */
+    public synchronized LoopbackTransport enqueueFailure(IOException exception) {
+        script.add(exception);
+        return this;
+    }
+
+    /**
+     * Returns the requests received so far, in the order they were received
+     */
+    public synchronized List<ReceivedRequest> getReceivedRequests() {
+        return new ArrayList<>(receivedRequests);
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) {
+        return new LoopbackConnection(url);
+    }
+
+    @Override
+    public Response execute(HttpURLConnection connection) throws IOException {
+        final LoopbackConnection loopbackConnection = (LoopbackConnection) connection;
+        final ReceivedRequest request = new ReceivedRequest(connection.getRequestMethod(), connection.getURL(), connection.getRequestProperties(), loopbackConnection.output.toByteArray());
+        connection.connect();
+
+        final long latency;
+        final Object next;
+        synchronized (this) {
+            receivedRequests.add(request);
+            latency = latencyMs;
+            next = script.isEmpty() ? defaultResponse : script.removeFirst();
+        }
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the response");
+            }
+        }
+
+        if (next instanceof IOException) {
+            throw (IOException) next;
+        }
+        return (Response) next;
+    }
+
+    private static class LoopbackConnection extends HttpURLConnection {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        LoopbackConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.util.Log;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public class ModuleAPM extends ModuleBase {
@@ -16,6 +17,9 @@ public class ModuleAPM extends ModuleBase {
 
     Map<String, Long> networkTraces;
 
+    //collects network traces into summaries, null if not enabled
+    NetworkTraceAggregator networkTraceAggregator = null;
+
     //used to determine app start time
     boolean hasFirstOnResumeHappened = false;
 
@@ -58,6 +62,11 @@ public class ModuleAPM extends ModuleBase {
             L.d("[ModuleAPM] Using manual app finished loading trigger for app start");
         }
 
+        if (config.networkTraceAggregationIntervalMs > 0) {
+            L.d("[ModuleAPM] Aggregating network traces, sending summaries every [" + config.networkTraceAggregationIntervalMs + "] ms");
+            networkTraceAggregator = new NetworkTraceAggregator(config.networkTraceAggregationIntervalMs, System.currentTimeMillis());
+        }
+
         manualForegroundBackgroundTriggers = config.manualForegroundBackgroundTrigger;
         if (manualForegroundBackgroundTriggers) {
             L.d("[ModuleAPM] Using manual foreground/background triggers");
@@ -325,10 +334,40 @@ public class ModuleAPM extends ModuleBase {
         //validate trace key
         networkTraceKey = validateAndModifyTraceKey(networkTraceKey);
 
+        if (networkTraceAggregator != null) {
+            if (networkTraceAggregator.add(networkTraceKey, responseCode, requestPayloadSize, responsePayloadSize, startTimestamp, endTimestamp)) {
+                return;
+            }
+            L.w("[ModuleAPM] Too many network trace keys are being aggregated, sending trace on its own, [" + networkTraceKey + "]");
+        }
+
         Long responseTimeMs = endTimestamp - startTimestamp;
         _cly.connectionQueue_.sendAPMNetworkTrace(networkTraceKey, responseTimeMs, responseCode, requestPayloadSize, responsePayloadSize, startTimestamp, endTimestamp);
     }
 
+    /**
+     * Sends the collected network trace summaries
+     *
+     * @param force if false, they are sent only if the flush interval has passed
+     */
+    void flushNetworkTraceSummaries(boolean force) {
+        if (networkTraceAggregator == null) {
+            return;
+        }
+
+        long currentTimestamp = System.currentTimeMillis();
+        if (!force && !networkTraceAggregator.isFlushDue(currentTimestamp)) {
+            return;
+        }
+
+        List<NetworkTraceAggregator.TraceSummary> summaries = networkTraceAggregator.removeAll(currentTimestamp);
+        L.d("[ModuleAPM] Sending [" + summaries.size() + "] network trace summaries");
+
+        for (NetworkTraceAggregator.TraceSummary summary : summaries) {
+            _cly.connectionQueue_.sendAPMNetworkTraceSummary(summary);
+        }
+    }
+
     void clearNetworkTraces() {
         L.v("[ModuleAPM] Calling 'clearNetworkTraces'");
 
@@ -360,6 +399,10 @@ public class ModuleAPM extends ModuleBase {
 
     void doForegroundBackgroundCalculations(boolean goingToBackground, boolean goingToForeground) {
         L.d("[ModuleAPM] Calling 'doForegroundBackgroundCalculations', [" + goingToBackground + "] [" + goingToForeground + "]");
+        if (goingToBackground) {
+            flushNetworkTraceSummaries(true);
+        }
+
         if (goingToBackground || goingToForeground) {
 
             long currentTimeMs = UtilsTime.currentTimestampMs();
@@ -409,6 +452,7 @@ public class ModuleAPM extends ModuleBase {
     void halt() {
         codeTraces = null;
         networkTraces = null;
+        networkTraceAggregator = null;
     }
 
     /**
@@ -60,4 +60,11 @@ abstract class ModuleBase {
 
     void initFinished(CountlyConfig config) {
     }
+
+    /**
+     * Called after {@link #initFinished(CountlyConfig)} for work that needs the stored state or the disk.
+     * If init is asynchronous, this is called later from a background thread while holding the SDK lock.
+     */
+    void initStateLoaded(CountlyConfig config) {
+    }
 }
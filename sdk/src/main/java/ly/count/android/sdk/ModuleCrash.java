@@ -1,25 +1,38 @@
 package ly.count.android.sdk;
 
 import android.content.Context;
-import android.util.Base64;
 import android.util.Log;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ModuleCrash extends ModuleBase {
     //native crash
     private static final String countlyFolderName = "Countly";
     private static final String countlyNativeCrashFolderName = "CrashDumps";
+    //dumps are moved here until their crash report is sent
+    private static final String countlyPendingCrashFolderName = "PendingCrashDumps";
+    private static final String crashJournalFileName = "crash_journal";
+
+    //how long dropped reports are counted before the count is added to the queued report, value is configurable for tests
+    static long REPEATS_COLLECTION_DELAY_MS = 1000;
 
     //crash filtering
     CrashFilterCallback crashFilterCallback;
 
     boolean recordAllThreads = false;
 
+    //uncaught crashes are written here and sent on the next launch, null if the file can't be mapped
+    CrashJournal crashJournal = null;
+
+    //limits the reports of handled exceptions, null if there are no limits
+    CrashDeduplicator crashDeduplicator = null;
+
     //interface for SDK users
     final Crashes crashesInterface;
 
@@ -36,6 +49,15 @@ public class ModuleCrash extends ModuleBase {
 
         recordAllThreads = config.recordAllThreadsWithCrash;
 
+        if ((config.crashDeduplicationMaxReports > 0 && config.crashDeduplicationIntervalMs > 0) || (config.crashRateLimitMaxReports > 0 && config.crashRateLimitIntervalMs > 0)) {
+            crashDeduplicator = new CrashDeduplicator(config.crashDeduplicationMaxReports, config.crashDeduplicationIntervalMs, config.crashRateLimitMaxReports, config.crashRateLimitIntervalMs, System.currentTimeMillis());
+        }
+
+        if (config.context != null) {
+            CrashDetails.initBreadcrumbFile(new File(config.context.getCacheDir(), countlyFolderName + File.separator + CrashDetails.breadcrumbFileName), L);
+            crashJournal = CrashJournal.open(new File(config.context.getCacheDir(), countlyFolderName + File.separator + crashJournalFileName), L);
+        }
+
         _cly.setCustomCrashSegmentsInternal(config.customCrashSegment);
 
         crashesInterface = new Crashes();
@@ -67,52 +89,112 @@ public class ModuleCrash extends ModuleBase {
             L.d("[ModuleCrash] Crash dump folder contains [" + dumpFileCount + "] files");
 
             if (dumpFiles != null) {
+                File pendingFolder = new File(basePath + File.separator + countlyFolderName + File.separator + countlyPendingCrashFolderName);
                 for (File dumpFile : dumpFiles) {
-                    //record crash
-                    recordNativeException(dumpFile);
-
-                    //delete dump file
-                    dumpFile.delete();
+                    //record crash, the dump file is moved or deleted
+                    recordNativeException(dumpFile, pendingFolder);
                 }
             }
         } else {
             L.d("[ModuleCrash] Native crash folder does not exist");
         }
+
+        deleteUnqueuedCrashDumps(new File(basePath + File.separator + countlyFolderName + File.separator + countlyPendingCrashFolderName));
+
+        //the breadcrumbs of the previous run only belong to its crashes
+        CrashDetails.clearPreviousRunLogs();
     }
 
-    private synchronized void recordNativeException(File dumpFile) {
+    private synchronized void recordNativeException(File dumpFile, File pendingFolder) {
         L.d("[ModuleCrash] Recording native crash dump: [" + dumpFile.getName() + "]");
 
         //check for consent
         if (!_cly.getConsent(Countly.CountlyFeatureNames.crashes)) {
+            dumpFile.delete();
             return;
         }
 
-        //read bytes
-        int size = (int) dumpFile.length();
-        byte[] bytes = new byte[size];
-
-        try {
-            BufferedInputStream buf = new BufferedInputStream(new FileInputStream(dumpFile));
-            buf.read(bytes, 0, bytes.length);
-            buf.close();
-        } catch (Exception e) {
-            L.e("[ModuleCrash] Failed to read dump file bytes");
-            e.printStackTrace();
+        //the dump is not read here, only its path is queued and the file is streamed when the request is sent
+        if (!pendingFolder.exists()) {
+            pendingFolder.mkdirs();
+        }
+        File pendingFile = new File(pendingFolder, UtilsTime.currentTimestampMs() + "_" + dumpFile.getName());
+        if (!dumpFile.renameTo(pendingFile)) {
+            L.e("[ModuleCrash] Failed to move native crash dump, dropping it");
+            dumpFile.delete();
             return;
         }
 
-        //convert to base64
-        String dumpString = Base64.encodeToString(bytes, Base64.NO_WRAP);
-
         //record crash
-        _cly.connectionQueue_.sendCrashReport(dumpString, false, true, null);
+        _cly.connectionQueue_.sendNativeCrashDump(pendingFile);
+    }
+
+    /**
+     * Deletes dumps whose crash report is no longer in the request queue
+     */
+    void deleteUnqueuedCrashDumps(File pendingFolder) {
+        File[] pendingFiles = pendingFolder.listFiles();
+        if (pendingFiles == null || pendingFiles.length == 0) {
+            return;
+        }
+
+        //paths of the dumps that are still queued, collected once instead of searching the requests for every file
+        Set<String> queuedPaths = new HashSet<>();
+        for (String request : _cly.connectionQueue_.getCountlyStore().connections()) {
+            String encodedPath = StoredRequest.paramValue(request, CrashDetails.nativeDumpPathKey);
+            if (encodedPath != null) {
+                queuedPaths.add(UtilsNetworking.urlDecodeString(encodedPath));
+            }
+        }
+
+        for (File pendingFile : pendingFiles) {
+            if (!queuedPaths.contains(pendingFile.getAbsolutePath())) {
+                L.d("[ModuleCrash] Deleting native crash dump that is not queued anymore: [" + pendingFile.getName() + "]");
+                pendingFile.delete();
+            }
+        }
     }
 
     void setCrashFilterCallback(CrashFilterCallback callback) {
         crashFilterCallback = callback;
     }
 
+    /**
+     * Writes an uncaught crash into the crash journal, so that it is sent on the next launch
+     *
+     * @return false if the crash could not be written and has to be sent right away
+     */
+    boolean journalCrash(String exceptionString) {
+        if (crashJournal == null) {
+            return false;
+        }
+
+        return crashJournal.write(exceptionString, UtilsTime.currentTimestampMs(), CrashDetails.getRunningSeconds(), CrashDetails.inBackgroundState());
+    }
+
+    /**
+     * Makes a crash request from the crash in the journal and clears the journal
+     *
+     * @param logs breadcrumbs of the run that crashed
+     */
+    void sendJournaledCrash(String logs) {
+        synchronized (_cly) {
+            if (_cly.moduleCrash != this) {
+                //halted meanwhile
+                return;
+            }
+
+            CrashJournal.Record record = crashJournal.read();
+            if (record != null) {
+                L.d("[ModuleCrash] Sending crash of the previous run from the crash journal");
+                _cly.connectionQueue_.sendJournaledCrashReport(record, logs);
+            }
+
+            //the request is stored, so the crash can be removed from the journal
+            crashJournal.clear();
+        }
+    }
+
     /**
      * Call to check if crash matches one of the filters
      * If it does, the crash should be ignored
@@ -174,6 +256,29 @@ public class ModuleCrash extends ModuleBase {
             return _cly;
         }
 
+        if (itIsHandled && crashDeduplicator != null) {
+            //checked before the stack trace is printed, so that dropped reports cost as little as possible
+            final long fingerprint = CrashDeduplicator.fingerprint(exception);
+            if (!crashDeduplicator.onReport(fingerprint, System.currentTimeMillis(), exception, customSegmentation)) {
+                L.d("[ModuleCrash] recordException, the same exception was reported too often, dropping it");
+                scheduleRepeatsCollection();
+                return _cly;
+            }
+
+            crashDeduplicator.onReportQueued(fingerprint, sendException(exception, true, customSegmentation));
+            return _cly;
+        }
+
+        sendException(exception, itIsHandled, customSegmentation);
+        return _cly;
+    }
+
+    /**
+     * Sends a crash report of the exception, unless the crash filter matches it
+     *
+     * @return timestamp of the queued request, 0 if nothing was queued
+     */
+    long sendException(final Throwable exception, final boolean itIsHandled, final Map<String, Object> customSegmentation) {
         StringWriter sw = new StringWriter();
         PrintWriter pw = new PrintWriter(sw);
         exception.printStackTrace(pw);
@@ -186,10 +291,54 @@ public class ModuleCrash extends ModuleBase {
 
         if (crashFilterCheck(exceptionString)) {
             L.d("[ModuleCrash] Crash filter found a match, exception will be ignored, [" + exceptionString.substring(0, Math.min(exceptionString.length(), 60)) + "]");
-        } else {
-            _cly.connectionQueue_.sendCrashReport(exceptionString, itIsHandled, false, customSegmentation);
+            return 0;
+        }
+        return _cly.connectionQueue_.sendCrashReport(exceptionString, itIsHandled, false, customSegmentation);
+    }
+
+    private void scheduleRepeatsCollection() {
+        if (!crashDeduplicator.scheduleCollection()) {
+            return;
+        }
+
+        _cly.scheduler_.schedule(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+            @Override
+            public void run() {
+                addSuppressedRepeats();
+            }
+        }, REPEATS_COLLECTION_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the counts of dropped reports to the queued reports they were dropped after.
+     * If such a report is not queued anymore, the last dropped exception is sent with the rest of the count instead.
+     */
+    void addSuppressedRepeats() {
+        synchronized (_cly) {
+            if (_cly.moduleCrash != this) {
+                //halted meanwhile
+                return;
+            }
+
+            final CountlyStore store = _cly.connectionQueue_.getCountlyStore();
+            for (CrashDeduplicator.Repeats repeats : crashDeduplicator.takeRepeats()) {
+                if (repeats.reportTimestamp != 0 && store != null && store.addCrashRepeats(repeats.reportTimestamp, repeats.count)) {
+                    L.d("[ModuleCrash] Added [" + repeats.count + "] dropped repeats to the queued crash report");
+                    continue;
+                }
+
+                L.d("[ModuleCrash] Crash report of [" + repeats.count + "] dropped repeats is not queued anymore, sending the last repeat");
+                Map<String, Object> segmentation = repeats.customSegmentation;
+                if (repeats.count > 1) {
+                    segmentation = new HashMap<>();
+                    if (repeats.customSegmentation != null) {
+                        segmentation.putAll(repeats.customSegmentation);
+                    }
+                    segmentation.put(CrashDeduplicator.REPEATS_KEY, repeats.count - 1);
+                }
+                sendException(repeats.exception, true, segmentation);
+            }
         }
-        return _cly;
     }
 
     @SuppressWarnings("InfiniteRecursion")
@@ -224,7 +373,19 @@ public class ModuleCrash extends ModuleBase {
     }
 
     @Override
-    void initFinished(CountlyConfig config) {
+    void initStateLoaded(CountlyConfig config) {
+        //crash of the previous run that was written by the uncaught exception handler
+        if (crashJournal != null && crashJournal.hasRecord()) {
+            //the breadcrumbs of the previous run belong to this crash, they are not added to native crash dumps too
+            final String logs = CrashDetails.takePreviousRunLogs();
+            _cly.scheduler_.submit(SdkScheduler.Lane.PERSISTENCE, new Runnable() {
+                @Override
+                public void run() {
+                    sendJournaledCrash(logs);
+                }
+            });
+        }
+
         //check for previous native crash dumps
         if (config.checkForNativeCrashDumps) {
             //flag so that this can be turned off during testing
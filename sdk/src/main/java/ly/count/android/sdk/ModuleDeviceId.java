@@ -57,22 +57,8 @@ class ModuleDeviceId extends ModuleBase {
         _cly.connectionQueue_.getDeviceId().changeToId(_cly.context_, _cly.connectionQueue_.getCountlyStore(), type, deviceId);
 
         //update stored request for ID change to use this new ID
-        String[] storedRequests = _cly.connectionQueue_.getCountlyStore().connections();
-        String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
-        String newIdTag = "&device_id=" + deviceId;
-
-        boolean foundOne = false;
-        for (int a = 0; a < storedRequests.length; a++) {
-            if (storedRequests[a].contains(temporaryIdTag)) {
-                L.d("[ModuleDeviceId] [exitTemporaryIdMode] Found a tag to replace in: [" + storedRequests[a] + "]");
-                storedRequests[a] = storedRequests[a].replace(temporaryIdTag, newIdTag);
-                foundOne = true;
-            }
-        }
-
-        if (foundOne) {
-            _cly.connectionQueue_.getCountlyStore().replaceConnections(storedRequests);
-        }
+        int replaced = _cly.connectionQueue_.getCountlyStore().replaceTemporaryDeviceId(deviceId);
+        L.d("[ModuleDeviceId] [exitTemporaryIdMode] Replaced the temporary ID in [" + replaced + "] requests");
 
         //update remote config_ values if automatic update is enabled
         _cly.remoteConfigClearValues();
@@ -3,6 +3,8 @@ package ly.count.android.sdk;
 import android.util.Log;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import ly.count.android.sdk.messaging.ModulePush;
 
 public class ModuleEvents extends ModuleBase {
@@ -14,6 +16,11 @@ public class ModuleEvents extends ModuleBase {
 
     ModuleLog L;
 
+    //buffer and worker for recording events off the calling thread, null if not enabled
+    EventRingBuffer<PendingEvent> ingestionBuffer = null;
+    ExecutorService ingestionWorker = null;
+    final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
     ModuleEvents(Countly cly, CountlyConfig config) {
         super(cly);
 
@@ -21,9 +28,97 @@ public class ModuleEvents extends ModuleBase {
 
         L.v("[ModuleEvents] Initialising");
 
+        if (config.eventIngestionBufferCapacity > 0) {
+            L.d("[ModuleEvents] Using an event ingestion buffer with capacity [" + config.eventIngestionBufferCapacity + "] and policy [" + config.eventIngestionPolicy + "]");
+            ingestionBuffer = new EventRingBuffer<>(config.eventIngestionBufferCapacity, config.eventIngestionPolicy, config.eventIngestionBlockTimeoutMs);
+            ingestionWorker = cly.scheduler_.executor(SdkScheduler.Lane.PERSISTENCE);
+        }
+
         eventsInterface = new Events();
     }
 
+    /**
+     * Event that was recorded by the developer and is waiting in the ingestion buffer
+     */
+    static class PendingEvent {
+        final String key;
+        final Segmentation segmentation;
+        final int count;
+        final double sum;
+        final double dur;
+        final UtilsTime.Instant instant;
+
+        PendingEvent(String key, Segmentation segmentation, int count, double sum, double dur, UtilsTime.Instant instant) {
+            this.key = key;
+            this.segmentation = segmentation;
+            this.count = count;
+            this.sum = sum;
+            this.dur = dur;
+            this.instant = instant;
+        }
+    }
+
+    /**
+     * Puts the event into the ingestion buffer, it will be stored by the ingestion worker.
+     * Only the checks that throw are done on the calling thread.
+     */
+    void publishEventInternal(final String key, final Map<String, Object> segmentation, final int count, final double sum, final double dur, UtilsTime.Instant instant) {
+        //copy the segmentation so that later changes by the caller don't affect the event
+        publishSegmentedEventInternal(key, segmentation == null ? null : Segmentation.fromMap(segmentation, L), count, sum, dur, instant);
+    }
+
+    /**
+     * Puts the event into the ingestion buffer
+     *
+     * @param segmentation segmentation that is not changed by the caller afterwards, can be null
+     */
+    void publishSegmentedEventInternal(final String key, final Segmentation segmentation, final int count, final double sum, final double dur, UtilsTime.Instant instant) {
+        if (key == null || key.length() == 0) {
+            throw new IllegalArgumentException("Valid Countly event key is required");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Countly event count should be greater than zero");
+        }
+        if (!_cly.isInitialized()) {
+            throw new IllegalStateException("Countly.sharedInstance().init must be called before recordEvent");
+        }
+
+        if (instant == null) {
+            instant = UtilsTime.getCurrentInstant();
+        }
+
+        if (!ingestionBuffer.publish(new PendingEvent(key, segmentation, count, sum, dur, instant))) {
+            L.w("[ModuleEvents] Event ingestion buffer is full, dropping event: [" + key + "]");
+        }
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            ingestionWorker.submit(new Runnable() {
+                @Override
+                public void run() {
+                    drainIngestionBuffer();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stores all events from the ingestion buffer, runs on the ingestion worker
+     */
+    void drainIngestionBuffer() {
+        drainScheduled.set(false);
+
+        PendingEvent pending;
+        while ((pending = ingestionBuffer.poll()) != null) {
+            synchronized (_cly) {
+                try {
+                    recordSegmentedEventInternal(pending.key, pending.segmentation, pending.count, pending.sum, pending.dur, pending.instant, false);
+                } catch (RuntimeException ex) {
+                    L.e("[ModuleEvents] Failed to record event from the ingestion buffer: [" + pending.key + "], " + ex);
+                }
+            }
+        }
+    }
+
     void checkCachedPushData(CountlyStore cs) {
         L.d("[ModuleEvents] Starting cache call");
 
@@ -79,41 +174,89 @@ public class ModuleEvents extends ModuleBase {
             segmentationInt = new HashMap<>();
             segmentationDouble = new HashMap<>();
             segmentationBoolean = new HashMap<>();
-            Map<String, Object> segmentationReminder = new HashMap<>();
 
-            Utils.removeUnsupportedDataTypes(segmentation);
-            if (!processedSegmentation) {
-                Utils.removeKeysFromMap(segmentation, ModuleEvents.reservedSegmentationKeys);
-            }
-            Utils.fillInSegmentation(segmentation, segmentationString, segmentationInt, segmentationDouble, segmentationBoolean, segmentationReminder);
-
-            if (segmentationReminder.size() > 0) {
-                if (L.logEnabled()) {
-                    L.w("[ModuleEvents] Event contains events segments with unsupported types:");
-
-                    for (String k : segmentationReminder.keySet()) {
-                        if (k != null) {
-                            Object obj = segmentationReminder.get(k);
-                            if (obj != null) {
-                                L.w("[ModuleEvents] Event segmentation key:[" + k + "], value type:[" + obj.getClass().getCanonicalName() + "]");
-                            }
-                        }
-                    }
-                }
-            }
+            //validation, reserved key filtering and sorting by type are done in a single pass, the provided map is not changed
+            final String[] reservedKeys = processedSegmentation ? null : ModuleEvents.reservedSegmentationKeys;
+            boolean removedUnsupported = false;
+            for (Map.Entry<String, Object> pair : segmentation.entrySet()) {
+                final String k = pair.getKey();
+                final Object value = pair.getValue();
 
-            for (String k : segmentationString.keySet()) {
-                if (k == null || k.length() == 0) {
-                    L.e("[ModuleEvents] Countly event segmentation key cannot be null or empty, skipping");
+                if (k == null || k.length() == 0 || value == null) {
+                    removedUnsupported = true;
                     continue;
                 }
-                if (segmentationString.get(k) == null) {
-                    L.e("[ModuleEvents] Countly event segmentation value cannot be null, skipping");
+                if (Segmentation.isReserved(k, reservedKeys)) {
                     continue;
                 }
+
+                if (value instanceof String) {
+                    segmentationString.put(k, (String) value);
+                } else if (value instanceof Integer) {
+                    segmentationInt.put(k, (Integer) value);
+                } else if (value instanceof Double) {
+                    segmentationDouble.put(k, (Double) value);
+                } else if (value instanceof Boolean) {
+                    segmentationBoolean.put(k, (Boolean) value);
+                } else {
+                    if (!removedUnsupported) {
+                        L.w("[ModuleEvents] Event contains events segments with unsupported types:");
+                    }
+                    removedUnsupported = true;
+                    L.w("[ModuleEvents] Event segmentation key:[" + k + "], value type:[" + value.getClass().getCanonicalName() + "]");
+                }
+            }
+
+            if (removedUnsupported) {
+                L.w("[ModuleEvents] Unsupported data types were removed from provided segmentation");
             }
         }
 
+        recordTypedEventInternal(key, segmentationString, segmentationInt, segmentationDouble, segmentationBoolean, count, sum, dur, instant);
+    }
+
+    /**
+     * Same as {@link #recordEventInternal(String, Map, int, double, double, UtilsTime.Instant, boolean)}, for typed segmentation
+     *
+     * @param segmentation typed segmentation, can be null
+     * @param processedSegmentation if segmentation has been processed and reserved keywords should not be removed
+     */
+    synchronized void recordSegmentedEventInternal(final String key, final Segmentation segmentation, final int count, final double sum, final double dur, UtilsTime.Instant instant, boolean processedSegmentation) {
+        L.v("[ModuleEvents] calling 'recordSegmentedEventInternal'");
+        if (key == null || key.length() == 0) {
+            throw new IllegalArgumentException("Valid Countly event key is required");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Countly event count should be greater than zero");
+        }
+
+        L.d("[ModuleEvents] Recording event with key: [" + key + "]");
+
+        if (!_cly.isInitialized()) {
+            throw new IllegalStateException("Countly.sharedInstance().init must be called before recordEvent");
+        }
+
+        Map<String, String> segmentationString = null;
+        Map<String, Integer> segmentationInt = null;
+        Map<String, Double> segmentationDouble = null;
+        Map<String, Boolean> segmentationBoolean = null;
+
+        if (segmentation != null) {
+            segmentationString = new HashMap<>();
+            segmentationInt = new HashMap<>();
+            segmentationDouble = new HashMap<>();
+            segmentationBoolean = new HashMap<>();
+            segmentation.partition(processedSegmentation ? null : ModuleEvents.reservedSegmentationKeys, segmentationString, segmentationInt, segmentationDouble, segmentationBoolean);
+        }
+
+        recordTypedEventInternal(key, segmentationString, segmentationInt, segmentationDouble, segmentationBoolean, count, sum, dur, instant);
+    }
+
+    /**
+     * Stores an event with segmentation that is already sorted by type, if the needed consent is given
+     */
+    private void recordTypedEventInternal(final String key, final Map<String, String> segmentationString, final Map<String, Integer> segmentationInt, final Map<String, Double> segmentationDouble,
+        final Map<String, Boolean> segmentationBoolean, final int count, final double sum, final double dur, UtilsTime.Instant instant) {
         switch (key) {
             case ModuleFeedback.NPS_EVENT_KEY:
             case ModuleFeedback.SURVEY_EVENT_KEY:
@@ -208,13 +351,18 @@ public class ModuleEvents extends ModuleBase {
     }
 
     @Override
-    void initFinished(CountlyConfig config) {
+    void initStateLoaded(CountlyConfig config) {
         checkCachedPushData(_cly.connectionQueue_.getCountlyStore());
     }
 
     @Override
     void halt() {
         timedEvents.clear();
+
+        //the worker is stopped together with the other lanes of the scheduler
+        if (ingestionBuffer != null) {
+            ingestionBuffer.clear();
+        }
     }
 
     public class Events {
@@ -228,13 +376,11 @@ public class ModuleEvents extends ModuleBase {
          * @param timestamp unix timestamp in miliseconds of when the event occurred
          */
         public void recordPastEvent(final String key, final Map<String, Object> segmentation, long timestamp) {
-            synchronized (_cly) {
-                if (timestamp == 0) {
-                    throw new IllegalStateException("Provided timestamp has to be greater that zero");
-                }
-
-                recordPastEvent(key, segmentation, 1, 0, 0, timestamp);
+            if (timestamp == 0) {
+                throw new IllegalStateException("Provided timestamp has to be greater that zero");
             }
+
+            recordPastEvent(key, segmentation, 1, 0, 0, timestamp);
         }
 
         /**
@@ -250,6 +396,17 @@ public class ModuleEvents extends ModuleBase {
          * @param timestamp unix timestamp in miliseconds of when the event occurred
          */
         public void recordPastEvent(final String key, final Map<String, Object> segmentation, final int count, final double sum, final double dur, long timestamp) {
+            if (ingestionBuffer != null) {
+                L.i("[Events] Calling recordPastEvent: [" + key + "]");
+
+                if (timestamp == 0) {
+                    throw new IllegalStateException("Provided timestamp has to be greater that zero");
+                }
+
+                publishEventInternal(key, segmentation, count, sum, dur, UtilsTime.Instant.get(timestamp));
+                return;
+            }
+
             synchronized (_cly) {
                 L.i("[Events] Calling recordPastEvent: [" + key + "]");
 
@@ -336,9 +493,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty
          */
         public void recordEvent(final String key) {
-            synchronized (_cly) {
-                recordEvent(key, null, 1, 0);
-            }
+            recordEvent(key, null, 1, 0);
         }
 
         /**
@@ -350,9 +505,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty
          */
         public void recordEvent(final String key, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, 0);
-            }
+            recordEvent(key, null, count, 0);
         }
 
         /**
@@ -365,9 +518,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty
          */
         public void recordEvent(final String key, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, sum);
-            }
+            recordEvent(key, null, count, sum);
         }
 
         /**
@@ -379,9 +530,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty
          */
         public void recordEvent(final String key, final Map<String, Object> segmentation) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, 1, 0);
-            }
+            recordEvent(key, segmentation, 1, 0);
         }
 
         /**
@@ -394,9 +543,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty
          */
         public void recordEvent(final String key, final Map<String, Object> segmentation, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, 0);
-            }
+            recordEvent(key, segmentation, count, 0);
         }
 
         /**
@@ -410,9 +557,7 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty, count is less than 1, or if segmentation contains null or empty keys or values
          */
         public void recordEvent(final String key, final Map<String, Object> segmentation, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, sum, 0);
-            }
+            recordEvent(key, segmentation, count, sum, 0);
         }
 
         /**
@@ -427,6 +572,13 @@ public class ModuleEvents extends ModuleBase {
          * @throws IllegalArgumentException if key is null or empty, count is less than 1, or if segmentation contains null or empty keys or values
          */
         public void recordEvent(final String key, final Map<String, Object> segmentation, final int count, final double sum, final double dur) {
+            if (ingestionBuffer != null) {
+                L.i("[Events] Calling recordEvent: [" + key + "]");
+
+                publishEventInternal(key, segmentation, count, sum, dur, null);
+                return;
+            }
+
             synchronized (_cly) {
                 if (!_cly.isInitialized()) {
                     throw new IllegalStateException("Countly.sharedInstance().init must be called before recordEvent");
@@ -437,5 +589,49 @@ public class ModuleEvents extends ModuleBase {
                 recordEventInternal(key, segmentation, count, sum, dur, null, false);
             }
         }
+
+        /**
+         * Records a custom event with typed segmentation.
+         * The segmentation builder can be cleared and reused right after this call.
+         *
+         * @param key name of the custom event, required, must not be the empty string
+         * @param segmentation typed segmentation to associate with the event, can be null
+         * @throws IllegalStateException if Countly SDK has not been initialized
+         * @throws IllegalArgumentException if key is null or empty
+         */
+        public void recordSegmentedEvent(final String key, final Segmentation segmentation) {
+            recordSegmentedEvent(key, segmentation, 1, 0, 0);
+        }
+
+        /**
+         * Records a custom event with typed segmentation and the specified values.
+         * The segmentation builder can be cleared and reused right after this call.
+         *
+         * @param key name of the custom event, required, must not be the empty string
+         * @param segmentation typed segmentation to associate with the event, can be null
+         * @param count count to associate with the event, should be more than zero
+         * @param sum sum to associate with the event
+         * @param dur duration of an event
+         * @throws IllegalStateException if Countly SDK has not been initialized
+         * @throws IllegalArgumentException if key is null or empty, or count is less than 1
+         */
+        public void recordSegmentedEvent(final String key, final Segmentation segmentation, final int count, final double sum, final double dur) {
+            if (ingestionBuffer != null) {
+                L.i("[Events] Calling recordSegmentedEvent: [" + key + "]");
+
+                publishSegmentedEventInternal(key, segmentation == null ? null : segmentation.copy(), count, sum, dur, null);
+                return;
+            }
+
+            synchronized (_cly) {
+                if (!_cly.isInitialized()) {
+                    throw new IllegalStateException("Countly.sharedInstance().init must be called before recordEvent");
+                }
+
+                L.i("[Events] Calling recordSegmentedEvent: [" + key + "]");
+
+                recordSegmentedEventInternal(key, segmentation, count, sum, dur, null, false);
+            }
+        }
     }
 }
@@ -72,7 +72,7 @@ public class ModuleFeedback extends ModuleBase {
 
         String requestData = _cly.connectionQueue_.prepareFeedbackListRequest();
 
-        (new ImmediateRequestMaker()).execute(requestData, "/o/sdk", cp, false, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
+        (new ImmediateRequestMaker()).executeOnExecutor(_cly.scheduler_.executor(SdkScheduler.Lane.IMMEDIATE), requestData, "/o/sdk", cp, false, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
             @Override public void callback(JSONObject checkResponse) {
                 if (checkResponse == null) {
                     L.d("[ModuleFeedback] Not possible to retrieve widget list. Probably due to lack of connection to the server");
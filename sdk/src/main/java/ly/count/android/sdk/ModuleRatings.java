@@ -479,7 +479,7 @@ public class ModuleRatings extends ModuleBase {
 
         ConnectionProcessor cp = _cly.connectionQueue_.createConnectionProcessor();
 
-        (new ImmediateRequestMaker()).execute(requestData, "/o/feedback/widget", cp, false, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
+        (new ImmediateRequestMaker()).executeOnExecutor(_cly.scheduler_.executor(SdkScheduler.Lane.IMMEDIATE), requestData, "/o/feedback/widget", cp, false, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
             @Override
             public void callback(JSONObject checkResponse) {
                 if (checkResponse == null) {
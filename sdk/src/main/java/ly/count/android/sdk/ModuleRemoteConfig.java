@@ -1,6 +1,7 @@
 package ly.count.android.sdk;
 
 import android.util.Log;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -13,6 +14,9 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     RemoteConfig remoteConfigInterface = null;
 
+    //parsed stored values, replaced as a whole whenever the stored values change
+    private volatile RemoteConfigSnapshot snapshot_ = null;
+
     ModuleLog L;
 
     ModuleRemoteConfig(Countly cly, CountlyConfig config) {
@@ -84,7 +88,7 @@ public class ModuleRemoteConfig extends ModuleBase {
 
         ConnectionProcessor cp = connectionQueue_.createConnectionProcessor();
 
-        (new ImmediateRequestMaker()).execute(requestData, "/o/sdk", cp, requestShouldBeDelayed, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
+        (new ImmediateRequestMaker()).executeOnExecutor(_cly.scheduler_.executor(SdkScheduler.Lane.IMMEDIATE), requestData, "/o/sdk", cp, requestShouldBeDelayed, new ImmediateRequestMaker.InternalFeedbackRatingCallback() {
             @Override
             public void callback(JSONObject checkResponse) {
                 L.d("[ModuleRemoteConfig] Processing remote config received response, received response is null:[" + (checkResponse == null) + "]");
@@ -117,12 +121,31 @@ public class ModuleRemoteConfig extends ModuleBase {
     }
 
     Object getValue(String key) {
-        RemoteConfigValueStore rcvs = loadConfig();
-        return rcvs.getValue(key);
+        return getSnapshot().getValue(key);
+    }
+
+    /**
+     * Returns the parsed stored values. They are only parsed the first time, after that the snapshot
+     * is replaced when new values are saved, so reads don't touch the storage.
+     */
+    RemoteConfigSnapshot getSnapshot() {
+        RemoteConfigSnapshot snapshot = snapshot_;
+        if (snapshot == null) {
+            synchronized (this) {
+                if (snapshot_ == null) {
+                    snapshot_ = RemoteConfigSnapshot.fromJSON(loadConfig().values);
+                }
+                snapshot = snapshot_;
+            }
+        }
+        return snapshot;
     }
 
     void saveConfig(RemoteConfigValueStore rcvs) {
-        _cly.connectionQueue_.getCountlyStore().setRemoteConfigValues(rcvs.dataToString());
+        synchronized (this) {
+            _cly.connectionQueue_.getCountlyStore().setRemoteConfigValues(rcvs.dataToString());
+            snapshot_ = RemoteConfigSnapshot.fromJSON(rcvs.values);
+        }
     }
 
     RemoteConfigValueStore loadConfig() {
@@ -134,12 +157,103 @@ public class ModuleRemoteConfig extends ModuleBase {
     }
 
     void clearValueStore() {
-        _cly.connectionQueue_.getCountlyStore().setRemoteConfigValues("");
+        synchronized (this) {
+            _cly.connectionQueue_.getCountlyStore().setRemoteConfigValues("");
+            snapshot_ = RemoteConfigSnapshot.EMPTY;
+        }
     }
 
     Map<String, Object> getAllRemoteConfigValuesInternal() {
-        RemoteConfigValueStore rcvs = loadConfig();
-        return rcvs.getAllValues();
+        return getSnapshot().getAllValues();
+    }
+
+    /**
+     * Returns the value for the typed getters, or null if there is no value or no consent.
+     * When consent is not required, this doesn't take the Countly lock.
+     */
+    Object getValueForTypedGetter(String key) {
+        if (key == null) {
+            return null;
+        }
+        if (_cly.requiresConsent && !_cly.consent().getConsent(Countly.CountlyFeatureNames.remoteConfig)) {
+            return null;
+        }
+        return getSnapshot().values.get(key);
+    }
+
+    /**
+     * Immutable parsed remote config values
+     */
+    static final class RemoteConfigSnapshot {
+        static final RemoteConfigSnapshot EMPTY = new RemoteConfigSnapshot(Collections.<String, Object>emptyMap());
+
+        final Map<String, Object> values;
+
+        private RemoteConfigSnapshot(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        static RemoteConfigSnapshot fromJSON(JSONObject json) {
+            if (json == null || json.length() == 0) {
+                return EMPTY;
+            }
+
+            Map<String, Object> values = new HashMap<>();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = json.opt(key);
+                if (value instanceof JSONObject || value instanceof JSONArray) {
+                    //nested values are kept as strings so that they can't be modified through the snapshot
+                    value = new NestedJSON(value.toString(), value instanceof JSONArray);
+                }
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+            return new RemoteConfigSnapshot(Collections.unmodifiableMap(values));
+        }
+
+        /**
+         * Returns the value as it would be returned from the stored JSON, nested objects are returned as new copies
+         */
+        Object getValue(String key) {
+            if (key == null) {
+                return null;
+            }
+            Object value = values.get(key);
+            if (value instanceof NestedJSON) {
+                return ((NestedJSON) value).parse();
+            }
+            return value;
+        }
+
+        Map<String, Object> getAllValues() {
+            Map<String, Object> ret = new HashMap<>();
+            for (String key : values.keySet()) {
+                ret.put(key, getValue(key));
+            }
+            return ret;
+        }
+    }
+
+    static final class NestedJSON {
+        final String json;
+        final boolean isArray;
+
+        NestedJSON(String json, boolean isArray) {
+            this.json = json;
+            this.isArray = isArray;
+        }
+
+        Object parse() {
+            try {
+                return isArray ? new JSONArray(json) : new JSONObject(json);
+            } catch (JSONException ex) {
+                Countly.sharedInstance().L.e("[RemoteConfigSnapshot] Failed to parse nested value: " + ex.toString());
+                return null;
+            }
+        }
     }
 
     static class RemoteConfigValueStore {
@@ -229,7 +343,7 @@ public class ModuleRemoteConfig extends ModuleBase {
     }
 
     @Override
-    public void initFinished(CountlyConfig config){
+    void initStateLoaded(CountlyConfig config) {
         //update remote config_ values if automatic update is enabled and we are not in temporary id mode
         if (_cly.remoteConfigAutomaticUpdateEnabled && _cly.getConsent(Countly.CountlyFeatureNames.remoteConfig) && !_cly.connectionQueue_.getDeviceId().temporaryIdModeEnabled()) {
             L.d("[Init] Automatically updating remote config values");
@@ -240,6 +354,7 @@ public class ModuleRemoteConfig extends ModuleBase {
     @Override
     public void halt() {
         remoteConfigInterface = null;
+        snapshot_ = null;
     }
 
     public class RemoteConfig {
@@ -284,6 +399,53 @@ public class ModuleRemoteConfig extends ModuleBase {
             }
         }
 
+        //the typed getters are meant to be called very often, so they don't log and don't allocate
+
+        /**
+         * Get the stored boolean value for the provided remote config key
+         *
+         * @param key
+         * @param defaultValue returned if there is no value, the value is not a boolean or there is no consent
+         * @return
+         */
+        public boolean getBoolean(String key, boolean defaultValue) {
+            Object value = getValueForTypedGetter(key);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+            return defaultValue;
+        }
+
+        /**
+         * Get the stored numeric value for the provided remote config key. Decimal values are truncated.
+         *
+         * @param key
+         * @param defaultValue returned if there is no value, the value is not a number or there is no consent
+         * @return
+         */
+        public long getLong(String key, long defaultValue) {
+            Object value = getValueForTypedGetter(key);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return defaultValue;
+        }
+
+        /**
+         * Get the stored string value for the provided remote config key
+         *
+         * @param key
+         * @param defaultValue returned if there is no value, the value is not a string or there is no consent
+         * @return
+         */
+        public String getString(String key, String defaultValue) {
+            Object value = getValueForTypedGetter(key);
+            if (value instanceof String) {
+                return (String) value;
+            }
+            return defaultValue;
+        }
+
         /**
          * Manual remote config update call. Will update all keys except the ones provided
          *
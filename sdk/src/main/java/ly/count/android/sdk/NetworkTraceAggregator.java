@@ -0,0 +1,180 @@
+package ly.count.android.sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects network traces per trace key into histograms, so that a summary can be sent
+ * for many requests instead of a request for every trace.
+ *
+ * Response times and payload sizes go into fixed size histograms. Their buckets double in size
+ * for every power of two and each is split into 4 parts, so a percentile read from them is at most
+ * a quarter off from the recorded value.
+ */
+class NetworkTraceAggregator {
+    //the amount of trace keys that are collected at once, value is configurable for tests
+    static int MAX_TRACE_KEYS = 100;
+
+    private final long flushIntervalMs;
+    private final Map<String, TraceSummary> summaries = new LinkedHashMap<>();
+    private long lastFlushMs;
+
+    NetworkTraceAggregator(final long flushIntervalMs, final long now) {
+        this.flushIntervalMs = flushIntervalMs;
+        this.lastFlushMs = now;
+    }
+
+    /**
+     * Histogram of non negative values with buckets of fixed relative size
+     */
+    static final class Histogram {
+        static final int SUB_BUCKET_BITS = 2;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        //values up to 2^32 get their own bucket, larger ones go into the last one
+        static final int BUCKET_COUNT = SUB_BUCKETS + (32 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        final int[] buckets = new int[BUCKET_COUNT];
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+
+        void add(final long value) {
+            final long v = Math.max(value, 0);
+            buckets[bucketIndex(v)]++;
+            count++;
+            sum += v;
+            if (v < min) {
+                min = v;
+            }
+            if (v > max) {
+                max = v;
+            }
+        }
+
+        long mean() {
+            return count == 0 ? 0 : Math.round((double) sum / count);
+        }
+
+        /**
+         * Returns the value below which the given part of the recorded values are
+         *
+         * @param fraction part of the values, between 0 and 1
+         */
+        long percentile(final double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.max(min, Math.min(max, bucketLowerBound(i + 1) - 1));
+                }
+            }
+            return max;
+        }
+
+        static int bucketIndex(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+            return Math.min(BUCKET_COUNT - 1, SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket);
+        }
+
+        static long bucketLowerBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+            final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        }
+    }
+
+    /**
+     * Collected traces of a single trace key
+     */
+    static final class TraceSummary {
+        final String traceKey;
+        final Histogram responseTime = new Histogram();
+        final Histogram requestPayloadSize = new Histogram();
+        final Histogram responsePayloadSize = new Histogram();
+        //response code counts by their first digit, invalid codes are at 0
+        final int[] responseCodeClasses = new int[6];
+        long startMs = Long.MAX_VALUE;
+        long endMs = 0;
+
+        TraceSummary(String traceKey) {
+            this.traceKey = traceKey;
+        }
+
+        int count() {
+            return (int) responseTime.count;
+        }
+
+        /**
+         * Returns a response code that represents the most common class of the recorded codes
+         */
+        int dominantResponseCode() {
+            int best = 0;
+            for (int i = 1; i < responseCodeClasses.length; i++) {
+                if (responseCodeClasses[i] > responseCodeClasses[best]) {
+                    best = i;
+                }
+            }
+            return best * 100;
+        }
+    }
+
+    /**
+     * Adds the trace to the summary of its key
+     *
+     * @return false if there are already too many trace keys and the trace was not added
+     */
+    synchronized boolean add(final String traceKey, final int responseCode, final int requestPayloadSize, final int responsePayloadSize, final long startMs, final long endMs) {
+        TraceSummary summary = summaries.get(traceKey);
+        if (summary == null) {
+            if (summaries.size() >= MAX_TRACE_KEYS) {
+                return false;
+            }
+            summary = new TraceSummary(traceKey);
+            summaries.put(traceKey, summary);
+        }
+
+        summary.responseTime.add(endMs - startMs);
+        summary.requestPayloadSize.add(requestPayloadSize);
+        summary.responsePayloadSize.add(responsePayloadSize);
+        summary.responseCodeClasses[responseCode / 100]++;
+        summary.startMs = Math.min(summary.startMs, startMs);
+        summary.endMs = Math.max(summary.endMs, endMs);
+        return true;
+    }
+
+    /**
+     * Returns true if the flush interval has passed since the last flush
+     */
+    synchronized boolean isFlushDue(final long now) {
+        return now - lastFlushMs >= flushIntervalMs || now < lastFlushMs;
+    }
+
+    /**
+     * Removes and returns all summaries
+     */
+    synchronized List<TraceSummary> removeAll(final long now) {
+        final List<TraceSummary> all = new ArrayList<>(summaries.values());
+        summaries.clear();
+        lastFlushMs = now;
+        return all;
+    }
+
+    synchronized int size() {
+        return summaries.size();
+    }
+}
@@ -0,0 +1,55 @@
+package ly.count.android.sdk;
+
+/**
+ * Kinds of stored requests. When the request queue is over its limits, requests are dropped
+ * class by class in the order in which the classes are declared here, the oldest request first.
+ */
+enum RequestClass {
+    APM,
+    EVENTS,
+    OTHER,
+    USER_DETAILS,
+    SESSION,
+    CONSENT,
+    CRASH,
+    DEVICE_ID;
+
+    /**
+     * Finds the class of a stored request from its parameters
+     */
+    static RequestClass of(final String request) {
+        if (request == null) {
+            return OTHER;
+        }
+        //device ID changes have to stay in order with everything else, they are dropped last
+        if (hasParam(request, "override_id") || hasParam(request, "device_id")) {
+            return DEVICE_ID;
+        }
+        if (hasParam(request, "crash")) {
+            return CRASH;
+        }
+        if (hasParam(request, "consent")) {
+            return CONSENT;
+        }
+        if (hasParam(request, "begin_session") || hasParam(request, "session_duration") || hasParam(request, "end_session")) {
+            return SESSION;
+        }
+        if (hasParam(request, "user_details")) {
+            return USER_DETAILS;
+        }
+        if (hasParam(request, "apm")) {
+            return APM;
+        }
+        if (hasParam(request, "events")) {
+            return EVENTS;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Returns true if the request contains the parameter, without allocating
+     */
+    static boolean hasParam(final String request, final String name) {
+        return StoredRequest.paramIndex(request, name) >= 0;
+    }
+}
@@ -0,0 +1,53 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the gzip compression of request bodies.
+ * They cover the requests sent since the SDK was initialised.
+ */
+public class RequestCompressionStats {
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    void record(long uncompressed, long compressed) {
+        requestCount.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+    }
+
+    /**
+     * Returns the amount of request bodies that were compressed
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the combined size of the request bodies before compression, in bytes
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * Returns the combined size of the request bodies that were sent, in bytes
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Returns the size of the sent bodies in relation to their original size.
+     * For example, 0.25 means that a quarter of the original data was sent.
+     * Returns 1 if nothing was compressed yet.
+     */
+    public double getCompressionRatio() {
+        final long uncompressed = uncompressedBytes.get();
+        if (uncompressed == 0) {
+            return 1;
+        }
+        return (double) compressedBytes.get() / uncompressed;
+    }
+}
@@ -0,0 +1,852 @@
+package ly.count.android.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Append-only, segmented request log that backs the request queue in {@link CountlyStore}.
+ *
+ * Every request is appended as a single length prefixed record to the newest segment file.
+ * Acknowledging the oldest request only advances a persisted head position, and segment
+ * files are deleted once the head has moved past them. Removing a request from the middle of
+ * the queue or replacing the whole queue rewrites the live records into a fresh segment.
+ *
+ * Requests are stored as {@link StoredRequest} records, a typed header followed by the payload,
+ * so that the app key and device ID of stored requests can be checked and changed without
+ * going through their query strings. Segments written in the older plain string format are
+ * converted when the log is opened.
+ *
+ * The live records are also kept in memory, so reads never touch the disk.
+ * If no directory is provided, or the disk can't be written, the log keeps working in memory only.
+ *
+ * The records are also indexed by their {@link RequestClass} together with their size in bytes,
+ * so that the log can be trimmed to its limits without going through all records.
+ *
+ * None of the methods in this class are synchronized because access to this class is
+ * controlled by {@link CountlyStore}, which is synchronized.
+ */
+class RequestLog {
+    static final String DIRECTORY_NAME = "countly_requests";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HEAD_FILE = "head";
+
+    private static final int SEGMENT_MAGIC = 0x434C5251;// "CLRQ"
+    private static final byte SEGMENT_VERSION = 2;
+    private static final byte LEGACY_SEGMENT_VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 5;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int HEAD_SIZE = 12;
+
+    static int SEGMENT_SIZE_LIMIT = 256 * 1024;//value is configurable for tests
+
+    static class Record {
+        final StoredRequest request;
+        final int segment;
+        final long offset;
+        final RequestClass requestClass;
+        final int bytes;
+
+        Record(StoredRequest request, int segment, long offset) {
+            this.request = request;
+            this.segment = segment;
+            this.offset = offset;
+            requestClass = request.requestClass;
+            bytes = request.byteLength();
+        }
+    }
+
+    private final File directory_;
+    //records are compared by identity, so the set keeps the order and allows removing any record directly
+    private final LinkedHashSet<Record> records_ = new LinkedHashSet<>();
+    private final List<ArrayDeque<Record>> recordsByClass_ = new ArrayList<>();
+    private final long[] bytesByClass_ = new long[RequestClass.values().length];
+    private long bytes_ = 0;
+    private int temporaryIdRecords_ = 0;
+
+    private boolean persistent_;
+    private RandomAccessFile tail_ = null;
+    private RandomAccessFile head_ = null;
+    private int firstSegment_ = 0;
+    private int tailSegment_ = 0;
+    private long tailSize_ = 0;
+    private boolean legacySegmentFound_ = false;
+
+    ModuleLog L;
+
+    /**
+     * Opens the log stored in the given directory, recovering any records that were not yet acknowledged.
+     *
+     * @param directory directory for the segment files, if null the log only lives in memory
+     */
+    RequestLog(File directory, ModuleLog logModule) {
+        directory_ = directory;
+        persistent_ = directory != null;
+        L = logModule;
+
+        for (int i = 0; i < RequestClass.values().length; i++) {
+            recordsByClass_.add(new ArrayDeque<Record>());
+        }
+
+        if (persistent_) {
+            try {
+                open();
+            } catch (IOException ex) {
+                disablePersistence("Failed to open request log", ex);
+            }
+        }
+    }
+
+    /**
+     * Returns the stored requests, from the oldest to the newest
+     */
+    String[] requests() {
+        final String[] res = new String[records_.size()];
+        int i = 0;
+        for (Record r : records_) {
+            res[i++] = r.request.render();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the stored requests as records, from the oldest to the newest
+     */
+    List<StoredRequest> storedRequests() {
+        final List<StoredRequest> res = new ArrayList<>(records_.size());
+        for (Record r : records_) {
+            res.add(r.request);
+        }
+        return res;
+    }
+
+    int size() {
+        return records_.size();
+    }
+
+    boolean isEmpty() {
+        return records_.isEmpty();
+    }
+
+    /**
+     * Returns the combined size of the stored requests in bytes
+     */
+    long byteSize() {
+        return bytes_;
+    }
+
+    long byteSize(final RequestClass requestClass) {
+        return bytesByClass_[requestClass.ordinal()];
+    }
+
+    int size(final RequestClass requestClass) {
+        return recordsByClass_.get(requestClass.ordinal()).size();
+    }
+
+    /**
+     * Appends a single request to the end of the log
+     */
+    void append(final String request) {
+        append(StoredRequest.parse(request));
+    }
+
+    void append(final StoredRequest request) {
+        long offset = tailSize_;
+
+        if (persistent_) {
+            try {
+                if (tail_ == null || tailSize_ >= SEGMENT_SIZE_LIMIT) {
+                    startSegment(tailSegment_ + 1);
+                    offset = tailSize_;
+                }
+                tailSize_ += writeRecord(tail_, offset, request);
+            } catch (IOException ex) {
+                disablePersistence("Failed to append to request log", ex);
+            }
+        }
+
+        addRecord(new Record(request, tailSegment_, offset));
+    }
+
+    /**
+     * Acknowledges the oldest request by moving the head past it.
+     * Segments which are fully consumed are deleted.
+     */
+    void removeOldest() {
+        removeOldest(1);
+    }
+
+    /**
+     * Acknowledges the given amount of the oldest requests with a single head move
+     *
+     * @return amount of removed requests
+     */
+    int removeOldest(final int count) {
+        int removed = 0;
+        while (removed < count && !records_.isEmpty()) {
+            removeRecord(firstRecord());
+            removed++;
+        }
+
+        if (removed == 0 || !persistent_) {
+            return removed;
+        }
+
+        final Record next = firstRecord();
+        final int headSegment = next == null ? tailSegment_ : next.segment;
+        final long headOffset = next == null ? tailSize_ : next.offset;
+
+        try {
+            writeHead(headSegment, headOffset);
+            deleteSegmentsBefore(headSegment);
+        } catch (IOException ex) {
+            disablePersistence("Failed to move request log head", ex);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the first request that matches the given one.
+     * Removing the oldest request is cheap, anything else rewrites the log.
+     *
+     * @return true if a matching request was found
+     */
+    boolean remove(final String request) {
+        if (records_.isEmpty()) {
+            return false;
+        }
+
+        if (firstRecord().request.render().equals(request)) {
+            removeOldest();
+            return true;
+        }
+
+        for (Iterator<Record> it = records_.iterator(); it.hasNext(); ) {
+            final Record r = it.next();
+            if (r.request.render().equals(request)) {
+                removeRecord(r);
+                rewrite(storedRequests());
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes requests that were sent together, in a single write. The requests have to be given in the order
+     * they are stored in. If they are still the oldest requests, only the head is moved, otherwise exactly
+     * the matching records are removed and the log is rewritten once.
+     *
+     * @return amount of removed requests
+     */
+    int removeSent(final List<String> sent) {
+        if (sent.isEmpty() || records_.isEmpty()) {
+            return 0;
+        }
+
+        //the matching records, found in a single pass because the requests are in the stored order.
+        //sent requests that were dropped meanwhile are skipped
+        final List<Record> matched = new ArrayList<>(sent.size());
+        boolean oldest = true;
+        int next = 0;
+        for (Record r : records_) {
+            if (next == sent.size()) {
+                break;
+            }
+            final String rendered = r.request.render();
+            int k = next;
+            while (k < sent.size() && !sent.get(k).equals(rendered)) {
+                k++;
+            }
+            if (k < sent.size()) {
+                matched.add(r);
+                next = k + 1;
+            } else {
+                oldest = false;
+            }
+        }
+
+        if (oldest) {
+            return removeOldest(matched.size());
+        }
+
+        for (Record r : matched) {
+            removeRecord(r);
+        }
+        if (!matched.isEmpty()) {
+            rewrite(storedRequests());
+        }
+        return matched.size();
+    }
+
+    /**
+     * Drops requests until the log fits into the given limits. Requests are dropped class by class
+     * in the order of {@link RequestClass}, the oldest request of a class first.
+     * When a limit is exceeded, requests are dropped until a tenth of it is free again,
+     * so that a full log isn't rewritten for every new request.
+     *
+     * @param maxRequests max amount of requests
+     * @param maxBytes max combined size of the requests, 0 or less for no limit
+     * @return amount of dropped requests
+     */
+    int evict(final int maxRequests, final long maxBytes) {
+        long targetBytes = Long.MAX_VALUE;
+        if (maxBytes > 0) {
+            targetBytes = bytes_ > maxBytes ? maxBytes - maxBytes / 10 : maxBytes;
+        }
+
+        final int targetRequests = records_.size() > maxRequests ? maxRequests - maxRequests / 10 : maxRequests;
+
+        int evicted = 0;
+        boolean needsRewrite = false;
+
+        while (!records_.isEmpty() && (records_.size() > targetRequests || bytes_ > targetBytes)) {
+            Record victim = null;
+            for (ArrayDeque<Record> classRecords : recordsByClass_) {
+                victim = classRecords.peekFirst();
+                if (victim != null) {
+                    break;
+                }
+            }
+
+            if (!needsRewrite && victim == firstRecord()) {
+                //the oldest request only moves the head
+                removeOldest();
+            } else {
+                removeRecord(victim);
+                needsRewrite = true;
+            }
+            evicted++;
+        }
+
+        if (needsRewrite) {
+            rewrite(storedRequests());
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Replaces all stored requests with the given ones
+     */
+    void replaceAll(final List<String> requests) {
+        final List<StoredRequest> parsed = new ArrayList<>(requests.size());
+        for (String r : requests) {
+            parsed.add(StoredRequest.parse(r));
+        }
+        rewrite(parsed);
+    }
+
+    /**
+     * Applies the mutation to every request and writes the result with a single rewrite.
+     * Nothing is written if no request was changed.
+     *
+     * @return amount of changed or removed requests
+     */
+    int mutate(final CountlyStore.RequestMutation mutation) {
+        final List<StoredRequest> updated = new ArrayList<>(records_.size());
+        int changed = 0;
+        for (Record r : records_) {
+            final StoredRequest request = mutation.apply(r.request);
+            if (request != r.request) {
+                changed++;
+            }
+            if (request != null) {
+                updated.add(request);
+            }
+        }
+
+        if (changed > 0) {
+            rewrite(updated);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if any request changes or overrides the device ID to the temporary one
+     */
+    boolean containsTemporaryDeviceId() {
+        return temporaryIdRecords_ > 0;
+    }
+
+    /**
+     * Removes all requests and all files that belong to this log
+     */
+    void clear() {
+        clearRecords();
+
+        if (directory_ == null) {
+            return;
+        }
+
+        closeFiles();
+        deleteFiles();
+
+        firstSegment_ = 0;
+        tailSegment_ = 0;
+        tailSize_ = 0;
+        persistent_ = true;
+
+        try {
+            open();
+        } catch (IOException ex) {
+            disablePersistence("Failed to reopen request log", ex);
+        }
+    }
+
+    /**
+     * Writes the given requests into a fresh segment and drops all previous segments.
+     * The new segment is written to a temporary file first, then the head is moved to it
+     * and only then it's renamed, so that a crash in between never duplicates requests.
+     */
+    private void rewrite(final List<StoredRequest> requests) {
+        clearRecords();
+
+        if (!persistent_) {
+            for (StoredRequest r : requests) {
+                addRecord(new Record(r, tailSegment_, 0));
+            }
+            return;
+        }
+
+        final int segment = tailSegment_ + 1;
+        final File tempFile = new File(directory_, SEGMENT_PREFIX + segment + TEMP_SUFFIX);
+
+        try {
+            closeTail();
+
+            RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+            long size;
+            try {
+                file.setLength(0);
+                size = writeSegmentHeader(file);
+                for (StoredRequest r : requests) {
+                    addRecord(new Record(r, segment, size));
+                    size += writeRecord(file, size, r);
+                }
+            } finally {
+                file.close();
+            }
+
+            writeHead(segment, SEGMENT_HEADER_SIZE);
+
+            if (!tempFile.renameTo(segmentFile(segment))) {
+                throw new IOException("Could not rename [" + tempFile + "]");
+            }
+
+            tail_ = new RandomAccessFile(segmentFile(segment), "rw");
+            tailSegment_ = segment;
+            tailSize_ = size;
+            deleteSegmentsBefore(segment);
+        } catch (IOException ex) {
+            disablePersistence("Failed to rewrite request log", ex);
+
+            clearRecords();
+            for (StoredRequest r : requests) {
+                addRecord(new Record(r, tailSegment_, 0));
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory_.isDirectory() && !directory_.mkdirs()) {
+            throw new IOException("Could not create directory [" + directory_ + "]");
+        }
+
+        int headSegment = -1;
+        long headOffset = SEGMENT_HEADER_SIZE;
+
+        final File headFile = new File(directory_, HEAD_FILE);
+        head_ = new RandomAccessFile(headFile, "rw");
+        if (head_.length() >= HEAD_SIZE) {
+            head_.seek(0);
+            headSegment = head_.readInt();
+            headOffset = head_.readLong();
+        }
+
+        //find the existing segments and finish any interrupted rewrite
+        final List<Integer> segments = new ArrayList<>();
+        final File[] files = directory_.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                final String name = f.getName();
+                if (!name.startsWith(SEGMENT_PREFIX)) {
+                    continue;
+                }
+
+                final boolean isTemp = name.endsWith(TEMP_SUFFIX);
+                final int id;
+                try {
+                    id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - (isTemp ? TEMP_SUFFIX.length() : 0)));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+
+                if (isTemp) {
+                    if (id == headSegment && !segmentFile(id).exists() && f.renameTo(segmentFile(id))) {
+                        L.d("[RequestLog] Finished an interrupted rewrite of segment [" + id + "]");
+                        segments.add(id);
+                    } else {
+                        //noinspection ResultOfMethodCallIgnored
+                        f.delete();
+                    }
+                } else {
+                    segments.add(id);
+                }
+            }
+        }
+
+        Integer[] sorted = segments.toArray(new Integer[0]);
+        Arrays.sort(sorted);
+
+        if (headSegment < 0 && sorted.length > 0) {
+            //no head stored yet, start from the first segment
+            headSegment = sorted[0];
+        }
+
+        boolean foundTail = false;
+        for (int id : sorted) {
+            final long end = id < headSegment ? -1 : readSegment(id, id == headSegment ? headOffset : SEGMENT_HEADER_SIZE);
+            if (end < 0) {
+                //already consumed or not readable, delete leftovers
+                //noinspection ResultOfMethodCallIgnored
+                segmentFile(id).delete();
+                continue;
+            }
+
+            foundTail = true;
+            tailSegment_ = id;
+            tailSize_ = end;
+        }
+
+        firstSegment_ = Math.max(headSegment, 0);
+
+        if (foundTail) {
+            tail_ = new RandomAccessFile(segmentFile(tailSegment_), "rw");
+            if (tail_.length() != tailSize_) {
+                //drop a partially written record at the end of the log
+                L.w("[RequestLog] Truncating a partially written record in segment [" + tailSegment_ + "]");
+                tail_.setLength(tailSize_);
+            }
+        } else {
+            tailSegment_ = Math.max(headSegment, 0);
+            tailSize_ = 0;
+        }
+
+        L.d("[RequestLog] Opened request log with [" + records_.size() + "] requests, head segment [" + headSegment + "], tail segment [" + tailSegment_ + "]");
+
+        if (legacySegmentFound_) {
+            L.d("[RequestLog] Converting request log to the current record format");
+            legacySegmentFound_ = false;
+            rewrite(storedRequests());
+        }
+    }
+
+    /**
+     * Reads all complete records of a segment, starting at the given offset
+     *
+     * @return offset right after the last complete record, or -1 if the segment format is unknown
+     */
+    private long readSegment(final int segment, final long startOffset) throws IOException {
+        final File file = segmentFile(segment);
+        final long length = file.length();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        long offset = SEGMENT_HEADER_SIZE;
+        try {
+            final byte version = length < SEGMENT_HEADER_SIZE || in.readInt() != SEGMENT_MAGIC ? -1 : in.readByte();
+            if (version != SEGMENT_VERSION && version != LEGACY_SEGMENT_VERSION) {
+                L.w("[RequestLog] Dropping segment with an unknown format [" + segment + "]");
+                return -1;
+            }
+            if (version == LEGACY_SEGMENT_VERSION) {
+                legacySegmentFound_ = true;
+            }
+
+            if (startOffset > offset) {
+                long toSkip = startOffset - offset;
+                while (toSkip > 0) {
+                    long skipped = in.skip(toSkip);
+                    if (skipped <= 0) {
+                        return offset;
+                    }
+                    toSkip -= skipped;
+                }
+                offset = startOffset;
+            }
+
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                final int recordLength = in.readInt();
+                if (recordLength < 0 || offset + RECORD_HEADER_SIZE + recordLength > length) {
+                    break;
+                }
+
+                final byte[] payload = new byte[recordLength];
+                in.readFully(payload);
+                final StoredRequest request = version == LEGACY_SEGMENT_VERSION ? StoredRequest.parse(new String(payload, "UTF-8")) : decodeRecord(payload);
+                if (request == null) {
+                    L.w("[RequestLog] Found a damaged record in segment [" + segment + "], dropping the rest of the segment");
+                    break;
+                }
+                addRecord(new Record(request, segment, offset));
+                offset += RECORD_HEADER_SIZE + recordLength;
+            }
+        } catch (EOFException ignored) {
+            //partially written record, everything before it is valid
+        } finally {
+            in.close();
+        }
+
+        return offset;
+    }
+
+    private Record firstRecord() {
+        return records_.isEmpty() ? null : records_.iterator().next();
+    }
+
+    private void addRecord(final Record r) {
+        records_.add(r);
+        recordsByClass_.get(r.requestClass.ordinal()).addLast(r);
+        bytesByClass_[r.requestClass.ordinal()] += r.bytes;
+        bytes_ += r.bytes;
+        if (r.request.hasTemporaryDeviceId()) {
+            temporaryIdRecords_++;
+        }
+    }
+
+    private void removeRecord(final Record r) {
+        records_.remove(r);
+        final ArrayDeque<Record> classRecords = recordsByClass_.get(r.requestClass.ordinal());
+        if (classRecords.peekFirst() == r) {
+            classRecords.pollFirst();
+        } else {
+            classRecords.removeFirstOccurrence(r);
+        }
+        bytesByClass_[r.requestClass.ordinal()] -= r.bytes;
+        bytes_ -= r.bytes;
+        if (r.request.hasTemporaryDeviceId()) {
+            temporaryIdRecords_--;
+        }
+    }
+
+    private void clearRecords() {
+        records_.clear();
+        for (ArrayDeque<Record> classRecords : recordsByClass_) {
+            classRecords.clear();
+        }
+        Arrays.fill(bytesByClass_, 0);
+        bytes_ = 0;
+        temporaryIdRecords_ = 0;
+    }
+
+    /**
+     * Returns the size of the string encoded as UTF-8, without encoding it
+     */
+    static int utf8Length(final String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void startSegment(final int segment) throws IOException {
+        closeTail();
+
+        tail_ = new RandomAccessFile(segmentFile(segment), "rw");
+        tail_.setLength(0);
+        tailSegment_ = segment;
+        tailSize_ = writeSegmentHeader(tail_);
+
+        if (records_.isEmpty()) {
+            //nothing left in the previous segments, the head can move to the new one right away
+            writeHead(segment, tailSize_);
+            deleteSegmentsBefore(segment);
+        }
+    }
+
+    private static long writeSegmentHeader(final RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(SEGMENT_MAGIC);
+        file.writeByte(SEGMENT_VERSION);
+        return SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Writes a single record with one write call
+     *
+     * @return amount of bytes written
+     */
+    private static int writeRecord(final RandomAccessFile file, final long offset, final StoredRequest request) throws IOException {
+        final byte[] record = encodeRecord(request);
+        file.seek(offset);
+        file.write(record);
+        return record.length;
+    }
+
+    /**
+     * Encodes the record length, the header fields and the payload of a request
+     */
+    static byte[] encodeRecord(final StoredRequest request) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + 32 + request.byteLength());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);//length, filled in below
+        out.writeByte(request.requestClass.ordinal());
+        out.writeByte(request.deviceIdMode.ordinal());
+        out.writeLong(request.timestamp);
+        out.writeInt(request.appKeyIndex);
+        writeString(out, request.appKey);
+        writeString(out, request.deviceId);
+        writeString(out, request.payload);
+        out.flush();
+
+        final byte[] record = bytes.toByteArray();
+        final int length = record.length - RECORD_HEADER_SIZE;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+        return record;
+    }
+
+    /**
+     * Decodes a record written by {@link #encodeRecord(StoredRequest)}, without the length
+     *
+     * @return the request, or null if the record is damaged
+     */
+    static StoredRequest decodeRecord(final byte[] record) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            final int requestClass = in.readUnsignedByte();
+            final int deviceIdMode = in.readUnsignedByte();
+            final long timestamp = in.readLong();
+            final int appKeyIndex = in.readInt();
+            final String appKey = readString(in);
+            final String deviceId = readString(in);
+            final String payload = readString(in);
+
+            if (requestClass >= RequestClass.values().length || deviceIdMode >= StoredRequest.DeviceIdMode.values().length || payload == null
+                || (appKey != null && (appKeyIndex < 0 || appKeyIndex > payload.length()))) {
+                return null;
+            }
+            return new StoredRequest(appKey, appKeyIndex, StoredRequest.DeviceIdMode.values()[deviceIdMode], deviceId, timestamp, RequestClass.values()[requestClass], payload);
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new EOFException();
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private void writeHead(final int segment, final long offset) throws IOException {
+        final byte[] head = new byte[HEAD_SIZE];
+        for (int i = 0; i < 4; i++) {
+            head[i] = (byte) (segment >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; i++) {
+            head[4 + i] = (byte) (offset >>> (56 - 8 * i));
+        }
+
+        head_.seek(0);
+        head_.write(head);
+    }
+
+    private void deleteSegmentsBefore(final int segment) {
+        for (int id = firstSegment_; id < segment; id++) {
+            final File file = segmentFile(id);
+            if (file.exists() && !file.delete()) {
+                L.w("[RequestLog] Could not delete consumed segment [" + id + "]");
+            }
+        }
+        firstSegment_ = Math.max(firstSegment_, segment);
+    }
+
+    private File segmentFile(final int segment) {
+        return new File(directory_, SEGMENT_PREFIX + segment);
+    }
+
+    private void closeTail() {
+        if (tail_ != null) {
+            try {
+                tail_.close();
+            } catch (IOException ignored) {
+            }
+            tail_ = null;
+        }
+    }
+
+    private void closeFiles() {
+        closeTail();
+        if (head_ != null) {
+            try {
+                head_.close();
+            } catch (IOException ignored) {
+            }
+            head_ = null;
+        }
+    }
+
+    private void deleteFiles() {
+        final File[] files = directory_.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Called when the disk can't be used, the requests stay available in memory
+     */
+    private void disablePersistence(final String message, final Exception ex) {
+        L.e("[RequestLog] " + message + ", continuing in memory only", ex);
+        persistent_ = false;
+        closeFiles();
+    }
+}
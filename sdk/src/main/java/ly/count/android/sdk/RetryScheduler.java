@@ -0,0 +1,95 @@
+package ly.count.android.sdk;
+
+import java.util.Random;
+
+/**
+ * Decides when failed requests can be sent again.
+ * After each failed attempt the wait time is doubled, up to a limit, and a random part is added
+ * so that many devices don't retry at the same moment after a server outage.
+ * The state is persisted in the CountlyStore, so the backoff is also kept after a restart,
+ * that is why the wall clock is used for it.
+ */
+class RetryScheduler {
+    static long BASE_DELAY_MS = 5000;//value is configurable for tests
+    static long MAX_DELAY_MS = 5 * 60 * 1000;//value is configurable for tests
+
+    private final CountlyStore store_;
+    private final Random random_ = new Random();
+
+    private int attempts_;
+    private long nextAttemptTimestamp_;
+
+    ModuleLog L;
+
+    RetryScheduler(final CountlyStore store, final ModuleLog logModule) {
+        store_ = store;
+        L = logModule;
+
+        attempts_ = store.getRetryAttempts();
+        nextAttemptTimestamp_ = store.getRetryNextAttemptTimestamp();
+    }
+
+    /**
+     * Returns true if the backoff has passed and requests can be sent
+     */
+    synchronized boolean canSend() {
+        return remainingDelay() == 0;
+    }
+
+    /**
+     * Returns how many milliseconds are left until requests can be sent again
+     */
+    synchronized long remainingDelay() {
+        if (attempts_ == 0) {
+            return 0;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (nextAttemptTimestamp_ - now > MAX_DELAY_MS) {
+            // the clock was changed, don't wait longer than the max delay
+            nextAttemptTimestamp_ = now + MAX_DELAY_MS;
+        }
+        return Math.max(0, nextAttemptTimestamp_ - now);
+    }
+
+    /**
+     * Should be called when a request failed and has to be retried
+     */
+    synchronized void onFailure() {
+        attempts_++;
+        final long delay = delayForAttempt(attempts_, random_.nextDouble());
+        nextAttemptTimestamp_ = System.currentTimeMillis() + delay;
+        store_.setRetryState(attempts_, nextAttemptTimestamp_);
+
+        if (L != null) {
+            L.d("[RetryScheduler] Request failed [" + attempts_ + "] times in a row, retrying in [" + delay + "] ms");
+        }
+    }
+
+    /**
+     * Should be called when a request was delivered or dropped by the server
+     */
+    synchronized void onSuccess() {
+        if (attempts_ != 0) {
+            attempts_ = 0;
+            nextAttemptTimestamp_ = 0;
+            store_.setRetryState(0, 0);
+        }
+    }
+
+    /**
+     * Calculates the delay for the given attempt. Half of the delay is fixed, the other half random.
+     *
+     * @param attempt amount of failed attempts in a row, starting from 1
+     * @param random value between 0 (inclusive) and 1 (exclusive)
+     * @return delay in milliseconds
+     */
+    static long delayForAttempt(final int attempt, final double random) {
+        long delay = MAX_DELAY_MS;
+        // shifting more than that would overflow, the cap is reached long before anyway
+        if (attempt <= 30) {
+            delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+        }
+        return delay / 2 + (long) (delay / 2 * random);
+    }
+}
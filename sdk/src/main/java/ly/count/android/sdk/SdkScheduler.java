@@ -0,0 +1,185 @@
+package ly.count.android.sdk;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs all background work of the SDK.
+ *
+ * Work is split into lanes, each lane has its own named threads, a fixed upper bound on their count
+ * and a thread priority, so that slow work in one lane (like downloading push media) doesn't hold
+ * back another (like uploading requests). Threads are created when work arrives and stop after
+ * they have been idle for a while. Delayed and periodic work is kept by a single timer thread.
+ *
+ * Calling {@link #halt()} stops the lanes and drops their queued work. Lanes are started again
+ * when new work is submitted.
+ */
+public class SdkScheduler {
+    public enum Lane {
+        //sending the request queue to the server, requests are sent one by one
+        UPLOAD("upload", 1, Thread.NORM_PRIORITY - 1),
+        //writing to disk and processing recorded data, kept in order
+        PERSISTENCE("persistence", 1, Thread.NORM_PRIORITY - 1),
+        //requests and lookups somebody is waiting for
+        IMMEDIATE("immediate", 2, Thread.NORM_PRIORITY),
+        //downloading and decoding media
+        MEDIA("media", 2, Thread.MIN_PRIORITY);
+
+        final String threadName;
+        final int maxThreads;
+        final int priority;
+
+        Lane(String name, int maxThreads, int priority) {
+            this.threadName = "Countly-" + name;
+            this.maxThreads = maxThreads;
+            this.priority = priority;
+        }
+    }
+
+    //how long idle lane threads are kept, value is configurable for tests
+    static long IDLE_THREAD_TIMEOUT_MS = 30000;
+
+    private final ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[Lane.values().length];
+    private final ScheduledThreadPoolExecutor timer;
+
+    SdkScheduler() {
+        timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Countly-timer", Thread.NORM_PRIORITY));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the executor of the lane, starting it if needed
+     */
+    synchronized ExecutorService executor(final Lane lane) {
+        ThreadPoolExecutor executor = lanes[lane.ordinal()];
+        if (executor == null || executor.isShutdown()) {
+            executor = new ThreadPoolExecutor(lane.maxThreads, lane.maxThreads, IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS, new LaneQueue(), new NamedThreadFactory(lane.threadName, lane.priority));
+            executor.allowCoreThreadTimeOut(true);
+            lanes[lane.ordinal()] = executor;
+        }
+        return executor;
+    }
+
+    public Future<?> submit(final Lane lane, final Runnable runnable) {
+        return executor(lane).submit(runnable);
+    }
+
+    public <T> Future<T> submit(final Lane lane, final Callable<T> callable) {
+        return executor(lane).submit(callable);
+    }
+
+    /**
+     * Runs the work in the lane after the delay has passed
+     */
+    public ScheduledFuture<?> schedule(final Lane lane, final Runnable runnable, final long delay, final TimeUnit unit) {
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                submit(lane, runnable);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Executor for delayed and periodic work that is short enough to be run on the timer thread
+     */
+    ScheduledExecutorService timer() {
+        return timer;
+    }
+
+    /**
+     * Returns the amount of work waiting in the lane
+     */
+    public synchronized int queueDepth(final Lane lane) {
+        final ThreadPoolExecutor executor = lanes[lane.ordinal()];
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Returns the highest amount of work that has been waiting in the lane since it was started
+     */
+    synchronized int peakQueueDepth(final Lane lane) {
+        final ThreadPoolExecutor executor = lanes[lane.ordinal()];
+        return executor == null ? 0 : ((LaneQueue) executor.getQueue()).peak.get();
+    }
+
+    synchronized long completedCount(final Lane lane) {
+        final ThreadPoolExecutor executor = lanes[lane.ordinal()];
+        return executor == null ? 0 : executor.getCompletedTaskCount();
+    }
+
+    synchronized int activeCount(final Lane lane) {
+        final ThreadPoolExecutor executor = lanes[lane.ordinal()];
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Stops all lanes, interrupting running work and dropping queued and delayed work.
+     * The timer thread is kept, periodic work has to be cancelled by whoever scheduled it.
+     */
+    synchronized void halt() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i] != null) {
+                lanes[i].shutdownNow();
+                lanes[i] = null;
+            }
+        }
+        for (Runnable delayed : timer.getQueue().toArray(new Runnable[0])) {
+            final RunnableScheduledFuture<?> future = (RunnableScheduledFuture<?>) delayed;
+            if (!future.isPeriodic()) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Queue that remembers the most work it has held
+     */
+    static class LaneQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger peak = new AtomicInteger(0);
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            final boolean added = super.offer(runnable);
+            if (added) {
+                final int depth = size();
+                int current;
+                while (depth > (current = peak.get()) && !peak.compareAndSet(current, depth)) {
+                    //retry
+                }
+            }
+            return added;
+        }
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+        final String name;
+        final int priority;
+        final AtomicInteger count = new AtomicInteger(0);
+
+        NamedThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
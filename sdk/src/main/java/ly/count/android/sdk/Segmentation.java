@@ -0,0 +1,213 @@
+package ly.count.android.sdk;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Typed segmentation for events.
+ *
+ * Values are kept in primitive arrays, so adding them doesn't box them, and the values are
+ * sorted into their types only once, when the event is recorded. A builder can be reused
+ * for multiple events by calling {@link #clear()}, recording an event copies its values.
+ *
+ * Adding a value for a key that is already set replaces the previous value.
+ * Null or empty keys and null values are ignored.
+ *
+ * This class is not thread-safe.
+ */
+public class Segmentation {
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_BOOLEAN = 3;
+
+    private String[] keys;
+    private byte[] types;
+    //int, double (as raw long bits) and boolean (0 or 1) values
+    private long[] values;
+    private String[] strings;
+    private int size = 0;
+
+    public Segmentation() {
+        this(8);
+    }
+
+    /**
+     * @param initialCapacity amount of values that can be added before the storage has to grow
+     */
+    public Segmentation(int initialCapacity) {
+        final int capacity = Math.max(initialCapacity, 1);
+        keys = new String[capacity];
+        types = new byte[capacity];
+        values = new long[capacity];
+        strings = new String[capacity];
+    }
+
+    public Segmentation put(final String key, final String value) {
+        if (value == null) {
+            Countly.sharedInstance().L.w("[Segmentation] Segmentation value cannot be null, ignoring key: [" + key + "]");
+            return this;
+        }
+        final int index = slotFor(key);
+        if (index >= 0) {
+            types[index] = TYPE_STRING;
+            strings[index] = value;
+        }
+        return this;
+    }
+
+    public Segmentation put(final String key, final int value) {
+        final int index = slotFor(key);
+        if (index >= 0) {
+            types[index] = TYPE_INT;
+            values[index] = value;
+            strings[index] = null;
+        }
+        return this;
+    }
+
+    public Segmentation put(final String key, final double value) {
+        final int index = slotFor(key);
+        if (index >= 0) {
+            types[index] = TYPE_DOUBLE;
+            values[index] = Double.doubleToRawLongBits(value);
+            strings[index] = null;
+        }
+        return this;
+    }
+
+    public Segmentation put(final String key, final boolean value) {
+        final int index = slotFor(key);
+        if (index >= 0) {
+            types[index] = TYPE_BOOLEAN;
+            values[index] = value ? 1 : 0;
+            strings[index] = null;
+        }
+        return this;
+    }
+
+    /**
+     * Removes all values, the storage is kept for reuse
+     */
+    public Segmentation clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            strings[i] = null;
+        }
+        size = 0;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a copy that doesn't change when this instance is reused
+     */
+    Segmentation copy() {
+        final Segmentation res = new Segmentation(size);
+        res.keys = Arrays.copyOf(keys, Math.max(size, 1));
+        res.types = Arrays.copyOf(types, Math.max(size, 1));
+        res.values = Arrays.copyOf(values, Math.max(size, 1));
+        res.strings = Arrays.copyOf(strings, Math.max(size, 1));
+        res.size = size;
+        return res;
+    }
+
+    /**
+     * Copies the supported values of the map, values of other types are logged and skipped
+     */
+    static Segmentation fromMap(final Map<String, Object> segmentation, final ModuleLog L) {
+        final Segmentation res = new Segmentation(segmentation.size());
+        for (Map.Entry<String, Object> pair : segmentation.entrySet()) {
+            final String key = pair.getKey();
+            final Object value = pair.getValue();
+
+            if (value instanceof String) {
+                res.put(key, (String) value);
+            } else if (value instanceof Integer) {
+                res.put(key, (int) (Integer) value);
+            } else if (value instanceof Double) {
+                res.put(key, (double) (Double) value);
+            } else if (value instanceof Boolean) {
+                res.put(key, (boolean) (Boolean) value);
+            } else if (value != null && key != null) {
+                L.w("[Segmentation] Event segmentation key:[" + key + "], unsupported value type:[" + value.getClass().getCanonicalName() + "]");
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Sorts the values into maps by their type in a single pass
+     *
+     * @param reservedKeys keys that are skipped, can be null
+     */
+    void partition(final String[] reservedKeys, final Map<String, String> segmentationString, final Map<String, Integer> segmentationInt, final Map<String, Double> segmentationDouble,
+        final Map<String, Boolean> segmentationBoolean) {
+        for (int i = 0; i < size; i++) {
+            final String key = keys[i];
+            if (isReserved(key, reservedKeys)) {
+                continue;
+            }
+
+            switch (types[i]) {
+                case TYPE_STRING:
+                    segmentationString.put(key, strings[i]);
+                    break;
+                case TYPE_INT:
+                    segmentationInt.put(key, (int) values[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    segmentationDouble.put(key, Double.longBitsToDouble(values[i]));
+                    break;
+                default:
+                    segmentationBoolean.put(key, values[i] != 0);
+                    break;
+            }
+        }
+    }
+
+    static boolean isReserved(final String key, final String[] reservedKeys) {
+        if (reservedKeys != null) {
+            for (String reserved : reservedKeys) {
+                if (reserved.equals(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index for the key, adding it if needed, or -1 if the key is not valid
+     */
+    private int slotFor(final String key) {
+        if (key == null || key.length() == 0) {
+            Countly.sharedInstance().L.w("[Segmentation] Segmentation key cannot be null or empty, ignoring it");
+            return -1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+
+        if (size == keys.length) {
+            final int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+
+        keys[size] = key;
+        return size++;
+    }
+}
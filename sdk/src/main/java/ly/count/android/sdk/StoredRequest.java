@@ -0,0 +1,246 @@
+package ly.count.android.sdk;
+
+/**
+ * A stored request split into a typed header and the rest of its parameters.
+ *
+ * The header holds the fields the SDK has to look at or change while the request waits in the queue:
+ * the app key, the device ID change that is added as the last parameter, the timestamp and the
+ * {@link RequestClass}. The remaining parameters are kept as the payload, exactly as they were added,
+ * and the query string is put back together only when it is needed.
+ *
+ * Instances are immutable, changing a header field returns a new instance.
+ */
+final class StoredRequest {
+    static final String APP_KEY_PARAM = "app_key=";
+    static final String DEVICE_ID_PARAM = "&device_id=";
+    static final String OVERRIDE_ID_PARAM = "&override_id=";
+
+    enum DeviceIdMode {
+        //the device ID is added when the request is sent
+        NONE,
+        //the request changes the device ID and merges the previous one into it
+        CHANGE,
+        //the request has to be sent with the given device ID instead of the current one
+        OVERRIDE
+    }
+
+    //url encoded app key, or null if the request has none
+    final String appKey;
+    final DeviceIdMode deviceIdMode;
+    //url encoded device ID of the change or override, null for DeviceIdMode.NONE
+    final String deviceId;
+    final long timestamp;
+    final RequestClass requestClass;
+    //the request without the app key value and the trailing device ID parameter
+    final String payload;
+    //position in the payload where the app key parameter was removed, -1 if there is no app key
+    final int appKeyIndex;
+
+    private String rendered_;
+
+    StoredRequest(String appKey, int appKeyIndex, DeviceIdMode deviceIdMode, String deviceId, long timestamp, RequestClass requestClass, String payload) {
+        this.appKey = appKey;
+        this.appKeyIndex = appKey == null ? -1 : appKeyIndex;
+        this.deviceIdMode = deviceIdMode;
+        this.deviceId = deviceIdMode == DeviceIdMode.NONE ? null : deviceId;
+        this.timestamp = timestamp;
+        this.requestClass = requestClass;
+        this.payload = payload;
+    }
+
+    /**
+     * Splits a query string into the header fields and the payload.
+     * Rendering the result gives back the same query string.
+     */
+    static StoredRequest parse(final String request) {
+        final String data = request == null ? "" : request;
+        final RequestClass requestClass = RequestClass.of(data);
+        final long timestamp = parseLong(paramValue(data, "timestamp"));
+
+        //the device ID change is always the last parameter
+        DeviceIdMode mode = DeviceIdMode.NONE;
+        String deviceId = null;
+        int end = data.length();
+        final int lastParam = data.lastIndexOf('&');
+        if (lastParam >= 0) {
+            if (data.startsWith(DEVICE_ID_PARAM, lastParam)) {
+                mode = DeviceIdMode.CHANGE;
+                deviceId = data.substring(lastParam + DEVICE_ID_PARAM.length());
+                end = lastParam;
+            } else if (data.startsWith(OVERRIDE_ID_PARAM, lastParam)) {
+                mode = DeviceIdMode.OVERRIDE;
+                deviceId = data.substring(lastParam + OVERRIDE_ID_PARAM.length());
+                end = lastParam;
+            }
+        }
+
+        String appKey = null;
+        int appKeyIndex = -1;
+        final int appKeyStart = paramIndex(data, "app_key");
+        if (appKeyStart >= 0 && appKeyStart < end) {
+            final int valueStart = appKeyStart + APP_KEY_PARAM.length();
+            int valueEnd = data.indexOf('&', valueStart);
+            if (valueEnd < 0 || valueEnd > end) {
+                valueEnd = end;
+            }
+            appKey = data.substring(valueStart, valueEnd);
+            appKeyIndex = appKeyStart;
+            return new StoredRequest(appKey, appKeyIndex, mode, deviceId, timestamp, requestClass, data.substring(0, appKeyStart) + data.substring(valueEnd, end));
+        }
+
+        return new StoredRequest(null, appKeyIndex, mode, deviceId, timestamp, requestClass, data.substring(0, end));
+    }
+
+    /**
+     * Returns the request as a query string, the result is cached
+     */
+    String render() {
+        if (rendered_ == null) {
+            rendered_ = renderWith(deviceIdMode, deviceId);
+        }
+        return rendered_;
+    }
+
+    /**
+     * Returns the request as a query string with the given device ID as the "device_id" parameter,
+     * replacing the device ID change or override of this request
+     *
+     * @param encodedDeviceId url encoded device ID
+     */
+    String renderWithDeviceId(final String encodedDeviceId) {
+        return renderWith(DeviceIdMode.CHANGE, encodedDeviceId);
+    }
+
+    private String renderWith(final DeviceIdMode mode, final String encodedDeviceId) {
+        final StringBuilder sb = new StringBuilder(payload.length() + (appKey == null ? 0 : APP_KEY_PARAM.length() + appKey.length()) + (encodedDeviceId == null ? 0 : OVERRIDE_ID_PARAM.length() + encodedDeviceId.length()));
+        if (appKey == null) {
+            sb.append(payload);
+        } else {
+            sb.append(payload, 0, appKeyIndex).append(APP_KEY_PARAM).append(appKey).append(payload, appKeyIndex, payload.length());
+        }
+
+        if (mode == DeviceIdMode.CHANGE) {
+            sb.append(DEVICE_ID_PARAM).append(encodedDeviceId);
+        } else if (mode == DeviceIdMode.OVERRIDE) {
+            sb.append(OVERRIDE_ID_PARAM).append(encodedDeviceId);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the size of the rendered request encoded as UTF-8, without rendering it
+     */
+    int byteLength() {
+        int length = RequestLog.utf8Length(payload);
+        if (appKey != null) {
+            length += APP_KEY_PARAM.length() + RequestLog.utf8Length(appKey);
+        }
+        if (deviceIdMode == DeviceIdMode.CHANGE) {
+            length += DEVICE_ID_PARAM.length() + RequestLog.utf8Length(deviceId);
+        } else if (deviceIdMode == DeviceIdMode.OVERRIDE) {
+            length += OVERRIDE_ID_PARAM.length() + RequestLog.utf8Length(deviceId);
+        }
+        return length;
+    }
+
+    /**
+     * Returns true if the request changes or overrides the device ID to the temporary one
+     */
+    boolean hasTemporaryDeviceId() {
+        return deviceIdMode != DeviceIdMode.NONE && DeviceId.temporaryCountlyDeviceId.equals(deviceId);
+    }
+
+    /**
+     * @param encodedAppKey url encoded app key
+     * @return a copy with the given app key, or this instance if the request has no app key or it's the same
+     */
+    StoredRequest withAppKey(final String encodedAppKey) {
+        if (appKey == null || appKey.equals(encodedAppKey)) {
+            return this;
+        }
+        return new StoredRequest(encodedAppKey, appKeyIndex, deviceIdMode, deviceId, timestamp, requestClass, payload);
+    }
+
+    /**
+     * @param encodedDeviceId url encoded device ID
+     * @return a copy with the given device ID for the change or override, or this instance if there is none or it's the same
+     */
+    StoredRequest withDeviceId(final String encodedDeviceId) {
+        if (deviceIdMode == DeviceIdMode.NONE || deviceId.equals(encodedDeviceId)) {
+            return this;
+        }
+        return new StoredRequest(appKey, appKeyIndex, deviceIdMode, encodedDeviceId, timestamp, requestClass, payload);
+    }
+
+    /**
+     * @param encodedValue url encoded value
+     * @return a copy with the given value of the parameter, or this instance if the parameter is not in the payload
+     */
+    StoredRequest withParam(final String name, final String encodedValue) {
+        final int index = paramIndex(payload, name);
+        if (index < 0) {
+            return this;
+        }
+        final int start = index + name.length() + 1;
+        int end = payload.indexOf('&', start);
+        if (end < 0) {
+            end = payload.length();
+        }
+        final String changed = payload.substring(0, start) + encodedValue + payload.substring(end);
+        //the app key is put back at its position in the payload, which moves if the parameter is in front of it
+        final int appKeyShift = appKey != null && index < appKeyIndex ? changed.length() - payload.length() : 0;
+        return new StoredRequest(appKey, appKeyIndex + appKeyShift, deviceIdMode, deviceId, timestamp, requestClass, changed);
+    }
+
+    /**
+     * Returns the index of the parameter in the request, or -1 if it's not there
+     */
+    static int paramIndex(final String request, final String name) {
+        int index = request.indexOf(name);
+        while (index >= 0) {
+            final int end = index + name.length();
+            if ((index == 0 || request.charAt(index - 1) == '&') && end < request.length() && request.charAt(end) == '=') {
+                return index;
+            }
+            index = request.indexOf(name, end);
+        }
+        return -1;
+    }
+
+    static String paramValue(final String request, final String name) {
+        final int index = paramIndex(request, name);
+        if (index < 0) {
+            return null;
+        }
+        final int start = index + name.length() + 1;
+        final int end = request.indexOf('&', start);
+        return end < 0 ? request.substring(start) : request.substring(start, end);
+    }
+
+    /**
+     * Returns the request without the given parameter, or the same request if it's not there
+     */
+    static String removeParam(final String request, final String name) {
+        final int index = paramIndex(request, name);
+        if (index < 0) {
+            return request;
+        }
+        final int end = request.indexOf('&', index);
+        if (end < 0) {
+            //the last parameter, the separator in front of it is removed too
+            return request.substring(0, Math.max(index - 1, 0));
+        }
+        return request.substring(0, index) + request.substring(end + 1);
+    }
+
+    private static long parseLong(final String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
@@ -18,7 +18,7 @@ public class UserData {
     private static final String ORG_KEY = "organization";
     private static final String PHONE_KEY = "phone";
     private static final String PICTURE_KEY = "picture";
-    private static final String PICTURE_PATH_KEY = "picturePath";
+    static final String PICTURE_PATH_KEY = "picturePath";
     private static final String GENDER_KEY = "gender";
     private static final String BYEAR_KEY = "byear";
     private static final String CUSTOM_KEY = "custom";
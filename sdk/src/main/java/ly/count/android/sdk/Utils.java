@@ -14,21 +14,17 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static android.content.Context.UI_MODE_SERVICE;
 
 public class Utils {
-    private static final ExecutorService bg = Executors.newSingleThreadExecutor();
-
     public static Future<?> runInBackground(Runnable runnable) {
-        return bg.submit(runnable);
+        return Countly.sharedInstance().scheduler_.submit(SdkScheduler.Lane.PERSISTENCE, runnable);
     }
 
     public static <T> Future<T> runInBackground(Callable<T> runnable) {
-        return bg.submit(runnable);
+        return Countly.sharedInstance().scheduler_.submit(SdkScheduler.Lane.PERSISTENCE, runnable);
     }
 
     /**
@@ -198,7 +194,7 @@ public class Utils {
      * @param segmDouble
      * @param segmBoolean
      */
-    protected static synchronized void fillInSegmentation(Map<String, Object> allSegm, Map<String, String> segmStr, Map<String, Integer> segmInt, Map<String, Double> segmDouble, Map<String, Boolean> segmBoolean,
+    protected static void fillInSegmentation(Map<String, Object> allSegm, Map<String, String> segmStr, Map<String, Integer> segmInt, Map<String, Double> segmDouble, Map<String, Boolean> segmBoolean,
         Map<String, Object> reminder) {
         for (Map.Entry<String, Object> pair : allSegm.entrySet()) {
             String key = pair.getKey();
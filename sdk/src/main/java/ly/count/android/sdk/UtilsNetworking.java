@@ -22,6 +22,47 @@ public class UtilsNetworking {
         return result;
     }
 
+    /**
+     * URL encodes the value straight into the builder, without creating intermediate strings.
+     * The result is the same as the one of {@link java.net.URLEncoder#encode(String, String)} with UTF-8.
+     *
+     * @param value value to encode
+     * @param out builder the encoded value is appended to
+     */
+    static void urlEncodeTo(final CharSequence value, final StringBuilder out) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_') {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else if (c < 0x80) {
+                appendEncodedByte(c, out);
+            } else if (c < 0x800) {
+                appendEncodedByte(0xC0 | (c >> 6), out);
+                appendEncodedByte(0x80 | (c & 0x3F), out);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEncodedByte(0xF0 | (codePoint >> 18), out);
+                appendEncodedByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+                appendEncodedByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendEncodedByte(0x80 | (codePoint & 0x3F), out);
+            } else if (Character.isSurrogate(c)) {
+                //an unpaired surrogate can't be encoded, same as URLEncoder it's replaced
+                appendEncodedByte('?', out);
+            } else {
+                appendEncodedByte(0xE0 | (c >> 12), out);
+                appendEncodedByte(0x80 | ((c >> 6) & 0x3F), out);
+                appendEncodedByte(0x80 | (c & 0x3F), out);
+            }
+        }
+    }
+
+    private static void appendEncodedByte(final int b, final StringBuilder out) {
+        out.append('%').append(hexArray[(b >> 4) & 0x0F]).append(hexArray[b & 0x0F]);
+    }
+
     protected static String urlDecodeString(String givenValue) {
         String decodedResult = "";
 
@@ -1,9 +1,7 @@
 package ly.count.android.sdk;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UtilsTime {
 
@@ -22,13 +20,60 @@ public class UtilsTime {
             if (timestampInMillis < 0L) {
                 throw new IllegalArgumentException("timestampInMillis must be greater than or equal to zero");
             }
+
+            //hour and day of week stay the same until the next hour starts, so they are only calculated once per hour
+            HourCache cache = hourCache;
+            if (cache == null || !cache.covers(timestampInMillis)) {
+                cache = HourCache.create(timestampInMillis);
+                hourCache = cache;
+            }
+            return new Instant(timestampInMillis, cache.hour, cache.dow);
+        }
+    }
+
+    /**
+     * Hour and day of week of a single hour in the local timezone.
+     * The timezone is checked again at least once a minute, so a changed timezone is picked up.
+     */
+    static final class HourCache {
+        static long TIMEZONE_CHECK_INTERVAL_MS = 60 * 1000;//value is configurable for tests
+
+        final long hourStart;
+        final long hourEnd;
+        final long checkUntil;
+        final int hour;
+        final int dow;
+
+        HourCache(long hourStart, long hourEnd, long checkUntil, int hour, int dow) {
+            this.hourStart = hourStart;
+            this.hourEnd = hourEnd;
+            this.checkUntil = checkUntil;
+            this.hour = hour;
+            this.dow = dow;
+        }
+
+        static HourCache create(final long timestampInMillis) {
             Calendar calendar = Calendar.getInstance();
             calendar.setTimeInMillis(timestampInMillis);
             final int hour = calendar.get(Calendar.HOUR_OF_DAY);
             // Calendar days are 1-based, Countly days are 0-based
             final int dow = calendar.get(Calendar.DAY_OF_WEEK) - 1;
-            return new Instant(timestampInMillis, hour, dow);
+            final long hourStart = timestampInMillis - calendar.get(Calendar.MINUTE) * 60000L - calendar.get(Calendar.SECOND) * 1000L - calendar.get(Calendar.MILLISECOND);
+            return new HourCache(hourStart, hourStart + 3600000L, System.currentTimeMillis() + TIMEZONE_CHECK_INTERVAL_MS, hour, dow);
         }
+
+        boolean covers(final long timestampInMillis) {
+            return timestampInMillis >= hourStart && timestampInMillis < hourEnd && System.currentTimeMillis() < checkUntil;
+        }
+    }
+
+    private static volatile HourCache hourCache = null;
+
+    /**
+     * Drops the cached hour, so that a changed timezone is used right away
+     */
+    static void clearHourCache() {
+        hourCache = null;
     }
 
     /**
@@ -36,7 +81,7 @@ public class UtilsTime {
      *
      * @return
      */
-    public static synchronized Instant getCurrentInstant() {
+    public static Instant getCurrentInstant() {
         long timestamp = currentTimestampMs();
         return Instant.get(timestamp);
     }
@@ -46,7 +91,7 @@ public class UtilsTime {
      *
      * @return
      */
-    public static synchronized long currentTimestampMs() {
+    public static long currentTimestampMs() {
         return timeGenerator.uniqueTimestamp();
     }
 
@@ -57,35 +102,35 @@ public class UtilsTime {
         return ((int) (System.currentTimeMillis() / 1000L));
     }
 
-    private static class TimeUniquesEnsurer {
-        final List<Long> lastTsMs = new ArrayList<>(10);
-        final long addition = 0;
+    /**
+     * Gives out unique, increasing timestamps without locking.
+     * If more than one timestamp is needed within the same millisecond, the following
+     * milliseconds are used. If the clock is set back by more than a second, the
+     * timestamps follow it.
+     */
+    static class TimeUniquesEnsurer {
+        static final long MAX_CLOCK_BACK_MS = 1000;
+
+        final AtomicLong lastTsMs = new AtomicLong(0);
+        //latest clock value that was seen, used to tell a clock that was set back from timestamps that ran ahead
+        volatile long lastClockMs = 0;
 
         long currentTimeMillis() {
-            return System.currentTimeMillis() + addition;
+            return System.currentTimeMillis();
         }
 
-        synchronized long uniqueTimestamp() {
-            long ms = currentTimeMillis();
+        long uniqueTimestamp() {
+            final long now = currentTimeMillis();
+            final boolean clockSetBack = now + MAX_CLOCK_BACK_MS < lastClockMs;
+            lastClockMs = now;
 
-            // change time back case
-            if (lastTsMs.size() > 2) {
-                long min = Collections.min(lastTsMs);
-                if (ms < min) {
-                    lastTsMs.clear();
-                    lastTsMs.add(ms);
+            while (true) {
+                final long last = lastTsMs.get();
+                final long ms = (now > last || clockSetBack) ? now : last + 1;
+                if (lastTsMs.compareAndSet(last, ms)) {
                     return ms;
                 }
             }
-            // usual case
-            while (lastTsMs.contains(ms)) {
-                ms += 1;
-            }
-            while (lastTsMs.size() >= 10) {
-                lastTsMs.remove(0);
-            }
-            lastTsMs.add(ms);
-            return ms;
         }
     }
 
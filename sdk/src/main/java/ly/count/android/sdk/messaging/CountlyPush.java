@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.Set;
 import ly.count.android.sdk.Countly;
 import ly.count.android.sdk.CountlyStore;
+import ly.count.android.sdk.SdkScheduler;
 import ly.count.android.sdk.Utils;
 
 /**
@@ -771,7 +772,7 @@ public class CountlyPush {
         if (provider == Countly.CountlyMessagingProvider.HMS && getPushConsent(application)) {
             String version = getEMUIVersion();
             if (version.startsWith("10")) {
-                new Thread(new Runnable() {
+                Countly.sharedInstance().scheduler().submit(SdkScheduler.Lane.IMMEDIATE, new Runnable() {
                     @Override
                     public void run() {
                         String token = getToken(application, Countly.CountlyMessagingProvider.HMS);
@@ -779,7 +780,7 @@ public class CountlyPush {
                             onTokenRefresh(token, Countly.CountlyMessagingProvider.HMS);
                         }
                     }
-                }).start();
+                });
             }
         }
     }
@@ -861,7 +862,7 @@ public class CountlyPush {
     }
 
     private static void loadImage(final Context context, final Message msg, final BitmapCallback callback, final int attempt) {
-        Utils.runInBackground(new Runnable() {
+        Countly.sharedInstance().scheduler().submit(SdkScheduler.Lane.MEDIA, new Runnable() {
             @Override public void run() {
                 final Bitmap[] bitmap = new Bitmap[] { null };
 